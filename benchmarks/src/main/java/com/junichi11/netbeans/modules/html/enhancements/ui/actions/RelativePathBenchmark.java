@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.ui.actions;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark the relative path computation of {@link InsertAsHtmlAction}.
+ *
+ * @author junichi11
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RelativePathBenchmark {
+
+    /**
+     * Paths of the HTML file and the image file. The image is under the
+     * directory of the HTML file in "child", otherwise the common ancestor is
+     * searched.
+     */
+    @Param({
+        "site/index.html:site/imgs/test.png",
+        "site/pages/a/b/c/index.html:site/assets/imgs/d/e/test.png",
+        "a/b/c/d/e/f/g/h/index.html:z/y/x/w/v/u/t/s/test.png"
+    })
+    public String paths;
+
+    private FileObject from;
+    private FileObject to;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] split = paths.split(":"); // NOI18N
+        FileObject root = FileUtil.createMemoryFileSystem().getRoot();
+        from = FileUtil.createData(root, split[0]);
+        to = FileUtil.createData(root, split[1]);
+    }
+
+    @Benchmark
+    public String getRelativePath() {
+        return InsertAsHtmlAction.getRelativePath(from, to);
+    }
+}
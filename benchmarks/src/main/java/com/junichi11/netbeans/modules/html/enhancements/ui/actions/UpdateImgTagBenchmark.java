@@ -0,0 +1,54 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.ui.actions;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark {@link UpdateImageSizeAction#updateImgTag(String, int, int)}.
+ *
+ * @author junichi11
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpdateImgTagBenchmark {
+
+    @Param({
+        "<img src=\"test.png\"/>",
+        "<img src=\"test.png\" alt=\"test\" width=\"2\" height=\"3\"/>",
+        "<img src=\"imgs/test1.png\" alt=\"\"\n             width=\"642\"\n             height=\"493\" />"
+    })
+    public String tag;
+
+    @Benchmark
+    public String updateImgTag() {
+        return UpdateImageSizeAction.updateImgTag(tag, 100, 200);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.util.concurrent.TimeUnit;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+import org.netbeans.modules.csl.api.OffsetRange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark {@link DocUtils#getImgRange(Document, int)}.
+ *
+ * @author junichi11
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetImgRangeBenchmark {
+
+    private static final String IMG_TAG = "<img src=\"imgs/test1.png\" alt=\"\"\n"
+            + "             width=\"642\"\n"
+            + "             height=\"493\" />"; // NOI18N
+    private static final String LONG_IMG_TAG_PREFIX = "<img alt=\"\" src=\"data:image/png;base64,"; // NOI18N
+
+    /**
+     * small: one tag in a small page, large: a tag in the middle of a 5 MB
+     * page, minified: a tag in the middle of a single line page, longTag: a
+     * tag with a 1 MB data URI.
+     */
+    @Param({"small", "large", "minified", "longTag"})
+    public String document;
+
+    private Document doc;
+    private int offset;
+
+    @Setup
+    public void setUp() throws BadLocationException {
+        StringBuilder sb = new StringBuilder();
+        switch (document) {
+            case "small": // NOI18N
+                sb.append("<html>\n<body>\n    ").append(IMG_TAG).append("\n</body>\n</html>\n"); // NOI18N
+                offset = sb.indexOf("width"); // NOI18N
+                break;
+            case "large": // NOI18N
+                while (sb.length() < 5 * 1024 * 1024) {
+                    sb.append("<div class=\"item\">\n    ").append(IMG_TAG).append("\n</div>\n"); // NOI18N
+                }
+                offset = sb.indexOf("width", sb.length() / 2); // NOI18N
+                break;
+            case "minified": // NOI18N
+                while (sb.length() < 5 * 1024 * 1024) {
+                    sb.append("<div class=\"item\">").append(IMG_TAG.replace("\n", " ")).append("</div>"); // NOI18N
+                }
+                offset = sb.indexOf("width", sb.length() / 2); // NOI18N
+                break;
+            case "longTag": // NOI18N
+                sb.append("<p>").append(LONG_IMG_TAG_PREFIX); // NOI18N
+                for (int i = 0; i < 1024 * 1024; i++) {
+                    sb.append('A');
+                }
+                sb.append("\" />"); // NOI18N
+                offset = sb.length() - 3;
+                break;
+            default:
+                throw new IllegalStateException("Unknown document: " + document); // NOI18N
+        }
+        doc = new PlainDocument();
+        doc.insertString(0, sb.toString(), null);
+    }
+
+    @Benchmark
+    public OffsetRange getImgRange() throws BadLocationException {
+        return DocUtils.getImgRange(doc, offset, Integer.MAX_VALUE);
+    }
+}
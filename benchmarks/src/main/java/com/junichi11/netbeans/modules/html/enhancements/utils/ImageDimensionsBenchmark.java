@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark image dimension resolution. {@link #probe()} reads only the header,
+ * {@link #decode()} is the full decode for comparison.
+ *
+ * @author junichi11
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageDimensionsBenchmark {
+
+    @Param({"png", "jpg", "gif"})
+    public String format;
+
+    @Param({"64", "1024", "4096"})
+    public int size;
+
+    private byte[] bytes;
+    private FileObject image;
+
+    @Setup
+    public void setUp() throws IOException {
+        BufferedImage bufferedImage = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                bufferedImage.setRGB(x, y, x * 31 + y * 17);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(bufferedImage, format, out);
+        bytes = out.toByteArray();
+
+        image = FileUtil.createMemoryFileSystem().getRoot().createData("image." + format); // NOI18N
+        try (OutputStream outputStream = image.getOutputStream()) {
+            outputStream.write(bytes);
+        }
+    }
+
+    @Benchmark
+    public ImageDimensions probe() {
+        return DocUtils.probe(image);
+    }
+
+    @Benchmark
+    public ImageDimensions parseHeader() throws IOException {
+        return ImageHeaderParser.parse(new ByteArrayInputStream(bytes));
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(bytes));
+    }
+}
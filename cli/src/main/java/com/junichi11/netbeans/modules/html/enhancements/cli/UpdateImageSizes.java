@@ -0,0 +1,586 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.cli;
+
+import com.junichi11.netbeans.modules.html.enhancements.ui.actions.StreamingImgTagRewriter;
+import com.junichi11.netbeans.modules.html.enhancements.ui.actions.UpdateImageSizeAction;
+import com.junichi11.netbeans.modules.html.enhancements.utils.DocUtils;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageDimensions;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImgTag;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+import org.netbeans.api.html.lexer.HTMLTokenId;
+import org.netbeans.api.lexer.Language;
+import org.netbeans.modules.csl.api.OffsetRange;
+
+/**
+ * Update width and height of img tags in HTML and PHP files without the IDE.
+ * Files are processed in parallel. By default, changes are printed as a
+ * unified diff without context lines (like {@code diff -U0}) and the exit
+ * status is 1 if there are changes. With --write, files are replaced with
+ * rewritten temporary files. Files larger than {@link #STREAMING_THRESHOLD} bytes are
+ * processed with {@link StreamingImgTagRewriter} instead of the HTML lexer.
+ *
+ * @author junichi11
+ */
+public final class UpdateImageSizes {
+
+    private static final String[] EXTENSIONS = {".html", ".htm", ".xhtml", ".php", ".phtml"}; // NOI18N
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_CHANGED = 1;
+    private static final int EXIT_ERROR = 2;
+    static final int STREAMING_THRESHOLD = Integer.getInteger("html.enhancements.cli.streamingThreshold", 8 * 1024 * 1024); // NOI18N
+
+    private final boolean write;
+    private final Path webRoot;
+    private final Charset charset;
+    private final int threads;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final ConcurrentHashMap<Path, Optional<ImageDimensions>> dimensions = new ConcurrentHashMap<>();
+    // statistics
+    private final AtomicLong filesChanged = new AtomicLong();
+    private final AtomicLong tags = new AtomicLong();
+    private final AtomicLong tagsUpdated = new AtomicLong();
+    private final AtomicLong imagesProbed = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    UpdateImageSizes(boolean write, Path webRoot, Charset charset, int threads, PrintStream out, PrintStream err) {
+        this.write = write;
+        this.webRoot = webRoot;
+        this.charset = charset;
+        this.threads = threads;
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        boolean write = false;
+        Path webRoot = null;
+        Charset charset = Charset.forName("UTF-8"); // NOI18N
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> roots = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "--write": // NOI18N
+                        write = true;
+                        break;
+                    case "--web-root": // NOI18N
+                        webRoot = Paths.get(args[++i]).toAbsolutePath().normalize();
+                        break;
+                    case "--encoding": // NOI18N
+                        charset = Charset.forName(args[++i]);
+                        break;
+                    case "--threads": // NOI18N
+                        threads = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "-h": // NOI18N
+                    case "--help": // NOI18N
+                        printUsage(out);
+                        return EXIT_OK;
+                    default:
+                        if (arg.startsWith("-")) { // NOI18N
+                            throw new IllegalArgumentException("Unknown option: " + arg); // NOI18N
+                        }
+                        roots.add(Paths.get(arg).toAbsolutePath().normalize());
+                        break;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException ex) {
+            err.println(ex instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : ex.getMessage()); // NOI18N
+            printUsage(err);
+            return EXIT_ERROR;
+        }
+        if (roots.isEmpty()) {
+            printUsage(err);
+            return EXIT_ERROR;
+        }
+        UpdateImageSizes updateImageSizes = new UpdateImageSizes(write, webRoot, charset, threads, out, err);
+        try {
+            return updateImageSizes.run(roots);
+        } catch (IOException ex) {
+            err.println(ex.getMessage());
+            return EXIT_ERROR;
+        }
+    }
+
+    private static void printUsage(PrintStream stream) {
+        stream.println("Usage: java -jar html-enhancements-cli.jar [options] <directory or file>..."); // NOI18N
+        stream.println("Update width and height of img tags in HTML and PHP files."); // NOI18N
+        stream.println();
+        stream.println("  --write             rewrite files (default: print a unified diff)"); // NOI18N
+        stream.println("  --web-root <dir>    resolve root-relative src values (e.g. /img/a.png) from <dir>"); // NOI18N
+        stream.println("  --encoding <name>   file encoding (default: UTF-8)"); // NOI18N
+        stream.println("  --threads <n>       the number of threads (default: the number of processors)"); // NOI18N
+        stream.println("  -h, --help          show this help"); // NOI18N
+    }
+
+    int run(List<Path> roots) throws IOException {
+        long start = System.nanoTime();
+        List<Path> files = new ArrayList<>();
+        for (Path root : roots) {
+            try (Stream<Path> stream = Files.walk(root)) {
+                files.addAll(stream.filter(Files::isRegularFile)
+                        .filter(UpdateImageSizes::isTarget)
+                        .collect(Collectors.toList()));
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> futures = new ArrayList<>(files.size());
+            for (Path file : files) {
+                futures.add(executor.submit(() -> process(file)));
+            }
+            // print in the order of files
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    String diff = futures.get(i).get();
+                    if (!diff.isEmpty()) {
+                        out.print(diff);
+                    }
+                } catch (ExecutionException ex) {
+                    errors.incrementAndGet();
+                    err.println(files.get(i) + ": " + ex.getCause()); // NOI18N
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return EXIT_ERROR;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        printStatistics(files.size(), System.nanoTime() - start);
+        if (errors.get() > 0) {
+            return EXIT_ERROR;
+        }
+        return !write && filesChanged.get() > 0 ? EXIT_CHANGED : EXIT_OK;
+    }
+
+    private static boolean isTarget(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        for (String extension : EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Update img tags of a file.
+     *
+     * @param file HTML or PHP file
+     * @return diff, or an empty string if nothing is changed
+     */
+    String process(Path file) throws IOException, BadLocationException {
+        if (Files.size(file) > STREAMING_THRESHOLD) {
+            return processStreaming(file);
+        }
+        byte[] content = Files.readAllBytes(file);
+        bytes.addAndGet(content.length);
+        String text = new String(content, charset);
+        Document document = new PlainDocument();
+        document.putProperty(Language.class, HTMLTokenId.language());
+        document.insertString(0, text, null);
+        List<ImgTag> imgTags = new ArrayList<>();
+        document.render(() -> imgTags.addAll(ImgTag.findAll(document)));
+        tags.addAndGet(imgTags.size());
+
+        StringBuilder updated = new StringBuilder(text.length() + 64);
+        List<Change> changes = new ArrayList<>();
+        int copied = 0;
+        int line = 1;
+        int lineCounted = 0;
+        for (ImgTag imgTag : imgTags) {
+            ImageDimensions imageDimensions = getDimensions(file, imgTag.getSrc());
+            if (imageDimensions == null) {
+                continue;
+            }
+            int width = imageDimensions.getWidth();
+            int height = imageDimensions.getHeight();
+            if (isValue(text, imgTag.getWidthRange(), width) && isValue(text, imgTag.getHeightRange(), height)) {
+                continue;
+            }
+            OffsetRange range = imgTag.getRange();
+            String oldTag = text.substring(range.getStart(), range.getEnd());
+            String newTag = UpdateImageSizeAction.updateImgTag(oldTag, width, height);
+            if (oldTag.equals(newTag)) {
+                continue;
+            }
+            updated.append(text, copied, range.getStart()).append(newTag);
+            copied = range.getEnd();
+            tagsUpdated.incrementAndGet();
+            for (; lineCounted < range.getStart(); lineCounted++) {
+                if (text.charAt(lineCounted) == '\n') {
+                    line++;
+                }
+            }
+            changes.add(new Change(line, oldTag, newTag));
+        }
+        if (copied == 0) {
+            return ""; // NOI18N
+        }
+        updated.append(text, copied, text.length());
+        filesChanged.incrementAndGet();
+        if (write) {
+            Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp"); // NOI18N
+            try {
+                Files.write(temp, updated.toString().getBytes(charset));
+                replace(file, temp);
+            } catch (IOException | RuntimeException ex) {
+                Files.deleteIfExists(temp);
+                throw ex;
+            }
+            return ""; // NOI18N
+        }
+        return createDiff(getDisplayName(file), new StringReader(text), changes);
+    }
+
+    /**
+     * Update img tags of a large file. Only the changed tags are kept in
+     * memory. The diff is created by reading the file again.
+     *
+     * @param file HTML or PHP file
+     * @return diff, or an empty string if nothing is changed
+     */
+    String processStreaming(Path file) throws IOException {
+        List<Change> changes = new ArrayList<>();
+        StreamingImgTagRewriter rewriter = new StreamingImgTagRewriter(
+                src -> getDimensions(file, src),
+                write ? null : (line, oldTag, newTag) -> changes.add(new Change(line, oldTag, newTag)));
+        bytes.addAndGet(Files.size(file));
+        Path temp = write ? Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp") : null; // NOI18N
+        int updated;
+        try (Reader reader = new InputStreamReader(Files.newInputStream(file), charset);
+                Writer writer = temp == null ? new NullWriter() : Files.newBufferedWriter(temp, charset)) {
+            updated = rewriter.rewrite(reader, writer);
+        } catch (IOException | RuntimeException ex) {
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+            throw ex;
+        }
+        tags.addAndGet(rewriter.getTags());
+        if (updated == 0) {
+            if (temp != null) {
+                Files.delete(temp);
+            }
+            return ""; // NOI18N
+        }
+        tagsUpdated.addAndGet(updated);
+        filesChanged.incrementAndGet();
+        if (write) {
+            replace(file, temp);
+            return ""; // NOI18N
+        }
+        try (Reader reader = new InputStreamReader(Files.newInputStream(file), charset)) {
+            return createDiff(getDisplayName(file), reader, changes);
+        }
+    }
+
+    /**
+     * Paths in the current directory are relative, so the diff can be applied
+     * with {@code patch -p0}.
+     */
+    private static String getDisplayName(Path file) {
+        Path base = Paths.get("").toAbsolutePath(); // NOI18N
+        return file.startsWith(base) ? base.relativize(file).toString() : file.toString();
+    }
+
+    /**
+     * Replace a file with the rewritten temporary file. The permissions of the
+     * original file are kept.
+     */
+    private static void replace(Path file, Path temp) throws IOException {
+        try {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file);
+            Files.setPosixFilePermissions(temp, permissions);
+        } catch (UnsupportedOperationException ex) {
+            // e.g. Windows
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Create a unified diff without context lines. Lines are split by LF only,
+     * so CR of CRLF is kept in lines as well as {@code diff} does.
+     *
+     * @param name the file name
+     * @param original the original content
+     * @param changes changes in the order of lines
+     * @return unified diff
+     */
+    static String createDiff(String name, Reader original, List<Change> changes) throws IOException {
+        StringBuilder diff = new StringBuilder();
+        diff.append("--- ").append(name).append('\n') // NOI18N
+                .append("+++ ").append(name).append('\n'); // NOI18N
+        LineReader reader = new LineReader(original);
+        // the difference of line numbers between the original and the updated file
+        int delta = 0;
+        int i = 0;
+        while (i < changes.size()) {
+            // tags in the same or overlapping lines are one hunk
+            int start = changes.get(i).line;
+            int end = changes.get(i).getEndLine();
+            int j = i + 1;
+            while (j < changes.size() && changes.get(j).line <= end) {
+                end = Math.max(end, changes.get(j).getEndLine());
+                j++;
+            }
+            reader.skipTo(start);
+            List<String> oldLines = new ArrayList<>(end - start + 1);
+            for (int line = start; line <= end; line++) {
+                String text = reader.readLine();
+                if (text == null) {
+                    break;
+                }
+                oldLines.add(text);
+            }
+            String region = String.join("\n", oldLines); // NOI18N
+            StringBuilder updated = new StringBuilder(region.length() + 32);
+            int copied = 0;
+            for (int k = i; k < j; k++) {
+                Change change = changes.get(k);
+                int index = region.indexOf(change.oldTag, copied);
+                if (index == -1) {
+                    throw new IOException(name + " was modified while processing it"); // NOI18N
+                }
+                updated.append(region, copied, index).append(change.newTag);
+                copied = index + change.oldTag.length();
+            }
+            updated.append(region, copied, region.length());
+            String[] newLines = updated.toString().split("\n", -1); // NOI18N
+            boolean noNewline = reader.isEof() && !reader.endsWithNewline();
+            diff.append("@@ -").append(start).append(',').append(oldLines.size()) // NOI18N
+                    .append(" +").append(start + delta).append(',').append(newLines.length) // NOI18N
+                    .append(" @@\n"); // NOI18N
+            appendLines(diff, '-', oldLines, noNewline);
+            appendLines(diff, '+', Arrays.asList(newLines), noNewline);
+            delta += newLines.length - oldLines.size();
+            i = j;
+        }
+        return diff.toString();
+    }
+
+    private static void appendLines(StringBuilder diff, char prefix, List<String> lines, boolean noNewline) {
+        for (String line : lines) {
+            diff.append(prefix).append(line).append('\n');
+        }
+        if (noNewline) {
+            diff.append("\\ No newline at end of file\n"); // NOI18N
+        }
+    }
+
+    private static boolean isValue(String text, OffsetRange range, int value) {
+        return range != null && text.substring(range.getStart(), range.getEnd()).equals(String.valueOf(value));
+    }
+
+    private ImageDimensions getDimensions(Path file, String src) {
+        Path image = resolve(file, src);
+        if (image == null) {
+            return null;
+        }
+        Optional<ImageDimensions> cached = dimensions.get(image);
+        if (cached == null) {
+            ImageDimensions probed = Files.isRegularFile(image) ? DocUtils.probe(image.toFile()) : null;
+            imagesProbed.incrementAndGet();
+            cached = Optional.ofNullable(probed);
+            dimensions.putIfAbsent(image, cached);
+        }
+        return cached.orElse(null);
+    }
+
+    /**
+     * Resolve a src value. Remote images are not supported.
+     */
+    private Path resolve(Path file, String src) {
+        if (src == null || src.isEmpty()) {
+            return null;
+        }
+        String path = src;
+        int index = path.indexOf('?');
+        if (index != -1) {
+            path = path.substring(0, index);
+        }
+        index = path.indexOf('#');
+        if (index != -1) {
+            path = path.substring(0, index);
+        }
+        if (path.isEmpty() || path.contains("://") || path.startsWith("//") || path.startsWith("data:")) { // NOI18N
+            return null;
+        }
+        try {
+            if (path.startsWith("/")) { // NOI18N
+                return webRoot == null ? null : webRoot.resolve(path.substring(1)).normalize();
+            }
+            return file.getParent().resolve(path).normalize();
+        } catch (InvalidPathException ex) {
+            // e.g. <?php echo $path; ?>
+            return null;
+        }
+    }
+
+    private void printStatistics(int files, long elapsedNanos) {
+        double seconds = Math.max(elapsedNanos / 1_000_000_000.0, 0.001);
+        err.printf(Locale.ROOT, "%d files (%d changed), %d img tags (%d updated), %d images probed%n", // NOI18N
+                files, filesChanged.get(), tags.get(), tagsUpdated.get(), imagesProbed.get());
+        err.printf(Locale.ROOT, "%.2f s, %.1f files/s, %.1f tags/s, %.2f MB/s, %d threads%n", // NOI18N
+                seconds, files / seconds, tags.get() / seconds, bytes.get() / seconds / (1024 * 1024), threads);
+    }
+
+    //~ Inner classes
+    static final class Change {
+
+        private final int line;
+        private final String oldTag;
+        private final String newTag;
+
+        Change(int line, String oldTag, String newTag) {
+            this.line = line;
+            this.oldTag = oldTag;
+            this.newTag = newTag;
+        }
+
+        int getEndLine() {
+            int endLine = line;
+            for (int i = 0; i < oldTag.length(); i++) {
+                if (oldTag.charAt(i) == '\n') {
+                    endLine++;
+                }
+            }
+            return endLine;
+        }
+    }
+
+    /**
+     * Read lines split by LF.
+     */
+    private static final class LineReader {
+
+        private final BufferedReader reader;
+        private final StringBuilder line = new StringBuilder();
+        private int lineNumber = 1;
+        private boolean eof;
+        private boolean newline;
+
+        LineReader(Reader reader) {
+            this.reader = new BufferedReader(reader);
+        }
+
+        void skipTo(int target) throws IOException {
+            while (lineNumber < target && readLine() != null) {
+                // skip
+            }
+        }
+
+        /**
+         * Read the next line without LF.
+         *
+         * @return the line, or {@code null} if the end of the stream is
+         * reached
+         */
+        String readLine() throws IOException {
+            if (eof) {
+                return null;
+            }
+            line.setLength(0);
+            newline = false;
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (c == '\n') {
+                    newline = true;
+                    break;
+                }
+                line.append((char) c);
+            }
+            if (c == -1) {
+                eof = true;
+                if (line.length() == 0) {
+                    return null;
+                }
+            } else {
+                reader.mark(1);
+                if (reader.read() == -1) {
+                    eof = true;
+                } else {
+                    reader.reset();
+                }
+            }
+            lineNumber++;
+            return line.toString();
+        }
+
+        boolean isEof() {
+            return eof;
+        }
+
+        boolean endsWithNewline() {
+            return newline;
+        }
+    }
+
+    private static final class NullWriter extends Writer {
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
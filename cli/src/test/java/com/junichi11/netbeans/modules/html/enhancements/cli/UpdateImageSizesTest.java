@@ -0,0 +1,140 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.cli;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author junichi11
+ */
+public class UpdateImageSizesTest {
+
+    private static final String HTML = "<html>\n" // NOI18N
+            + "<body>\n" // NOI18N
+            + "<img src=\"a.png\">\n" // NOI18N
+            + "<p>text</p>\n" // NOI18N
+            + "<p><img src=\"a.png\" width=\"3\" height=\"2\"> <img src=\"img/b.png\"\n" // NOI18N
+            + "  alt=\"b\"></p>\n" // NOI18N
+            + "<img src=\"/img/b.png\">\n" // NOI18N
+            + "</body>\n" // NOI18N
+            + "</html>\n"; // NOI18N
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private Path root;
+    private Path html;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Before
+    public void setUp() throws IOException {
+        root = temporaryFolder.getRoot().toPath();
+        createPng(root.resolve("a.png"), 3, 2); // NOI18N
+        createPng(Files.createDirectory(root.resolve("img")).resolve("b.png"), 5, 4); // NOI18N
+        html = root.resolve("index.html"); // NOI18N
+        Files.write(html, HTML.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testDiff() throws IOException {
+        assertEquals(1, run(root.toString()));
+        String expected = "--- " + html + "\n" // NOI18N
+                + "+++ " + html + "\n" // NOI18N
+                + "@@ -3,1 +3,1 @@\n" // NOI18N
+                + "-<img src=\"a.png\">\n" // NOI18N
+                + "+<img src=\"a.png\" width=\"3\" height=\"2\">\n" // NOI18N
+                + "@@ -5,2 +5,2 @@\n" // NOI18N
+                + "-<p><img src=\"a.png\" width=\"3\" height=\"2\"> <img src=\"img/b.png\"\n" // NOI18N
+                + "-  alt=\"b\"></p>\n" // NOI18N
+                + "+<p><img src=\"a.png\" width=\"3\" height=\"2\"> <img src=\"img/b.png\"\n" // NOI18N
+                + "+  alt=\"b\" width=\"5\" height=\"4\"></p>\n"; // NOI18N
+        assertEquals(expected, getOutput());
+        // not changed
+        assertEquals(HTML, read(html));
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        assertEquals(0, run("--write", "--web-root", root.toString(), root.toString())); // NOI18N
+        assertEquals("", getOutput()); // NOI18N
+        String expected = HTML.replace("<img src=\"a.png\">", "<img src=\"a.png\" width=\"3\" height=\"2\">") // NOI18N
+                .replace("alt=\"b\">", "alt=\"b\" width=\"5\" height=\"4\">") // NOI18N
+                .replace("<img src=\"/img/b.png\">", "<img src=\"/img/b.png\" width=\"5\" height=\"4\">"); // NOI18N
+        assertEquals(expected, read(html));
+        // no temporary files are left
+        try (Stream<Path> files = Files.list(root)) {
+            assertEquals(3, files.count());
+        }
+
+        // up to date
+        out.reset();
+        assertEquals(0, run("--web-root", root.toString(), root.toString())); // NOI18N
+        assertEquals("", getOutput()); // NOI18N
+    }
+
+    @Test
+    public void testStreamingDiff() throws Exception {
+        UpdateImageSizes updateImageSizes = new UpdateImageSizes(false, root, StandardCharsets.UTF_8, 1, new PrintStream(out), new PrintStream(err));
+        String diff = updateImageSizes.process(html);
+        assertTrue(diff.contains("+<img src=\"/img/b.png\" width=\"5\" height=\"4\">\n")); // NOI18N
+        assertEquals(diff, updateImageSizes.processStreaming(html));
+    }
+
+    @Test
+    public void testDiffWithoutNewlineAtEndOfFile() throws IOException {
+        Files.write(html, "<p>\r\n<img src=\"a.png\"></p>".getBytes(StandardCharsets.UTF_8)); // NOI18N
+        assertEquals(1, run(root.toString()));
+        String expected = "--- " + html + "\n" // NOI18N
+                + "+++ " + html + "\n" // NOI18N
+                + "@@ -2,1 +2,1 @@\n" // NOI18N
+                + "-<img src=\"a.png\"></p>\n" // NOI18N
+                + "\\ No newline at end of file\n" // NOI18N
+                + "+<img src=\"a.png\" width=\"3\" height=\"2\"></p>\n" // NOI18N
+                + "\\ No newline at end of file\n"; // NOI18N
+        assertEquals(expected, getOutput());
+    }
+
+    private int run(String... args) {
+        return UpdateImageSizes.run(args, new PrintStream(out, true), new PrintStream(err, true));
+    }
+
+    private String getOutput() {
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private static void createPng(Path file, int width, int height) throws IOException {
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB), "png", file.toFile()); // NOI18N
+    }
+}
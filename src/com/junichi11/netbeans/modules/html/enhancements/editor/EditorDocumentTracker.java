@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.editor;
+
+import com.junichi11.netbeans.modules.html.enhancements.utils.DocUtils;
+import java.beans.PropertyChangeEvent;
+import java.util.HashMap;
+import java.util.Map;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
+import javax.swing.text.JTextComponent;
+import org.netbeans.api.editor.EditorRegistry;
+import org.netbeans.editor.BaseDocument;
+
+/**
+ * Attach a DocumentListener to HTML and PHP documents while they are shown in
+ * editors.
+ *
+ * @author junichi11
+ * @param <T> listener type
+ */
+abstract class EditorDocumentTracker<T extends DocumentListener> implements Runnable {
+
+    // @GuardedBy("EDT")
+    private final Map<Document, T> listeners = new HashMap<>();
+
+    @Override
+    public void run() {
+        if (!isEnabled()) {
+            return;
+        }
+        EditorRegistry.addPropertyChangeListener(this::registryChanged);
+    }
+
+    protected abstract boolean isEnabled();
+
+    /**
+     * Create a listener for a document.
+     *
+     * @param document HTML or PHP document
+     * @return a listener
+     */
+    protected abstract T createListener(Document document);
+
+    /**
+     * Called after the listener is removed from the document. Pending work
+     * should be cancelled.
+     *
+     * @param listener the removed listener
+     */
+    protected abstract void removed(T listener);
+
+    private void registryChanged(PropertyChangeEvent evt) {
+        String propertyName = evt.getPropertyName();
+        if (EditorRegistry.FOCUS_GAINED_PROPERTY.equals(propertyName)) {
+            JTextComponent component = (JTextComponent) evt.getNewValue();
+            if (component != null) {
+                attach(component.getDocument());
+            }
+        } else if (EditorRegistry.FOCUSED_DOCUMENT_PROPERTY.equals(propertyName)) {
+            detach((Document) evt.getOldValue());
+            attach((Document) evt.getNewValue());
+        } else if (EditorRegistry.COMPONENT_REMOVED_PROPERTY.equals(propertyName)) {
+            JTextComponent component = (JTextComponent) evt.getOldValue();
+            if (component != null) {
+                detach(component.getDocument());
+            }
+        }
+    }
+
+    private void attach(Document document) {
+        if (document == null || listeners.containsKey(document) || !isTarget(document)) {
+            return;
+        }
+        T listener = createListener(document);
+        listeners.put(document, listener);
+        document.addDocumentListener(listener);
+    }
+
+    /**
+     * Remove the listener if the document is no longer shown in any editors.
+     */
+    private void detach(Document document) {
+        if (document == null || !listeners.containsKey(document)) {
+            return;
+        }
+        for (JTextComponent component : EditorRegistry.componentList()) {
+            if (component.getDocument() == document) {
+                return;
+            }
+        }
+        T listener = listeners.remove(document);
+        document.removeDocumentListener(listener);
+        removed(listener);
+    }
+
+    private static boolean isTarget(Document document) {
+        Object mimeType = document.getProperty(BaseDocument.MIME_TYPE_PROP);
+        return DocUtils.HTML_MIME_TYPE.equals(mimeType) || DocUtils.PHP_MIME_TYPE.equals(mimeType);
+    }
+}
@@ -16,7 +16,14 @@
 package com.junichi11.netbeans.modules.html.enhancements.editor;
 
 import com.junichi11.netbeans.modules.html.enhancements.utils.DocUtils;
-import java.awt.Image;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageDimensions;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageIOScheduler;
+import com.junichi11.netbeans.modules.html.enhancements.utils.Metrics;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.text.AbstractDocument;
@@ -28,7 +35,6 @@ import org.netbeans.api.editor.mimelookup.MimeRegistration;
 import org.netbeans.api.editor.mimelookup.MimeRegistrations;
 import org.netbeans.api.html.lexer.HTMLTokenId;
 import org.netbeans.api.lexer.Token;
-import org.netbeans.api.lexer.TokenHierarchy;
 import org.netbeans.api.lexer.TokenSequence;
 import org.netbeans.api.lexer.TokenUtilities;
 import org.netbeans.spi.editor.completion.CompletionProvider;
@@ -48,40 +54,132 @@ import org.netbeans.spi.editor.completion.support.AsyncCompletionTask;
 public class ImageCompletionProvider implements CompletionProvider {
 
     private static final Logger LOGGER = Logger.getLogger(ImageCompletionProvider.class.getName());
+    static final int QUERY_TIMEOUT = Integer.getInteger("html.enhancements.completion.timeout", 5000); // NOI18N
+    // opt-in: show the popup automatically when the caret enters an empty width or height value
+    private static final boolean AUTO_POPUP = Boolean.getBoolean("html.enhancements.completion.auto"); // NOI18N
+    // the popup is suppressed if dimensions are not resolved within this time
+    private static final int AUTO_POPUP_TIMEOUT = Integer.getInteger("html.enhancements.completion.auto.timeout", 50); // NOI18N
+    private static final String AUTO_QUERY_OFFSET = ImageCompletionProvider.class.getName() + ".autoQueryOffset"; // NOI18N
+    private static final long CANCEL_CHECK_INTERVAL = 50;
 
     @Override
     public CompletionTask createTask(int queryType, JTextComponent component) {
         if (queryType != CompletionProvider.COMPLETION_QUERY_TYPE) {
             return null;
         }
-        return new AsyncCompletionTask(new AsyncCompletionQueryImpl(), component);
+        return new AsyncCompletionTask(new AsyncCompletionQueryImpl(isAutoQuery(component) ? AUTO_POPUP_TIMEOUT : QUERY_TIMEOUT), component);
     }
 
     @Override
     public int getAutoQueryTypes(JTextComponent component, String typedText) {
-        return 0;
+        if (!AUTO_POPUP || typedText == null || typedText.isEmpty()) {
+            return 0;
+        }
+        char c = typedText.charAt(typedText.length() - 1);
+        if (c != '"' && c != '\'') {
+            return 0;
+        }
+        Document doc = component.getDocument();
+        int caretOffset = component.getCaretPosition();
+        int[] valueOffset = {-1};
+        doc.render(() -> valueOffset[0] = findEmptySizeValue(doc, caretOffset));
+        if (valueOffset[0] == -1) {
+            return 0;
+        }
+        component.putClientProperty(AUTO_QUERY_OFFSET, valueOffset[0]);
+        return CompletionProvider.COMPLETION_QUERY_TYPE;
+    }
+
+    /**
+     * Check whether the query is started by {@link #getAutoQueryTypes}. The
+     * flag is consumed.
+     */
+    private static boolean isAutoQuery(JTextComponent component) {
+        Object valueOffset = component.getClientProperty(AUTO_QUERY_OFFSET);
+        if (valueOffset == null) {
+            return false;
+        }
+        component.putClientProperty(AUTO_QUERY_OFFSET, null);
+        int caretOffset = component.getCaretPosition();
+        int offset = (Integer) valueOffset;
+        return offset <= caretOffset && caretOffset <= offset + 2;
     }
 
     /**
-     * Get TokenSequence
+     * Find an empty width or height value ("" or '') of an img tag which has
+     * the src attribute. The caret position can be inside or just after the
+     * value. The caller must hold the read lock of the document.
      *
-     * @param doc
-     * @param caretOffset
-     * @return
+     * @param doc Document
+     * @param caretOffset caret position
+     * @return the start offset of the value if it is found, otherwise -1
      */
-    @SuppressWarnings("unchecked")
-    private static TokenSequence<HTMLTokenId> getTokenSequence(Document doc, int caretOffset) {
-        TokenHierarchy<Document> hierarchy = TokenHierarchy.get(doc);
-        TokenSequence<HTMLTokenId> ts = hierarchy.tokenSequence(HTMLTokenId.language());
+    private static int findEmptySizeValue(Document doc, int caretOffset) {
+        TokenSequence<HTMLTokenId> ts = DocUtils.getHtmlTokenSequence(doc, caretOffset);
         if (ts == null) {
-            TokenSequence<?> tokenSequence = hierarchy.tokenSequence();
-            if (tokenSequence != null) {
-                tokenSequence.move(caretOffset);
-                tokenSequence.moveNext();
-                ts = tokenSequence.embedded(HTMLTokenId.language());
+            return -1;
+        }
+        ts.move(caretOffset);
+        if (!ts.moveNext() || !isEmptyValue(ts.token())) {
+            ts.move(caretOffset);
+            if (!ts.movePrevious() || !isEmptyValue(ts.token())) {
+                return -1;
             }
         }
-        return ts;
+        int valueOffset = ts.offset();
+        if (createImgAttribute(ts, valueOffset + 1) == ImgAttribute.NONE) {
+            return -1;
+        }
+        return getImgSrcPath(ts) == null ? -1 : valueOffset;
+    }
+
+    private static boolean isEmptyValue(Token<HTMLTokenId> token) {
+        if (token.id() != HTMLTokenId.VALUE || token.length() != 2) {
+            return false;
+        }
+        CharSequence text = token.text();
+        char quote = text.charAt(0);
+        return (quote == '"' || quote == '\'') && text.charAt(1) == quote;
+    }
+
+    @NonNull
+    private static ImgAttribute createImgAttribute(TokenSequence<HTMLTokenId> ts, int caretOffset) {
+        ts.move(caretOffset);
+        ts.moveNext(); // current
+        if (ts.offset() == caretOffset) { // ^""
+            return ImgAttribute.NONE;
+        }
+        ts.movePrevious(); // =?
+        ts.movePrevious(); // attribute?
+        Token<HTMLTokenId> token = ts.token();
+        if (token == null
+                || token.id() != HTMLTokenId.ARGUMENT) {
+            return ImgAttribute.NONE;
+        }
+        CharSequence tokenText = token.text();
+        return ImgAttribute.create(isHeight(tokenText), isWidth(tokenText));
+    }
+
+    @CheckForNull
+    private static String getImgSrcPath(TokenSequence<HTMLTokenId> ts) {
+        while (ts.movePrevious()) {
+            Token<HTMLTokenId> token = ts.token();
+            if (TokenUtilities.equals(token.text(), "src")) { // NOI18N
+                break;
+            }
+            if (token.id() == HTMLTokenId.TAG_OPEN) {
+                return null;
+            }
+        }
+        ts.moveNext();
+        ts.moveNext();
+        Token<HTMLTokenId> token = ts.token();
+        CharSequence srcText = token.text();
+        if (srcText == null || TokenUtilities.equals(srcText, "\"\"")) { // NOI18N
+            return null;
+        }
+        String imgPath = srcText.toString();
+        return imgPath.substring(1, imgPath.length() - 1);
     }
 
     /**
@@ -104,91 +202,117 @@ public class ImageCompletionProvider implements CompletionProvider {
         return TokenUtilities.equals(text, "height"); // NOI18N
     }
 
+    /**
+     * Wait for the result of an image task. The task is interrupted only if
+     * the query is cancelled. After the timeout, it keeps running so that its
+     * result is cached for the next query (e.g. the auto popup is suppressed,
+     * but the cache is warmed).
+     *
+     * @param <T> the result type
+     * @param future the future of the task
+     * @param timeout the timeout (ms)
+     * @param cancelled whether the query is cancelled
+     * @return the result, or {@code null} if the task fails, the query is
+     * cancelled or the timeout is exceeded
+     */
+    @CheckForNull
+    static <T> T getResult(Future<T> future, long timeout, BooleanSupplier cancelled) {
+        long deadline = System.currentTimeMillis() + timeout;
+        try {
+            while (true) {
+                if (cancelled.getAsBoolean()) {
+                    future.cancel(true);
+                    return null;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return null;
+                }
+                try {
+                    return future.get(Math.min(remaining, CANCEL_CHECK_INTERVAL), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException ex) {
+                    // check cancellation again
+                }
+            }
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            LOGGER.log(Level.WARNING, null, ex);
+        }
+        return null;
+    }
+
     //~Inner classes
     private static class AsyncCompletionQueryImpl extends AsyncCompletionQuery {
 
-        public AsyncCompletionQueryImpl() {
+        private final int timeout;
+
+        public AsyncCompletionQueryImpl(int timeout) {
+            this.timeout = timeout;
         }
 
         @Override
         protected void query(CompletionResultSet resultSet, Document doc, int caretOffset) {
-            AbstractDocument ad = (AbstractDocument) doc;
-            ad.readLock();
+            Metrics metrics = Metrics.getDefault();
+            long start = System.nanoTime();
             try {
-                // get token sequence
-                TokenSequence<HTMLTokenId> ts = getTokenSequence(doc, caretOffset);
-                if (ts == null) {
-                    return;
-                }
+                // don't hold the read lock while the image is read
+                String imgPath;
+                ImgAttribute imgAttr;
+                AbstractDocument ad = (AbstractDocument) doc;
+                ad.readLock();
+                long lockStart = System.nanoTime();
+                try {
+                    // get token sequence
+                    TokenSequence<HTMLTokenId> ts = DocUtils.getHtmlTokenSequence(doc, caretOffset);
+                    if (ts == null) {
+                        return;
+                    }
 
-                // check whether attribute is width or height
-                ImgAttribute imgAttr = createImgAttribute(ts, caretOffset);
-                if (imgAttr == ImgAttribute.NONE) {
-                    return;
+                    // check whether attribute is width or height
+                    imgAttr = createImgAttribute(ts, caretOffset);
+                    if (imgAttr == ImgAttribute.NONE) {
+                        return;
+                    }
+                    imgPath = getImgSrcPath(ts);
+                } finally {
+                    ad.readUnlock();
+                    metrics.recordReadLock(lockStart);
                 }
-
-                String imgPath = getImgSrcPath(ts);
                 if (imgPath == null) {
                     return;
                 }
-                Image image = DocUtils.getImage(imgPath, doc);
-                if (image == null) {
+
+                ImageDimensions dimensions = getImageDimensions(imgPath, doc);
+                if (dimensions == null) {
                     return;
                 }
-                resultSet.addItem(new ImageSizeCompletionItem(getImageSize(image, imgAttr), caretOffset, 0));
+                resultSet.addItem(new ImageSizeCompletionItem(getImageSize(dimensions, imgAttr), caretOffset, 0, imgPath, doc));
             } finally {
-                ad.readUnlock();
                 resultSet.finish();
+                metrics.recordCompletionQuery(start);
             }
         }
 
-        @NonNull
-        private ImgAttribute createImgAttribute(TokenSequence<HTMLTokenId> ts, int caretOffset) {
-            ts.move(caretOffset);
-            ts.moveNext(); // current
-            if (ts.offset() == caretOffset) { // ^""
-                return ImgAttribute.NONE;
-            }
-            ts.movePrevious(); // =?
-            ts.movePrevious(); // attribute?
-            Token<HTMLTokenId> token = ts.token();
-            if (token == null
-                    || token.id() != HTMLTokenId.ARGUMENT) {
-                return ImgAttribute.NONE;
-            }
-            CharSequence tokenText = token.text();
-            return ImgAttribute.create(isHeight(tokenText), isWidth(tokenText));
-        }
-
+        /**
+         * Get image dimensions in the interactive lane of
+         * {@link ImageIOScheduler}. Give up if the query is cancelled or the
+         * timeout is exceeded.
+         */
         @CheckForNull
-        private String getImgSrcPath(TokenSequence<HTMLTokenId> ts) {
-            while (ts.movePrevious()) {
-                Token<HTMLTokenId> token = ts.token();
-                if (TokenUtilities.equals(token.text(), "src")) { // NOI18N
-                    break;
-                }
-                if (token.id() == HTMLTokenId.TAG_OPEN) {
-                    return null;
-                }
-            }
-            ts.moveNext();
-            ts.moveNext();
-            Token<HTMLTokenId> token = ts.token();
-            CharSequence srcText = token.text();
-            if (srcText == null || TokenUtilities.equals(srcText, "\"\"")) { // NOI18N
-                return null;
-            }
-            String imgPath = srcText.toString();
-            return imgPath.substring(1, imgPath.length() - 1);
+        private ImageDimensions getImageDimensions(String imgPath, Document doc) {
+            Future<ImageDimensions> future = ImageIOScheduler.getDefault().submit(ImageIOScheduler.Priority.INTERACTIVE, () -> DocUtils.getImageDimensions(imgPath, doc));
+            return getResult(future, timeout, this::isTaskCancelled);
         }
 
-        private String getImageSize(Image image, ImgAttribute imgAttribute) {
+        private String getImageSize(ImageDimensions dimensions, ImgAttribute imgAttribute) {
             // get value of width or height
             int value = 0;
             if (imgAttribute.isHeight()) {
-                value = image.getHeight(null);
+                value = dimensions.getHeight();
             } else if (imgAttribute.isWidth()) {
-                value = image.getWidth(null);
+                value = dimensions.getWidth();
             } else {
                 LOGGER.log(Level.WARNING, "Not hight and width"); // NOI18N
             }
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.editor;
+
+import com.junichi11.netbeans.modules.html.enhancements.utils.DocUtils;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageDimensions;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ThumbnailCache;
+import java.net.URL;
+import java.util.Locale;
+import javax.swing.Action;
+import javax.swing.text.Document;
+import org.netbeans.api.annotations.common.CheckForNull;
+import org.netbeans.spi.editor.completion.CompletionDocumentation;
+import org.openide.filesystems.FileObject;
+import org.openide.util.NbBundle.Messages;
+
+/**
+ * Documentation of the image size item. A thumbnail, the dimensions and the
+ * file size of the image are shown.
+ *
+ * @author junichi11
+ */
+final class ImageDocumentation implements CompletionDocumentation {
+
+    private final String text;
+
+    private ImageDocumentation(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Create the documentation. The image may be decoded, so don't call this
+     * in the EDT.
+     *
+     * @param imgPath src value
+     * @param document Document
+     * @return the documentation if the image is available, otherwise
+     * {@code null}
+     */
+    @CheckForNull
+    @Messages({
+        "# {0} - width",
+        "# {1} - height",
+        "ImageDocumentation.dimensions={0} x {1} px",
+        "# {0} - file size",
+        "ImageDocumentation.fileSize=File size: {0}"
+    })
+    static ImageDocumentation create(String imgPath, Document document) {
+        ImageDimensions dimensions = DocUtils.getImageDimensions(imgPath, document);
+        if (dimensions == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        FileObject image = DocUtils.getImageFileObject(imgPath, document);
+        ThumbnailCache.Thumbnail thumbnail = image == null ? null : ThumbnailCache.getDefault().get(image);
+        URL url = thumbnail == null ? null : thumbnail.getUrl();
+        if (url != null) {
+            sb.append("<img src=\"").append(url.toExternalForm()).append("\"><br>"); // NOI18N
+        }
+        sb.append("<b>").append(escape(imgPath)).append("</b><br>"); // NOI18N
+        sb.append(Bundle.ImageDocumentation_dimensions(dimensions.getWidth(), dimensions.getHeight()));
+        if (image != null) {
+            sb.append("<br>").append(Bundle.ImageDocumentation_fileSize(formatFileSize(image.getSize()))); // NOI18N
+        }
+        return new ImageDocumentation(sb.toString());
+    }
+
+    @Override
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public URL getURL() {
+        return null;
+    }
+
+    @Override
+    public CompletionDocumentation resolveLink(String link) {
+        return null;
+    }
+
+    @Override
+    public Action getGotoSourceAction() {
+        return null;
+    }
+
+    static String formatFileSize(long size) {
+        if (size < 1024) {
+            return size + " B"; // NOI18N
+        }
+        if (size < 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1f KB", size / 1024.0); // NOI18N
+        }
+        return String.format(Locale.ROOT, "%.1f MB", size / (1024.0 * 1024.0)); // NOI18N
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;"); // NOI18N
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.editor;
+
+import com.junichi11.netbeans.modules.html.enhancements.utils.DocUtils;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageIOScheduler;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImgTag;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
+import org.openide.modules.OnStart;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Resolve image dimensions in the background when a src value of an img tag is
+ * typed or edited, so that the completion can use cached values. Edits are
+ * coalesced, images are read in the background lane of {@link ImageIOScheduler}
+ * and pending work is cancelled when the document is closed.
+ *
+ * @author junichi11
+ */
+@OnStart
+public final class ImagePrefetcher extends EditorDocumentTracker<ImagePrefetcher.DocumentPrefetcher> {
+
+    private static final boolean ENABLED = !Boolean.getBoolean("html.enhancements.prefetch.disabled"); // NOI18N
+    private static final int DELAY = Integer.getInteger("html.enhancements.prefetch.delay", 500); // NOI18N
+    // changed offsets kept per document until the next run
+    private static final int MAX_PENDING_OFFSETS = 16;
+    private static final RequestProcessor RP = new RequestProcessor(ImagePrefetcher.class.getName());
+
+    @Override
+    protected boolean isEnabled() {
+        return ENABLED;
+    }
+
+    @Override
+    protected DocumentPrefetcher createListener(Document document) {
+        return new DocumentPrefetcher(document);
+    }
+
+    @Override
+    protected void removed(DocumentPrefetcher listener) {
+        listener.cancel();
+    }
+
+    //~ Inner classes
+    static final class DocumentPrefetcher implements DocumentListener, Runnable {
+
+        private final Document document;
+        private final RequestProcessor.Task task;
+        // @GuardedBy("this")
+        private final Set<Integer> pendingOffsets = new HashSet<>();
+        // @GuardedBy("this")
+        private final Map<String, Future<?>> prefetched = new HashMap<>();
+        // @GuardedBy("this")
+        private boolean cancelled;
+
+        DocumentPrefetcher(Document document) {
+            this.document = document;
+            this.task = RP.create(this);
+        }
+
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            changed(e.getOffset() + e.getLength());
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            changed(e.getOffset());
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+        }
+
+        private void changed(int offset) {
+            synchronized (this) {
+                if (cancelled || pendingOffsets.size() >= MAX_PENDING_OFFSETS) {
+                    return;
+                }
+                pendingOffsets.add(offset);
+            }
+            // coalesce edits
+            task.schedule(DELAY);
+        }
+
+        @Override
+        public void run() {
+            List<Integer> offsets;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                offsets = new ArrayList<>(pendingOffsets);
+                pendingOffsets.clear();
+            }
+            Set<String> srcs = new HashSet<>();
+            document.render(() -> {
+                int length = document.getLength();
+                for (Integer offset : offsets) {
+                    ImgTag imgTag = ImgTag.find(document, Math.min(offset, length));
+                    if (imgTag != null && imgTag.getSrc() != null && !imgTag.getSrc().isEmpty()) {
+                        srcs.add(imgTag.getSrc());
+                    }
+                }
+            });
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                // forget finished ones so that changed images are read again
+                for (Iterator<Future<?>> iterator = prefetched.values().iterator(); iterator.hasNext();) {
+                    if (iterator.next().isDone()) {
+                        iterator.remove();
+                    }
+                }
+                for (String src : srcs) {
+                    if (!prefetched.containsKey(src)) {
+                        prefetched.put(src, ImageIOScheduler.getDefault().submit(ImageIOScheduler.Priority.BACKGROUND, () -> DocUtils.getImageDimensions(src, document)));
+                    }
+                }
+            }
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            task.cancel();
+            pendingOffsets.clear();
+            for (Future<?> future : prefetched.values()) {
+                future.cancel(true);
+            }
+            prefetched.clear();
+        }
+    }
+}
@@ -15,9 +15,41 @@
  */
 package com.junichi11.netbeans.modules.html.enhancements.editor;
 
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageIOScheduler;
+import java.util.concurrent.Future;
+import javax.swing.text.Document;
+import org.netbeans.spi.editor.completion.CompletionResultSet;
+import org.netbeans.spi.editor.completion.CompletionTask;
+import org.netbeans.spi.editor.completion.support.AsyncCompletionQuery;
+import org.netbeans.spi.editor.completion.support.AsyncCompletionTask;
+
 public class ImageSizeCompletionItem extends HtmlEnhancementCompletionItem {
 
-    public ImageSizeCompletionItem(String text, int startOffset, int removeLength) {
+    private final String imgPath;
+    private final Document document;
+
+    public ImageSizeCompletionItem(String text, int startOffset, int removeLength, String imgPath, Document document) {
         super(text, startOffset, removeLength);
+        this.imgPath = imgPath;
+        this.document = document;
+    }
+
+    @Override
+    public CompletionTask createDocumentationTask() {
+        return new AsyncCompletionTask(new AsyncCompletionQuery() {
+            @Override
+            protected void query(CompletionResultSet resultSet, Document doc, int caretOffset) {
+                // decoding a thumbnail is not a quick lookup, keep the interactive lane for completion
+                Future<ImageDocumentation> future = ImageIOScheduler.getDefault().submit(ImageIOScheduler.Priority.USER, () -> ImageDocumentation.create(imgPath, document));
+                try {
+                    ImageDocumentation documentation = ImageCompletionProvider.getResult(future, ImageCompletionProvider.QUERY_TIMEOUT, this::isTaskCancelled);
+                    if (documentation != null) {
+                        resultSet.setDocumentation(documentation);
+                    }
+                } finally {
+                    resultSet.finish();
+                }
+            }
+        });
     }
 }
@@ -0,0 +1,444 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.editor;
+
+import com.junichi11.netbeans.modules.html.enhancements.ui.actions.UpdateImageSizeAction;
+import com.junichi11.netbeans.modules.html.enhancements.utils.DocUtils;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageDimensions;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageIOScheduler;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImgTag;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Position;
+import org.netbeans.api.annotations.common.CheckForNull;
+import org.netbeans.api.annotations.common.NullAllowed;
+import org.netbeans.editor.BaseDocument;
+import org.netbeans.modules.csl.api.OffsetRange;
+import org.netbeans.spi.editor.hints.ChangeInfo;
+import org.netbeans.spi.editor.hints.ErrorDescription;
+import org.netbeans.spi.editor.hints.ErrorDescriptionFactory;
+import org.netbeans.spi.editor.hints.Fix;
+import org.netbeans.spi.editor.hints.HintsController;
+import org.netbeans.spi.editor.hints.Severity;
+import org.openide.modules.OnStart;
+import org.openide.util.NbBundle.Messages;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Show hints for img tags whose width and height are missing or differ from
+ * the intrinsic size of the image. Only the tags in edited regions are checked
+ * again. Checks run with the lowest priority after typing stops for
+ * {@link #DELAY} ms, and the document is read in chunks so that the read lock
+ * is held only for a short time. An image which is not read within
+ * {@link #PROBE_TIMEOUT} ms is skipped.
+ *
+ * @author junichi11
+ */
+@OnStart
+public final class ImageSizeHints extends EditorDocumentTracker<ImageSizeHints.DocumentHints> {
+
+    private static final boolean ENABLED = !Boolean.getBoolean("html.enhancements.hints.disabled"); // NOI18N
+    private static final int DELAY = Integer.getInteger("html.enhancements.hints.delay", 1000); // NOI18N
+    private static final int PROBE_TIMEOUT = Integer.getInteger("html.enhancements.hints.timeout", 10000); // NOI18N
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // dirty regions are merged into one if there are more than this
+    private static final int MAX_REGIONS = 8;
+    private static final String LAYER = ImageSizeHints.class.getName();
+    private static final RequestProcessor RP = new RequestProcessor(ImageSizeHints.class.getName());
+    private static final Logger LOGGER = Logger.getLogger(ImageSizeHints.class.getName());
+
+    @Override
+    protected boolean isEnabled() {
+        return ENABLED;
+    }
+
+    @Override
+    protected DocumentHints createListener(Document document) {
+        DocumentHints hints = new DocumentHints(document);
+        hints.addRegion(0, document.getLength());
+        return hints;
+    }
+
+    @Override
+    protected void removed(DocumentHints listener) {
+        listener.cancel();
+    }
+
+    @CheckForNull
+    private static Integer parseSize(String value) {
+        String size = value.trim();
+        if (size.endsWith("px")) { // NOI18N
+            size = size.substring(0, size.length() - 2).trim();
+        }
+        if (size.isEmpty() || size.length() > 9) {
+            return null;
+        }
+        for (int i = 0; i < size.length(); i++) {
+            if (!Character.isDigit(size.charAt(i))) {
+                return null;
+            }
+        }
+        return Integer.valueOf(size);
+    }
+
+    //~ Inner classes
+    static final class DocumentHints implements DocumentListener, Runnable {
+
+        private final Document document;
+        private final RequestProcessor.Task task;
+        private final int delay;
+        // @GuardedBy("this")
+        private final List<Region> regions = new ArrayList<>();
+        // @GuardedBy("this")
+        private boolean cancelled;
+        // accessed only in the task
+        private final List<Hint> hints = new ArrayList<>();
+
+        DocumentHints(Document document) {
+            this(document, DELAY);
+        }
+
+        DocumentHints(Document document, int delay) {
+            this.document = document;
+            this.delay = delay;
+            this.task = RP.create(this);
+            this.task.setPriority(Thread.MIN_PRIORITY);
+        }
+
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            addRegion(e.getOffset(), e.getOffset() + e.getLength());
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            addRegion(e.getOffset(), e.getOffset());
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+        }
+
+        void addRegion(int startOffset, int endOffset) {
+            Position start;
+            Position end;
+            try {
+                start = document.createPosition(startOffset);
+                end = document.createPosition(endOffset);
+            } catch (BadLocationException ex) {
+                LOGGER.log(Level.WARNING, "Invalid offset: {0}", ex.offsetRequested()); // NOI18N
+                return;
+            }
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                regions.add(new Region(start, end));
+                if (regions.size() > MAX_REGIONS) {
+                    Region merged = regions.get(0);
+                    for (Region region : regions) {
+                        merged = merged.merge(region);
+                    }
+                    regions.clear();
+                    regions.add(merged);
+                }
+            }
+            // restarted while typing
+            task.schedule(delay);
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            regions.clear();
+            task.cancel();
+            HintsController.setErrors(document, LAYER, Collections.<ErrorDescription>emptyList());
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void run() {
+            List<Region> dirty;
+            synchronized (this) {
+                if (cancelled || regions.isEmpty()) {
+                    return;
+                }
+                dirty = new ArrayList<>(regions);
+                regions.clear();
+            }
+
+            // collect tags in dirty regions
+            List<Candidate> candidates = new ArrayList<>();
+            Set<Integer> found = new HashSet<>();
+            for (Region region : dirty) {
+                int startOffset = region.start.getOffset();
+                int endOffset = region.end.getOffset();
+                for (int offset = startOffset; offset <= endOffset; offset += CHUNK_SIZE) {
+                    if (isCancelled()) {
+                        return;
+                    }
+                    int chunkStart = offset;
+                    int chunkEnd = Math.min(endOffset, offset + CHUNK_SIZE);
+                    document.render(() -> collect(chunkStart, chunkEnd, candidates, found));
+                }
+            }
+
+            // read distinct images outside of the lock
+            Map<String, Future<ImageDimensions>> futures = new HashMap<>();
+            for (Candidate candidate : candidates) {
+                futures.computeIfAbsent(candidate.src, src -> ImageIOScheduler.getDefault().submit(ImageIOScheduler.Priority.BACKGROUND, () -> DocUtils.getImageDimensions(src, document)));
+            }
+            Map<String, ImageDimensions> dimensions = new HashMap<>();
+            for (Map.Entry<String, Future<ImageDimensions>> entry : futures.entrySet()) {
+                if (isCancelled()) {
+                    cancelAll(futures.values());
+                    return;
+                }
+                try {
+                    ImageDimensions imageDimensions = entry.getValue().get(PROBE_TIMEOUT, TimeUnit.MILLISECONDS);
+                    if (imageDimensions != null) {
+                        dimensions.put(entry.getKey(), imageDimensions);
+                    }
+                } catch (TimeoutException ex) {
+                    entry.getValue().cancel(true);
+                    LOGGER.log(Level.FINE, "Cannot read the image within {0}ms: {1}", new Object[]{PROBE_TIMEOUT, entry.getKey()}); // NOI18N
+                } catch (InterruptedException ex) {
+                    cancelAll(futures.values());
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException ex) {
+                    LOGGER.log(Level.WARNING, null, ex);
+                }
+            }
+            for (Candidate candidate : candidates) {
+                ImageDimensions imageDimensions = dimensions.get(candidate.src);
+                if (imageDimensions != null) {
+                    Hint hint = candidate.createHint(document, imageDimensions);
+                    if (hint != null) {
+                        hints.add(hint);
+                    }
+                }
+            }
+
+            List<ErrorDescription> errors = getErrors();
+            synchronized (this) {
+                if (!cancelled) {
+                    HintsController.setErrors(document, LAYER, errors);
+                }
+            }
+        }
+
+        /**
+         * Get the current hints. This must be called in the task.
+         *
+         * @return hints
+         */
+        List<ErrorDescription> getErrors() {
+            List<ErrorDescription> errors = new ArrayList<>(hints.size());
+            for (Hint hint : hints) {
+                errors.add(hint.errorDescription);
+            }
+            return errors;
+        }
+
+        private static void cancelAll(Collection<Future<ImageDimensions>> futures) {
+            for (Future<ImageDimensions> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        /**
+         * Collect img tags in a chunk. Hints of the tags are removed. The read
+         * lock is held.
+         */
+        private void collect(int startOffset, int endOffset, List<Candidate> candidates, Set<Integer> found) {
+            int length = document.getLength();
+            int start = Math.min(startOffset, length);
+            int end = Math.min(endOffset, length);
+            hints.removeIf(hint -> hint.intersects(start, end));
+            for (ImgTag imgTag : ImgTag.findAll(document, start, end)) {
+                OffsetRange range = imgTag.getRange();
+                String src = imgTag.getSrc();
+                if (src == null || src.isEmpty() || !found.add(range.getStart())) {
+                    continue;
+                }
+                hints.removeIf(hint -> hint.intersects(range.getStart(), range.getEnd()));
+                try {
+                    candidates.add(new Candidate(
+                            document.createPosition(range.getStart()),
+                            document.createPosition(range.getEnd()),
+                            src,
+                            getText(imgTag.getWidthRange()),
+                            getText(imgTag.getHeightRange())
+                    ));
+                } catch (BadLocationException ex) {
+                    LOGGER.log(Level.WARNING, "Invalid offset: {0}", ex.offsetRequested()); // NOI18N
+                }
+            }
+        }
+
+        @CheckForNull
+        private String getText(@NullAllowed OffsetRange range) throws BadLocationException {
+            if (range == null) {
+                return null;
+            }
+            return document.getText(range.getStart(), range.getLength());
+        }
+    }
+
+    private static final class Region {
+
+        private final Position start;
+        private final Position end;
+
+        Region(Position start, Position end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        Region merge(Region other) {
+            Position mergedStart = start.getOffset() <= other.start.getOffset() ? start : other.start;
+            Position mergedEnd = end.getOffset() >= other.end.getOffset() ? end : other.end;
+            return new Region(mergedStart, mergedEnd);
+        }
+    }
+
+    private static final class Candidate {
+
+        private final Position start;
+        private final Position end;
+        private final String src;
+        private final String width;
+        private final String height;
+
+        Candidate(Position start, Position end, String src, @NullAllowed String width, @NullAllowed String height) {
+            this.start = start;
+            this.end = end;
+            this.src = src;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Messages({
+            "# {0} - width",
+            "# {1} - height",
+            "ImageSizeHints.missing=Image size is not specified (the image is {0} x {1})",
+            "# {0} - width",
+            "# {1} - height",
+            "ImageSizeHints.mismatch=Image size differs from the intrinsic size ({0} x {1})"
+        })
+        @CheckForNull
+        Hint createHint(Document document, ImageDimensions dimensions) {
+            int intrinsicWidth = dimensions.getWidth();
+            int intrinsicHeight = dimensions.getHeight();
+            Integer w = width == null ? null : parseSize(width);
+            Integer h = height == null ? null : parseSize(height);
+            String description;
+            if (width == null || height == null || width.trim().isEmpty() || height.trim().isEmpty()) {
+                description = Bundle.ImageSizeHints_missing(intrinsicWidth, intrinsicHeight);
+            } else if ((w != null && w != intrinsicWidth) || (h != null && h != intrinsicHeight)) {
+                description = Bundle.ImageSizeHints_mismatch(intrinsicWidth, intrinsicHeight);
+            } else {
+                // e.g. the same size, 50%
+                return null;
+            }
+            Fix fix = new UpdateImageSizeFix(document, start, src, dimensions);
+            ErrorDescription errorDescription = ErrorDescriptionFactory.createErrorDescription(
+                    Severity.HINT, description, Collections.singletonList(fix), document, start, end);
+            return new Hint(start, end, errorDescription);
+        }
+    }
+
+    private static final class Hint {
+
+        private final Position start;
+        private final Position end;
+        private final ErrorDescription errorDescription;
+
+        Hint(Position start, Position end, ErrorDescription errorDescription) {
+            this.start = start;
+            this.end = end;
+            this.errorDescription = errorDescription;
+        }
+
+        boolean intersects(int startOffset, int endOffset) {
+            return start.getOffset() <= endOffset && startOffset <= end.getOffset();
+        }
+    }
+
+    private static final class UpdateImageSizeFix implements Fix {
+
+        private final Document document;
+        private final Position start;
+        private final String src;
+        private final ImageDimensions dimensions;
+
+        UpdateImageSizeFix(Document document, Position start, String src, ImageDimensions dimensions) {
+            this.document = document;
+            this.start = start;
+            this.src = src;
+            this.dimensions = dimensions;
+        }
+
+        @Messages({
+            "# {0} - width",
+            "# {1} - height",
+            "ImageSizeHints.fix=Update Image Size to {0} x {1}"
+        })
+        @Override
+        public String getText() {
+            return Bundle.ImageSizeHints_fix(dimensions.getWidth(), dimensions.getHeight());
+        }
+
+        @Override
+        public ChangeInfo implement() throws Exception {
+            if (!(document instanceof BaseDocument)) {
+                return null;
+            }
+            ((BaseDocument) document).runAtomicAsUser(() -> {
+                // the tag may be changed after the hint is created
+                ImgTag imgTag = ImgTag.find(document, start.getOffset() + 1);
+                if (imgTag == null || !src.equals(imgTag.getSrc())) {
+                    return;
+                }
+                try {
+                    UpdateImageSizeAction.updateImgTag(document, imgTag, dimensions.getWidth(), dimensions.getHeight());
+                } catch (BadLocationException ex) {
+                    LOGGER.log(Level.WARNING, "Invalid offset: {0}", ex.offsetRequested()); // NOI18N
+                }
+            });
+            return null;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.indexing;
+
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageDimensions;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.netbeans.api.annotations.common.CheckForNull;
+import org.netbeans.modules.parsing.api.indexing.IndexingManager;
+import org.netbeans.modules.parsing.spi.indexing.support.IndexResult;
+import org.netbeans.modules.parsing.spi.indexing.support.QuerySupport;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+
+/**
+ * Query image dimensions indexed by {@link ImageIndexer}.
+ *
+ * @author junichi11
+ */
+public final class ImageIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(ImageIndex.class.getName());
+
+    private ImageIndex() {
+    }
+
+    /**
+     * Get indexed dimensions. Nothing is returned while indexing is running so
+     * that callers are never blocked by the scan.
+     *
+     * @param image image file
+     * @return dimensions if the image is indexed and not modified since then,
+     * otherwise {@code null}
+     */
+    @CheckForNull
+    public static ImageDimensions get(FileObject image) {
+        if (IndexingManager.getDefault().isIndexing()) {
+            return null;
+        }
+        Collection<FileObject> roots = QuerySupport.findRoots(image, null, Collections.<String>emptyList(), Collections.<String>emptyList());
+        for (FileObject root : roots) {
+            String relativePath = FileUtil.getRelativePath(root, image);
+            if (relativePath == null) {
+                continue;
+            }
+            try {
+                QuerySupport querySupport = QuerySupport.forRoots(ImageIndexer.NAME, ImageIndexer.VERSION, root);
+                Collection<? extends IndexResult> results = querySupport.query(
+                        ImageIndexer.FIELD_PATH,
+                        relativePath,
+                        QuerySupport.Kind.EXACT,
+                        ImageIndexer.FIELD_WIDTH,
+                        ImageIndexer.FIELD_HEIGHT,
+                        ImageIndexer.FIELD_SIZE,
+                        ImageIndexer.FIELD_MODIFIED
+                );
+                for (IndexResult result : results) {
+                    ImageDimensions dimensions = toDimensions(result, image);
+                    if (dimensions != null) {
+                        return dimensions;
+                    }
+                }
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, null, ex);
+            }
+        }
+        return null;
+    }
+
+    @CheckForNull
+    private static ImageDimensions toDimensions(IndexResult result, FileObject image) {
+        try {
+            long size = Long.parseLong(result.getValue(ImageIndexer.FIELD_SIZE));
+            long modified = Long.parseLong(result.getValue(ImageIndexer.FIELD_MODIFIED));
+            if (size != image.getSize() || modified != image.lastModified().getTime()) {
+                // not indexed yet
+                return null;
+            }
+            int width = Integer.parseInt(result.getValue(ImageIndexer.FIELD_WIDTH));
+            int height = Integer.parseInt(result.getValue(ImageIndexer.FIELD_HEIGHT));
+            return new ImageDimensions(width, height);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+}
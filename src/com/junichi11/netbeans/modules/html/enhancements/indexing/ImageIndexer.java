@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.indexing;
+
+import com.junichi11.netbeans.modules.html.enhancements.utils.DocUtils;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageDimensions;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.netbeans.api.editor.mimelookup.MimeRegistration;
+import org.netbeans.api.editor.mimelookup.MimeRegistrations;
+import org.netbeans.modules.parsing.spi.indexing.Context;
+import org.netbeans.modules.parsing.spi.indexing.CustomIndexer;
+import org.netbeans.modules.parsing.spi.indexing.CustomIndexerFactory;
+import org.netbeans.modules.parsing.spi.indexing.Indexable;
+import org.netbeans.modules.parsing.spi.indexing.support.IndexDocument;
+import org.netbeans.modules.parsing.spi.indexing.support.IndexingSupport;
+import org.openide.filesystems.FileObject;
+
+/**
+ * Index dimensions of images in source roots.
+ *
+ * @author junichi11
+ */
+public final class ImageIndexer extends CustomIndexer {
+
+    static final String NAME = "html-enhancements-images"; // NOI18N
+    static final int VERSION = 1;
+    static final String FIELD_PATH = "path"; // NOI18N
+    static final String FIELD_WIDTH = "width"; // NOI18N
+    static final String FIELD_HEIGHT = "height"; // NOI18N
+    static final String FIELD_SIZE = "size"; // NOI18N
+    static final String FIELD_MODIFIED = "modified"; // NOI18N
+    private static final Logger LOGGER = Logger.getLogger(ImageIndexer.class.getName());
+
+    @Override
+    protected void index(Iterable<? extends Indexable> files, Context context) {
+        FileObject root = context.getRoot();
+        if (root == null) {
+            return;
+        }
+        try {
+            IndexingSupport support = IndexingSupport.getInstance(context);
+            for (Indexable indexable : files) {
+                support.removeDocuments(indexable);
+                FileObject image = root.getFileObject(indexable.getRelativePath());
+                if (image == null) {
+                    continue;
+                }
+                ImageDimensions dimensions = DocUtils.probe(image);
+                if (dimensions == null) {
+                    continue;
+                }
+                IndexDocument document = support.createDocument(indexable);
+                document.addPair(FIELD_PATH, indexable.getRelativePath(), true, true);
+                document.addPair(FIELD_WIDTH, String.valueOf(dimensions.getWidth()), false, true);
+                document.addPair(FIELD_HEIGHT, String.valueOf(dimensions.getHeight()), false, true);
+                document.addPair(FIELD_SIZE, String.valueOf(image.getSize()), false, true);
+                document.addPair(FIELD_MODIFIED, String.valueOf(image.lastModified().getTime()), false, true);
+                support.addDocument(document);
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, null, ex);
+        }
+    }
+
+    //~ Inner classes
+    @MimeRegistrations({
+        @MimeRegistration(mimeType = "image/png", service = CustomIndexerFactory.class), // NOI18N
+        @MimeRegistration(mimeType = "image/jpeg", service = CustomIndexerFactory.class), // NOI18N
+        @MimeRegistration(mimeType = "image/gif", service = CustomIndexerFactory.class), // NOI18N
+        @MimeRegistration(mimeType = "image/bmp", service = CustomIndexerFactory.class) // NOI18N
+    })
+    public static final class Factory extends CustomIndexerFactory {
+
+        @Override
+        public CustomIndexer createIndexer() {
+            return new ImageIndexer();
+        }
+
+        @Override
+        public boolean supportsEmbeddedIndexers() {
+            return false;
+        }
+
+        @Override
+        public void filesDeleted(Iterable<? extends Indexable> deleted, Context context) {
+            try {
+                IndexingSupport support = IndexingSupport.getInstance(context);
+                for (Indexable indexable : deleted) {
+                    support.removeDocuments(indexable);
+                }
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, null, ex);
+            }
+        }
+
+        @Override
+        public void filesDirty(Iterable<? extends Indexable> dirty, Context context) {
+        }
+
+        @Override
+        public String getIndexerName() {
+            return NAME;
+        }
+
+        @Override
+        public int getIndexVersion() {
+            return VERSION;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.ui.actions;
+
+import com.junichi11.netbeans.modules.html.enhancements.utils.Metrics;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openide.awt.ActionID;
+import org.openide.awt.ActionReference;
+import org.openide.awt.ActionRegistration;
+import org.openide.util.NbBundle.Messages;
+
+@ActionID(
+        category = "Tools",
+        id = "com.junichi11.netbeans.modules.html.enhancements.ui.actions.DumpMetricsAction")
+@ActionRegistration(
+        displayName = "#CTL_DumpMetricsAction")
+@ActionReference(path = "Menu/Tools", position = 1850)
+@Messages("CTL_DumpMetricsAction=Dump HTML Enhancements Metrics")
+public final class DumpMetricsAction implements ActionListener {
+
+    private static final Logger LOGGER = Logger.getLogger(DumpMetricsAction.class.getName());
+
+    @Override
+    public void actionPerformed(ActionEvent ev) {
+        LOGGER.log(Level.INFO, Metrics.getDefault().dump());
+    }
+}
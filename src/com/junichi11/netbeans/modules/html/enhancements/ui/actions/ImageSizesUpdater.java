@@ -0,0 +1,391 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.ui.actions;
+
+import com.junichi11.netbeans.modules.html.enhancements.utils.DocUtils;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageDimensions;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageIOScheduler;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImgTag;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.StyledDocument;
+import org.netbeans.api.html.lexer.HTMLTokenId;
+import org.netbeans.api.lexer.Language;
+import org.netbeans.api.progress.ProgressHandle;
+import org.netbeans.api.queries.FileEncodingQuery;
+import org.netbeans.api.queries.VisibilityQuery;
+import org.netbeans.modules.csl.api.OffsetRange;
+import org.openide.awt.StatusDisplayer;
+import org.openide.cookies.EditorCookie;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.loaders.DataObject;
+import org.openide.text.NbDocument;
+import org.openide.util.NbBundle.Messages;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Update width and height of all img tags in documents. Distinct images are
+ * probed in parallel and each document is changed in one undoable edit. Files
+ * which are not opened in the editor are rewritten and saved without loading
+ * them in the editor.
+ *
+ * Folders which are not visible (VisibilityQuery) and dependency folders (e.g.
+ * node_modules, vendor) are skipped. The folder names can be changed with the
+ * {@code html.enhancements.update.ignoredFolders} system property
+ * (comma-separated). An image which is not read within 10 seconds
+ * ({@code html.enhancements.update.timeout}) is skipped.
+ *
+ * @author junichi11
+ */
+final class ImageSizesUpdater {
+
+    private static final RequestProcessor RP = new RequestProcessor(ImageSizesUpdater.class.getName());
+    private static final Logger LOGGER = Logger.getLogger(ImageSizesUpdater.class.getName());
+    private static final int PROBE_TIMEOUT = Integer.getInteger("html.enhancements.update.timeout", 10000); // NOI18N
+    private static final Set<String> IGNORED_FOLDERS = new HashSet<>(Arrays.asList(
+            System.getProperty("html.enhancements.update.ignoredFolders", "node_modules,bower_components,vendor").split(","))); // NOI18N
+
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    /**
+     * Update img tags of a document in the background.
+     *
+     * @param document Document
+     */
+    @Messages("ImageSizesUpdater.document.progress=Updating image sizes")
+    static void updateInBackground(StyledDocument document) {
+        ImageSizesUpdater updater = new ImageSizesUpdater();
+        RP.post(() -> {
+            ProgressHandle handle = ProgressHandle.createHandle(Bundle.ImageSizesUpdater_document_progress(), updater::cancel);
+            handle.start();
+            try {
+                updater.update(document, handle);
+            } finally {
+                handle.finish();
+            }
+        });
+    }
+
+    /**
+     * Update img tags of HTML and PHP files in folders in the background.
+     *
+     * @param folders folders
+     */
+    static void updateInBackground(Collection<FileObject> folders) {
+        updateInBackground(folders, file -> true);
+    }
+
+    /**
+     * Update img tags of HTML and PHP files in folders in the background.
+     * Files which are opened in the editor are not saved, they are left
+     * modified.
+     *
+     * @param folders folders
+     * @param filter files and folders which are not accepted are skipped
+     */
+    @Messages({
+        "ImageSizesUpdater.files.progress=Updating image sizes",
+        "# {0} - file name",
+        "ImageSizesUpdater.file.progress=Updating {0}",
+        "# {0} - the number of files",
+        "ImageSizesUpdater.files.modified=Image sizes were updated in {0} file(s). Files opened in the editor are not saved."
+    })
+    static void updateInBackground(Collection<FileObject> folders, Predicate<FileObject> filter) {
+        ImageSizesUpdater updater = new ImageSizesUpdater();
+        RP.post(() -> {
+            ProgressHandle handle = ProgressHandle.createHandle(Bundle.ImageSizesUpdater_files_progress(), updater::cancel);
+            handle.start();
+            int modified = 0;
+            try {
+                List<FileObject> files = collectFiles(folders, filter);
+                handle.switchToDeterminate(files.size());
+                for (int i = 0; i < files.size() && !updater.isCancelled(); i++) {
+                    FileObject file = files.get(i);
+                    handle.progress(Bundle.ImageSizesUpdater_file_progress(file.getNameExt()), i);
+                    if (updater.update(file)) {
+                        modified++;
+                    }
+                }
+            } finally {
+                handle.finish();
+            }
+            if (modified > 0) {
+                StatusDisplayer.getDefault().setStatusText(Bundle.ImageSizesUpdater_files_modified(modified));
+            }
+        });
+    }
+
+    static List<FileObject> collectFiles(Collection<FileObject> folders, Predicate<FileObject> filter) {
+        List<FileObject> files = new ArrayList<>();
+        for (FileObject folder : folders) {
+            if (folder.isData()) {
+                if (isTarget(folder)) {
+                    files.add(folder);
+                }
+                continue;
+            }
+            collectFiles(folder, filter, files);
+        }
+        return files;
+    }
+
+    private static void collectFiles(FileObject folder, Predicate<FileObject> filter, List<FileObject> files) {
+        for (FileObject child : folder.getChildren()) {
+            if (!isVisible(child) || !filter.test(child)) {
+                continue;
+            }
+            if (child.isFolder()) {
+                collectFiles(child, filter, files);
+            } else if (isTarget(child)) {
+                files.add(child);
+            }
+        }
+    }
+
+    private static boolean isVisible(FileObject file) {
+        if (file.isFolder() && IGNORED_FOLDERS.contains(file.getNameExt())) {
+            return false;
+        }
+        return VisibilityQuery.getDefault().isVisible(file);
+    }
+
+    private static boolean isTarget(FileObject file) {
+        String mimeType = file.getMIMEType();
+        return DocUtils.HTML_MIME_TYPE.equals(mimeType) || DocUtils.PHP_MIME_TYPE.equals(mimeType);
+    }
+
+    boolean cancel() {
+        cancelled.set(true);
+        return true;
+    }
+
+    boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * Update img tags of a file. The document is changed if the file is opened
+     * in the editor, otherwise the file is rewritten.
+     *
+     * @param file HTML or PHP file
+     * @return {@code true} if img tags are updated, otherwise {@code false}
+     */
+    boolean update(FileObject file) {
+        try {
+            DataObject dataObject = DataObject.find(file);
+            EditorCookie editorCookie = dataObject.getLookup().lookup(EditorCookie.class);
+            StyledDocument document = editorCookie == null ? null : editorCookie.getDocument();
+            int updated = document != null ? update(document, null) : rewrite(file, dataObject);
+            if (updated > 0) {
+                LOGGER.log(Level.INFO, "Image sizes were updated: {0}", FileUtil.getFileDisplayName(file)); // NOI18N
+                return true;
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, null, ex);
+        }
+        return false;
+    }
+
+    /**
+     * Update img tags of a file which is not opened in the editor. The tags
+     * are rewritten in the text like the command line tool does, so the file
+     * is not loaded in the editor, and the file is saved if it is changed.
+     */
+    private int rewrite(FileObject file, DataObject dataObject) throws IOException {
+        Charset charset = FileEncodingQuery.getEncoding(file);
+        long lastModified = file.lastModified().getTime();
+        String text = file.asText(charset.name());
+        Language<?> language = Language.find(file.getMIMEType());
+        Document document = new PlainDocument();
+        document.putProperty(Language.class, language != null ? language : HTMLTokenId.language());
+        // src values are resolved from the file
+        document.putProperty(Document.StreamDescriptionProperty, dataObject);
+        try {
+            document.insertString(0, text, null);
+        } catch (BadLocationException ex) {
+            throw new IOException(ex);
+        }
+        Map<String, ImageDimensions> dimensions = probe(document, null);
+        if (dimensions.isEmpty() || isCancelled()) {
+            return 0;
+        }
+
+        StringBuilder updated = new StringBuilder(text.length() + 64);
+        int[] count = {0};
+        int[] copied = {0};
+        document.render(() -> {
+            for (ImgTag imgTag : ImgTag.findAll(document)) {
+                ImageDimensions imageDimensions = dimensions.get(imgTag.getSrc());
+                if (imageDimensions == null) {
+                    continue;
+                }
+                OffsetRange range = imgTag.getRange();
+                ImgTagRewriter rewriter = ImgTagRewriter.scan(text.substring(range.getStart(), range.getEnd()));
+                if (rewriter.hasSize(imageDimensions.getWidth(), imageDimensions.getHeight())) {
+                    continue;
+                }
+                updated.append(text, copied[0], range.getStart()).append(rewriter.write(imageDimensions.getWidth(), imageDimensions.getHeight()));
+                copied[0] = range.getEnd();
+                count[0]++;
+            }
+        });
+        if (count[0] == 0) {
+            return 0;
+        }
+        updated.append(text, copied[0], text.length());
+        // opened or changed while images are read
+        if (dataObject.isModified() || file.lastModified().getTime() != lastModified) {
+            LOGGER.log(Level.INFO, "{0} was modified while updating image sizes", FileUtil.getFileDisplayName(file)); // NOI18N
+            return 0;
+        }
+        try (OutputStream outputStream = file.getOutputStream()) {
+            outputStream.write(updated.toString().getBytes(charset));
+        }
+        return count[0];
+    }
+
+    /**
+     * Update img tags of a document.
+     *
+     * @param document Document
+     * @param handle progress handle, can be {@code null}
+     * @return the number of changed tags
+     */
+    int update(StyledDocument document, ProgressHandle handle) {
+        Map<String, ImageDimensions> dimensions = probe(document, handle);
+        if (dimensions.isEmpty() || isCancelled()) {
+            return 0;
+        }
+        return apply(document, dimensions);
+    }
+
+    /**
+     * Read distinct images of img tags in parallel.
+     *
+     * @param document Document
+     * @param handle progress handle, can be {@code null}
+     * @return dimensions of src values, empty if the update is cancelled
+     */
+    private Map<String, ImageDimensions> probe(Document document, ProgressHandle handle) {
+        // collect src values
+        List<String> srcs = new ArrayList<>();
+        document.render(() -> {
+            for (ImgTag imgTag : ImgTag.findAll(document)) {
+                String src = imgTag.getSrc();
+                if (src != null && !src.isEmpty()) {
+                    srcs.add(src);
+                }
+            }
+        });
+
+        Map<String, Future<ImageDimensions>> futures = new HashMap<>();
+        for (String src : srcs) {
+            if (!futures.containsKey(src)) {
+                futures.put(src, ImageIOScheduler.getDefault().submit(ImageIOScheduler.Priority.USER, () -> DocUtils.getImageDimensions(src, document)));
+            }
+        }
+        if (handle != null) {
+            handle.switchToDeterminate(futures.size());
+        }
+        Map<String, ImageDimensions> dimensions = new HashMap<>();
+        int done = 0;
+        for (Map.Entry<String, Future<ImageDimensions>> entry : futures.entrySet()) {
+            if (isCancelled()) {
+                cancelAll(futures.values());
+                return Collections.emptyMap();
+            }
+            try {
+                ImageDimensions imageDimensions = entry.getValue().get(PROBE_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (imageDimensions != null) {
+                    dimensions.put(entry.getKey(), imageDimensions);
+                }
+            } catch (TimeoutException ex) {
+                entry.getValue().cancel(true);
+                LOGGER.log(Level.INFO, "Cannot read the image within {0}ms: {1}", new Object[]{PROBE_TIMEOUT, entry.getKey()}); // NOI18N
+            } catch (InterruptedException ex) {
+                cancelAll(futures.values());
+                Thread.currentThread().interrupt();
+                return Collections.emptyMap();
+            } catch (ExecutionException ex) {
+                LOGGER.log(Level.WARNING, null, ex);
+            }
+            done++;
+            if (handle != null) {
+                handle.progress(done);
+            }
+        }
+        return dimensions;
+    }
+
+    /**
+     * Apply changes in one atomic edit. Tags are located again because the
+     * document may be changed while images are read.
+     */
+    private static int apply(StyledDocument document, Map<String, ImageDimensions> dimensions) {
+        int[] count = {0};
+        try {
+            NbDocument.runAtomicAsUser(document, () -> {
+                List<ImgTag> imgTags = ImgTag.findAll(document);
+                // from the end so that offsets are not shifted
+                for (int i = imgTags.size() - 1; i >= 0; i--) {
+                    ImgTag imgTag = imgTags.get(i);
+                    ImageDimensions imageDimensions = dimensions.get(imgTag.getSrc());
+                    if (imageDimensions == null) {
+                        continue;
+                    }
+                    try {
+                        if (UpdateImageSizeAction.updateImgTag(document, imgTag, imageDimensions.getWidth(), imageDimensions.getHeight())) {
+                            count[0]++;
+                        }
+                    } catch (BadLocationException ex) {
+                        LOGGER.log(Level.WARNING, "Invalid offset: {0}", ex.offsetRequested()); // NOI18N
+                    }
+                }
+            });
+        } catch (BadLocationException ex) {
+            LOGGER.log(Level.WARNING, "Invalid offset: {0}", ex.offsetRequested()); // NOI18N
+        }
+        return count[0];
+    }
+
+    private static void cancelAll(Collection<Future<ImageDimensions>> futures) {
+        for (Future<ImageDimensions> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
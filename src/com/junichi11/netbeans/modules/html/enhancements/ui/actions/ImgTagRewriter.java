@@ -0,0 +1,270 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.ui.actions;
+
+/**
+ * Rewrite width and height attributes of an img tag. The tag is scanned once
+ * and the result is written to one buffer. Double-quoted, single-quoted and
+ * unquoted values are supported, and quotes are kept as they are. Existing
+ * values (e.g. "10px") are replaced with the number. Missing attributes are
+ * added before the close symbol.
+ *
+ * @author junichi11
+ */
+final class ImgTagRewriter {
+
+    private static final String WIDTH = "width"; // NOI18N
+    private static final String HEIGHT = "height"; // NOI18N
+    private static final String SRC = "src"; // NOI18N
+    private static final int NONE = -1;
+
+    private final CharSequence tag;
+    private final int length;
+    private int position;
+    // value ranges (quotes are not contained)
+    private int widthStart = NONE;
+    private int widthEnd = NONE;
+    private boolean widthHasValue;
+    private int heightStart = NONE;
+    private int heightEnd = NONE;
+    private boolean heightHasValue;
+    private int srcStart = NONE;
+    private int srcEnd = NONE;
+    private int closeOffset;
+    private boolean selfClosing;
+
+    private ImgTagRewriter(CharSequence tag) {
+        this.tag = tag;
+        this.length = tag.length();
+    }
+
+    /**
+     * Rewrite width and height of the img tag. A self-closing tag is always
+     * closed with " /&gt;".
+     *
+     * @param tag img tag (e.g. &lt;img src="test.png" /&gt;)
+     * @param width width
+     * @param height height
+     * @return the rewritten tag
+     */
+    static String rewrite(CharSequence tag, int width, int height) {
+        return scan(tag).write(width, height);
+    }
+
+    /**
+     * Scan attributes of the img tag.
+     *
+     * @param tag img tag
+     * @return the scanned rewriter
+     */
+    static ImgTagRewriter scan(CharSequence tag) {
+        ImgTagRewriter rewriter = new ImgTagRewriter(tag);
+        rewriter.scan();
+        return rewriter;
+    }
+
+    /**
+     * Get the src value.
+     *
+     * @return the src value if it exists, otherwise {@code null}
+     */
+    String getSrc() {
+        return srcStart == NONE ? null : tag.subSequence(srcStart, srcEnd).toString();
+    }
+
+    /**
+     * Check whether the tag already has the width and height.
+     *
+     * @param width width
+     * @param height height
+     * @return {@code true} if both values are the same as the specified ones,
+     * otherwise {@code false}
+     */
+    boolean hasSize(int width, int height) {
+        return widthHasValue && heightHasValue
+                && regionMatches(widthStart, widthEnd, String.valueOf(width))
+                && regionMatches(heightStart, heightEnd, String.valueOf(height));
+    }
+
+    private void scan() {
+        closeOffset = length;
+        selfClosing = false;
+        position = 0;
+        if (position < length && tag.charAt(position) == '<') {
+            position++;
+        }
+        // tag name
+        while (position < length && !isNameEnd(tag.charAt(position))) {
+            position++;
+        }
+        while (position < length) {
+            char c = tag.charAt(position);
+            if (Character.isWhitespace(c)) {
+                position++;
+                continue;
+            }
+            if (c == '>') {
+                closeOffset = position;
+                return;
+            }
+            if (c == '/') {
+                if (position + 1 < length && tag.charAt(position + 1) == '>') {
+                    closeOffset = position;
+                    selfClosing = true;
+                    return;
+                }
+                position++;
+                continue;
+            }
+            scanAttribute();
+        }
+    }
+
+    private void scanAttribute() {
+        int nameStart = position;
+        while (position < length && !isNameEnd(tag.charAt(position)) && tag.charAt(position) != '=') {
+            position++;
+        }
+        int nameEnd = position;
+        boolean isWidth = regionMatches(nameStart, nameEnd, WIDTH);
+        boolean isHeight = !isWidth && regionMatches(nameStart, nameEnd, HEIGHT);
+        boolean isSrc = !isWidth && !isHeight && regionMatches(nameStart, nameEnd, SRC);
+
+        // "=" may be surrounded by whitespaces
+        int afterName = position;
+        skipWhitespaces();
+        if (position >= length || tag.charAt(position) != '=') {
+            // no value
+            position = afterName;
+            setRange(isWidth, isHeight, nameEnd, nameEnd, false);
+            return;
+        }
+        position++;
+        skipWhitespaces();
+        if (position >= length) {
+            setRange(isWidth, isHeight, position, position, true);
+            return;
+        }
+        char quote = tag.charAt(position);
+        int valueStart;
+        int valueEnd;
+        if (quote == '"' || quote == '\'') {
+            position++;
+            valueStart = position;
+            while (position < length && tag.charAt(position) != quote) {
+                position++;
+            }
+            valueEnd = position;
+            if (position < length) {
+                position++;
+            }
+        } else {
+            valueStart = position;
+            while (position < length && !Character.isWhitespace(tag.charAt(position)) && tag.charAt(position) != '>') {
+                position++;
+            }
+            valueEnd = position;
+        }
+        if (isSrc && srcStart == NONE) {
+            srcStart = valueStart;
+            srcEnd = valueEnd;
+        }
+        setRange(isWidth, isHeight, valueStart, valueEnd, true);
+    }
+
+    private void setRange(boolean isWidth, boolean isHeight, int start, int end, boolean hasValue) {
+        if (isWidth && widthStart == NONE) {
+            widthStart = start;
+            widthEnd = end;
+            widthHasValue = hasValue;
+        } else if (isHeight && heightStart == NONE) {
+            heightStart = start;
+            heightEnd = end;
+            heightHasValue = hasValue;
+        }
+    }
+
+    String write(int width, int height) {
+        StringBuilder sb = new StringBuilder(length + 32);
+        int copied = 0;
+        // replace values in order of appearance
+        if (widthStart != NONE && heightStart != NONE && heightStart < widthStart) {
+            copied = writeValue(sb, copied, heightStart, heightEnd, heightHasValue, height);
+            copied = writeValue(sb, copied, widthStart, widthEnd, widthHasValue, width);
+        } else {
+            copied = writeValue(sb, copied, widthStart, widthEnd, widthHasValue, width);
+            copied = writeValue(sb, copied, heightStart, heightEnd, heightHasValue, height);
+        }
+        sb.append(tag, copied, closeOffset);
+
+        // add missing attributes
+        boolean previousIsWhitespace = closeOffset > 0 && Character.isWhitespace(tag.charAt(closeOffset - 1));
+        boolean missing = widthStart == NONE || heightStart == NONE;
+        if (missing) {
+            if (!previousIsWhitespace) {
+                sb.append(' ');
+            }
+            if (widthStart == NONE) {
+                sb.append(WIDTH).append("=\"").append(width).append("\" "); // NOI18N
+            }
+            if (heightStart == NONE) {
+                sb.append(HEIGHT).append("=\"").append(height).append("\" "); // NOI18N
+            }
+            if (!previousIsWhitespace && !selfClosing) {
+                sb.setLength(sb.length() - 1);
+            }
+        } else if (selfClosing && !previousIsWhitespace) {
+            sb.append(' ');
+        }
+        sb.append(tag, closeOffset, length);
+        return sb.toString();
+    }
+
+    private int writeValue(StringBuilder sb, int copied, int start, int end, boolean hasValue, int value) {
+        if (start == NONE) {
+            return copied;
+        }
+        sb.append(tag, copied, start);
+        if (hasValue) {
+            sb.append(value);
+        } else {
+            sb.append("=\"").append(value).append('"'); // NOI18N
+        }
+        return end;
+    }
+
+    private void skipWhitespaces() {
+        while (position < length && Character.isWhitespace(tag.charAt(position))) {
+            position++;
+        }
+    }
+
+    private boolean regionMatches(int start, int end, String name) {
+        if (end - start != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.toLowerCase(tag.charAt(start + i)) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNameEnd(char c) {
+        return Character.isWhitespace(c) || c == '>' || c == '/';
+    }
+}
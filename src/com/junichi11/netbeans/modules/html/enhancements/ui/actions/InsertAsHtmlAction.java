@@ -16,20 +16,29 @@
 package com.junichi11.netbeans.modules.html.enhancements.ui.actions;
 
 import com.junichi11.netbeans.modules.html.enhancements.utils.DocUtils;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageDimensions;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageIOScheduler;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.awt.image.BufferedImage;
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import javax.swing.text.JTextComponent;
+import javax.swing.text.Position;
+import org.netbeans.api.annotations.common.CheckForNull;
 import org.netbeans.api.editor.EditorRegistry;
+import org.netbeans.api.progress.ProgressHandle;
 import org.netbeans.editor.BaseDocument;
 import org.netbeans.modules.editor.indent.api.Reformat;
 import org.openide.awt.ActionID;
@@ -40,6 +49,7 @@ import org.openide.filesystems.FileObject;
 import org.openide.filesystems.FileUtil;
 import org.openide.loaders.DataObject;
 import org.openide.util.NbBundle.Messages;
+import org.openide.util.RequestProcessor;
 
 @ActionID(
     category = "Edit",
@@ -58,6 +68,11 @@ public final class InsertAsHtmlAction implements ActionListener {
     private final List<DataObject> contexts;
     private static final Set<String> IMG_MIME_TYPES = new HashSet<String>();
     private static final Logger LOGGER = Logger.getLogger(InsertAsHtmlAction.class.getName());
+    private static final RequestProcessor RP = new RequestProcessor(InsertAsHtmlAction.class.getName());
+    // an image which is not read within the timeout is skipped
+    private static final int READ_TIMEOUT = Integer.getInteger("html.enhancements.insert.timeout", 10000); // NOI18N
+    // how often cancellation is checked while an image is read
+    private static final int CANCEL_CHECK_INTERVAL = 100;
 
     static {
         IMG_MIME_TYPES.add("image/png"); // NOI18N
@@ -70,49 +85,140 @@ public final class InsertAsHtmlAction implements ActionListener {
         this.contexts = context;
     }
 
+    @Messages("InsertAsHtmlAction.progress=Inserting images as HTML")
     @Override
     public void actionPerformed(ActionEvent ev) {
         JTextComponent editor = getEditor();
         if (editor == null) {
             return;
         }
-
-        String imgTag = buildImgTags();
-        int offset = editor.getCaret().getDot();
         Document document = editor.getDocument();
+        FileObject fileObject = DocUtils.getFileObject(document);
+        if (fileObject == null) {
+            return;
+        }
+        List<FileObject> imageFiles = getImageFiles();
+        if (imageFiles.isEmpty()) {
+            return;
+        }
+        // keep the insert position while images are read
+        Position position;
         try {
-            document.insertString(offset, imgTag, null);
+            position = document.createPosition(editor.getCaret().getDot());
         } catch (BadLocationException ex) {
-            LOGGER.log(Level.WARNING, "Invalid offset: {0}", ex.offsetRequested());
-        }
-
-        int stringCount = imgTag.length();
-        if (stringCount == 0) {
+            LOGGER.log(Level.WARNING, "Invalid offset: {0}", ex.offsetRequested()); // NOI18N
             return;
         }
-        reformat(document, offset, offset + stringCount);
+
+        AtomicBoolean cancelled = new AtomicBoolean();
+        RP.post(() -> {
+            ProgressHandle handle = ProgressHandle.createHandle(Bundle.InsertAsHtmlAction_progress(), () -> {
+                cancelled.set(true);
+                return true;
+            });
+            handle.start(imageFiles.size());
+            try {
+                String imgTags = buildImgTags(imageFiles, fileObject, handle, cancelled);
+                if (imgTags == null || imgTags.isEmpty()) {
+                    return;
+                }
+                SwingUtilities.invokeLater(() -> insert(document, position, imgTags));
+            } finally {
+                handle.finish();
+            }
+        });
     }
 
-    private String buildImgTags() {
-        StringBuilder sb = new StringBuilder();
-        boolean isMulti = false;
+    private List<FileObject> getImageFiles() {
+        List<FileObject> imageFiles = new ArrayList<>();
         for (DataObject context : contexts) {
             FileObject imageFile = context.getPrimaryFile();
             if (imageFile == null) {
                 break;
             }
-            if (!isImage(imageFile)) {
+            if (isImage(imageFile)) {
+                imageFiles.add(imageFile);
+            }
+        }
+        return imageFiles;
+    }
+
+    /**
+     * Build img tags. Images are read in parallel and tags are joined in the
+     * selection order.
+     *
+     * @return img tags, {@code null} if it's cancelled
+     */
+    @CheckForNull
+    private String buildImgTags(List<FileObject> imageFiles, FileObject fileObject, ProgressHandle handle, AtomicBoolean cancelled) {
+        List<Future<String>> futures = new ArrayList<>(imageFiles.size());
+        for (FileObject imageFile : imageFiles) {
+            futures.add(ImageIOScheduler.getDefault().submit(ImageIOScheduler.Priority.USER, () -> createImgTag(imageFile, fileObject)));
+        }
+        StringBuilder sb = new StringBuilder();
+        boolean isMulti = false;
+        for (int i = 0; i < futures.size(); i++) {
+            String imgTag;
+            try {
+                imgTag = getImgTag(futures.get(i), cancelled);
+            } catch (TimeoutException ex) {
+                futures.get(i).cancel(true);
+                LOGGER.log(Level.INFO, "Cannot read {0} within {1}ms", new Object[]{FileUtil.getFileDisplayName(imageFiles.get(i)), READ_TIMEOUT}); // NOI18N
+                imgTag = null;
+            } catch (InterruptedException ex) {
+                cancelAll(futures);
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException ex) {
+                // skip only the failed image
+                LOGGER.log(Level.WARNING, "Cannot create an img tag for " + FileUtil.getFileDisplayName(imageFiles.get(i)), ex.getCause()); // NOI18N
+                imgTag = null;
+            }
+            if (cancelled.get()) {
+                cancelAll(futures);
+                return null;
+            }
+            handle.progress(i + 1);
+            if (imgTag == null) {
                 continue;
             }
             if (isMulti) {
                 sb.append("\n"); // NOI18N
             }
-            sb.append(createImgTag(imageFile));
+            sb.append(imgTag);
             isMulti = true;
         }
         return sb.toString();
     }
 
+    /**
+     * Wait for an img tag. Cancellation is checked while waiting.
+     *
+     * @return img tag, {@code null} if it's cancelled or not created
+     */
+    @CheckForNull
+    private static String getImgTag(Future<String> future, AtomicBoolean cancelled) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(READ_TIMEOUT);
+        while (!cancelled.get()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            try {
+                return future.get(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(CANCEL_CHECK_INTERVAL)), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException ex) {
+                // check cancellation
+            }
+        }
+        return null;
+    }
+
+    private static void cancelAll(List<Future<String>> futures) {
+        for (Future<String> future : futures) {
+            future.cancel(true);
+        }
+    }
+
     /**
      * Get editor
      *
@@ -127,23 +233,18 @@ public final class InsertAsHtmlAction implements ActionListener {
      * format.
      *
      * @param imageFile
+     * @param fileObject the file of the editor
      * @return img tag
      */
-    private String createImgTag(FileObject imageFile) {
-        BufferedImage read = null;
-        try {
-            read = ImageIO.read(FileUtil.toFile(imageFile));
-        } catch (IOException ex) {
-            LOGGER.log(Level.WARNING, null, ex);
-        }
-        if (read == null) {
+    @CheckForNull
+    private String createImgTag(FileObject imageFile, FileObject fileObject) {
+        ImageDimensions dimensions = DocUtils.getImageDimensions(imageFile);
+        if (dimensions == null) {
             return null;
         }
-        Document document = getEditor().getDocument();
-        FileObject fileObject = DocUtils.getFileObject(document);
         String relativePath = getRelativePath(fileObject, imageFile);
 
-        return String.format(IMG_TAG_FORMAT, relativePath, read.getWidth(), read.getHeight());
+        return String.format(IMG_TAG_FORMAT, relativePath, dimensions.getWidth(), dimensions.getHeight());
     }
 
     /**
@@ -153,7 +254,7 @@ public final class InsertAsHtmlAction implements ActionListener {
      * @param to image file
      * @return realative path
      */
-    private String getRelativePath(FileObject from, FileObject to) {
+    static String getRelativePath(FileObject from, FileObject to) {
         String relativePath = FileUtil.getRelativePath(from.getParent(), to);
         if (relativePath != null) {
             return relativePath;
@@ -183,7 +284,7 @@ public final class InsertAsHtmlAction implements ActionListener {
      * @param times
      * @return path relative to the branch
      */
-    private String getUpPath(int times) {
+    private static String getUpPath(int times) {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < times; i++) {
             sb.append(PARENT);
@@ -198,7 +299,7 @@ public final class InsertAsHtmlAction implements ActionListener {
      * @param target
      * @return path to image file
      */
-    private String getDownPath(int position, String[] target) {
+    private static String getDownPath(int position, String[] target) {
         StringBuilder sb = new StringBuilder();
         int length = target.length;
         int last = length - 1;
@@ -223,21 +324,23 @@ public final class InsertAsHtmlAction implements ActionListener {
     }
 
     /**
-     * Reformat
+     * Insert img tags and reformat them in one atomic edit.
      *
      * @param document
-     * @param start
-     * @param end
+     * @param position insert position
+     * @param imgTags
      */
-    private void reformat(Document document, final int start, final int end) {
+    private void insert(Document document, Position position, String imgTags) {
         final BaseDocument baseDoc = (BaseDocument) document;
         final Reformat reformat = Reformat.get(baseDoc);
         // reformat
         reformat.lock();
         try {
-            baseDoc.runAtomic(() -> {
+            baseDoc.runAtomicAsUser(() -> {
+                int offset = position.getOffset();
                 try {
-                    reformat.reformat(start, end);
+                    baseDoc.insertString(offset, imgTags, null);
+                    reformat.reformat(offset, offset + imgTags.length());
                 } catch (BadLocationException ex) {
                     LOGGER.log(Level.WARNING, null, ex);
                 }
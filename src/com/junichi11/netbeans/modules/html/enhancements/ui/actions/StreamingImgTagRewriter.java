@@ -0,0 +1,355 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.ui.actions;
+
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageDimensions;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Update width and height of img tags while copying HTML from a reader to a
+ * writer. Unlike {@link UpdateImageSizeAction}, a document is not created. The
+ * input is read through a fixed size buffer and only the current tag is kept,
+ * so the memory usage doesn't depend on the file size. Tags may span buffer
+ * boundaries. Comments and the content of script and style elements are copied
+ * as they are. A tag longer than {@link #MAX_TAG_LENGTH} is not changed.
+ *
+ * @author junichi11
+ */
+public final class StreamingImgTagRewriter {
+
+    /**
+     * Listener for updated tags.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a tag is updated.
+         *
+         * @param line the line number (1-based) of the start of the tag
+         * @param oldTag the original tag
+         * @param newTag the updated tag
+         */
+        void updated(int line, String oldTag, String newTag);
+    }
+
+    static final int MAX_TAG_LENGTH = 64 * 1024;
+    private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+    private static final String COMMENT_START = "<!--"; // NOI18N
+    private static final String IMG = "img"; // NOI18N
+    private static final String SCRIPT = "script"; // NOI18N
+    private static final String STYLE = "style"; // NOI18N
+    // longer names than "script" are not interesting
+    private static final int MAX_NAME_LENGTH = SCRIPT.length();
+
+    private enum State {
+        TEXT,
+        MARKUP,
+        IMG,
+        COMMENT,
+        RAW_TEXT,
+    }
+
+    private final Function<String, ImageDimensions> dimensions;
+    private final Listener listener;
+    private final char[] input;
+    private final char[] output;
+    private final StringBuilder pending = new StringBuilder();
+    private Writer writer;
+    private int outputLength;
+    private State state;
+    private int line;
+    private int tagLine;
+    // MARKUP: whether the tag name is complete
+    private boolean nameEnded;
+    // IMG
+    private char quote;
+    private boolean afterEquals;
+    // COMMENT: the number of successive '-', RAW_TEXT: the matched length of the end tag
+    private int matched;
+    private String rawTextEnd;
+    private int tags;
+    private int updatedTags;
+
+    /**
+     * Constructor.
+     *
+     * @param dimensions returns dimensions for a src value, or {@code null} if
+     * the tag should not be changed
+     * @param listener listener for updated tags, can be {@code null}
+     */
+    public StreamingImgTagRewriter(Function<String, ImageDimensions> dimensions, Listener listener) {
+        this(dimensions, listener, DEFAULT_BUFFER_SIZE);
+    }
+
+    StreamingImgTagRewriter(Function<String, ImageDimensions> dimensions, Listener listener, int bufferSize) {
+        this.dimensions = dimensions;
+        this.listener = listener;
+        this.input = new char[bufferSize];
+        this.output = new char[bufferSize];
+    }
+
+    /**
+     * Copy from the reader to the writer updating img tags. Neither the reader
+     * nor the writer is closed.
+     *
+     * @param reader HTML
+     * @param writer the output
+     * @return the number of updated tags
+     * @throws IOException
+     */
+    public int rewrite(Reader reader, Writer writer) throws IOException {
+        this.writer = writer;
+        outputLength = 0;
+        pending.setLength(0);
+        state = State.TEXT;
+        line = 1;
+        tags = 0;
+        updatedTags = 0;
+        int read;
+        while ((read = reader.read(input, 0, input.length)) != -1) {
+            int offset = 0;
+            while (offset < read) {
+                if (state == State.TEXT) {
+                    offset = text(offset, read);
+                } else {
+                    process(input[offset]);
+                    offset++;
+                }
+            }
+        }
+        // unclosed tag
+        write(pending);
+        pending.setLength(0);
+        flush();
+        this.writer = null;
+        return updatedTags;
+    }
+
+    /**
+     * Get the number of img tags processed by the last
+     * {@link #rewrite(Reader, Writer)}.
+     *
+     * @return the number of img tags
+     */
+    public int getTags() {
+        return tags;
+    }
+
+    private int text(int offset, int end) throws IOException {
+        int index = offset;
+        while (index < end && input[index] != '<') {
+            if (input[index] == '\n') {
+                line++;
+            }
+            index++;
+        }
+        write(input, offset, index - offset);
+        if (index < end) {
+            // '<'
+            pending.append('<');
+            tagLine = line;
+            nameEnded = false;
+            state = State.MARKUP;
+            index++;
+        }
+        return index;
+    }
+
+    private void process(char c) throws IOException {
+        if (c == '\n') {
+            line++;
+        }
+        switch (state) {
+            case MARKUP:
+                markup(c);
+                break;
+            case IMG:
+                img(c);
+                break;
+            case COMMENT:
+                write(c);
+                if (c == '-') {
+                    matched++;
+                } else {
+                    if (c == '>' && matched >= 2) {
+                        state = State.TEXT;
+                    }
+                    matched = 0;
+                }
+                break;
+            case RAW_TEXT:
+                write(c);
+                if (Character.toLowerCase(c) == rawTextEnd.charAt(matched)) {
+                    matched++;
+                    if (matched == rawTextEnd.length()) {
+                        state = State.TEXT;
+                    }
+                } else {
+                    matched = c == '<' ? 1 : 0;
+                }
+                break;
+            default:
+                assert false : "Unexpected state: " + state; // NOI18N
+                break;
+        }
+    }
+
+    private void markup(char c) throws IOException {
+        if (c == '<') {
+            // e.g. "<<img"
+            flushPending();
+            pending.append(c);
+            tagLine = line;
+            return;
+        }
+        pending.append(c);
+        int length = pending.length();
+        if (length <= COMMENT_START.length() && COMMENT_START.startsWith(pending.toString())) {
+            if (length == COMMENT_START.length()) {
+                flushPending();
+                matched = 0;
+                state = State.COMMENT;
+            }
+            return;
+        }
+        if (!nameEnded && isNameChar(c) && length <= MAX_NAME_LENGTH + 1) {
+            return;
+        }
+        nameEnded = true;
+        String name = pending.substring(1, length - 1).toLowerCase(Locale.ROOT);
+        if (name.equals(IMG) && isNameEnd(c)) {
+            quote = 0;
+            afterEquals = false;
+            state = State.IMG;
+            if (c == '>') {
+                endImg();
+            }
+            return;
+        }
+        flushPending();
+        if ((name.equals(SCRIPT) || name.equals(STYLE)) && isNameEnd(c)) {
+            rawTextEnd = "</" + name; // NOI18N
+            matched = 0;
+            state = State.RAW_TEXT;
+        } else {
+            state = State.TEXT;
+        }
+    }
+
+    private void img(char c) throws IOException {
+        pending.append(c);
+        if (quote != 0) {
+            if (c == quote) {
+                quote = 0;
+            }
+        } else if (c == '=') {
+            afterEquals = true;
+        } else if (afterEquals && (c == '"' || c == '\'')) {
+            quote = c;
+            afterEquals = false;
+        } else if (c == '>') {
+            endImg();
+            return;
+        } else if (!Character.isWhitespace(c)) {
+            afterEquals = false;
+        }
+        if (pending.length() > MAX_TAG_LENGTH) {
+            // give up
+            flushPending();
+            state = State.TEXT;
+        }
+    }
+
+    private void endImg() throws IOException {
+        tags++;
+        state = State.TEXT;
+        ImgTagRewriter rewriter = ImgTagRewriter.scan(pending);
+        String src = rewriter.getSrc();
+        ImageDimensions imageDimensions = src == null || src.isEmpty() ? null : dimensions.apply(src);
+        if (imageDimensions == null
+                || rewriter.hasSize(imageDimensions.getWidth(), imageDimensions.getHeight())) {
+            flushPending();
+            return;
+        }
+        String oldTag = pending.toString();
+        String newTag = rewriter.write(imageDimensions.getWidth(), imageDimensions.getHeight());
+        pending.setLength(0);
+        write(newTag);
+        if (!oldTag.equals(newTag)) {
+            updatedTags++;
+            if (listener != null) {
+                listener.updated(tagLine, oldTag, newTag);
+            }
+        }
+    }
+
+    private void flushPending() throws IOException {
+        write(pending);
+        pending.setLength(0);
+    }
+
+    private void write(char c) throws IOException {
+        if (outputLength == output.length) {
+            flush();
+        }
+        output[outputLength++] = c;
+    }
+
+    private void write(char[] chars, int offset, int length) throws IOException {
+        if (length > output.length - outputLength) {
+            flush();
+            if (length > output.length) {
+                writer.write(chars, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(chars, offset, output, outputLength, length);
+        outputLength += length;
+    }
+
+    private void write(CharSequence chars) throws IOException {
+        int length = chars.length();
+        if (length > output.length - outputLength) {
+            flush();
+            if (length > output.length) {
+                writer.append(chars);
+                return;
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            output[outputLength++] = chars.charAt(i);
+        }
+    }
+
+    private void flush() throws IOException {
+        if (outputLength > 0) {
+            writer.write(output, 0, outputLength);
+            outputLength = 0;
+        }
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '-' || c == ':';
+    }
+
+    private static boolean isNameEnd(char c) {
+        return Character.isWhitespace(c) || c == '>' || c == '/';
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.ui.actions;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.text.StyledDocument;
+import org.openide.awt.ActionID;
+import org.openide.awt.ActionReference;
+import org.openide.awt.ActionReferences;
+import org.openide.awt.ActionRegistration;
+import org.openide.cookies.EditorCookie;
+import org.openide.util.NbBundle.Messages;
+
+@ActionID(
+        category = "XML",
+        id = "com.junichi11.netbeans.modules.html.enhancements.ui.actions.UpdateAllImageSizesAction")
+@ActionRegistration(
+        displayName = "#CTL_UpdateAllImageSizesAction")
+@ActionReferences({
+    @ActionReference(path = "Editors/text/html/Popup", position = 4100),
+    @ActionReference(path = "Editors/text/x-php5/Popup", position = 4100)
+})
+@Messages("CTL_UpdateAllImageSizesAction=Update All Image Sizes")
+public final class UpdateAllImageSizesAction implements ActionListener {
+
+    private final EditorCookie context;
+
+    public UpdateAllImageSizesAction(EditorCookie context) {
+        this.context = context;
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent ev) {
+        StyledDocument document = context.getDocument();
+        if (document == null) {
+            return;
+        }
+        ImageSizesUpdater.updateInBackground(document);
+    }
+}
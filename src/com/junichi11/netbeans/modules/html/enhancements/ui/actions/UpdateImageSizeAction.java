@@ -16,17 +16,20 @@
 package com.junichi11.netbeans.modules.html.enhancements.ui.actions;
 
 import com.junichi11.netbeans.modules.html.enhancements.utils.DocUtils;
-import java.awt.Image;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageDimensions;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageIOScheduler;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImgTag;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Caret;
+import javax.swing.text.Document;
 import javax.swing.text.JTextComponent;
 import javax.swing.text.StyledDocument;
+import org.netbeans.api.annotations.common.CheckForNull;
+import org.netbeans.api.annotations.common.NullAllowed;
 import org.netbeans.api.editor.EditorRegistry;
 import org.netbeans.modules.csl.api.OffsetRange;
 import org.openide.awt.ActionID;
@@ -46,8 +49,6 @@ import org.openide.util.NbBundle.Messages;
 public final class UpdateImageSizeAction implements ActionListener {
 
     private final EditorCookie context;
-    private static final String SRC_GROUP = "src"; // NOI18N
-    private static final Pattern IMAGE_TAG_PATTERN = Pattern.compile("<img.*?src=([\"\\'])(?<src>.+?)\\1.*?>", Pattern.DOTALL); // NOI18N
     private static final Logger LOGGER = Logger.getLogger(UpdateImageSizeAction.class.getName());
 
     public UpdateImageSizeAction(EditorCookie context) {
@@ -64,60 +65,121 @@ public final class UpdateImageSizeAction implements ActionListener {
     void updateImageSize(JTextComponent editor, StyledDocument document) {
         Caret caret = editor.getCaret();
         int offset = caret.getDot();
-        try {
-            // get src path
-            String imgTag = DocUtils.getImgTag(document, offset);
-            if (imgTag == null || imgTag.isEmpty()) {
-                return;
-            }
-            Matcher matcher = IMAGE_TAG_PATTERN.matcher(imgTag);
-            String src = ""; // NOI18N
-            if (matcher.find()) {
-                src = matcher.group(SRC_GROUP);
-            }
-            if (src.isEmpty()) {
-                return;
-            }
-            Image image = DocUtils.getImage(src, document);
-            if (image == null) {
-                return;
-            }
-            String update = updateImgTag(imgTag, image.getWidth(null), image.getHeight(null));
-            OffsetRange imgRange = DocUtils.getImgRange(document, offset);
-            if (imgRange != OffsetRange.NONE) {
-                NbDocument.runAtomicAsUser(document, () -> {
-                    try {
-                        document.remove(imgRange.getStart(), imgTag.length());
-                        document.insertString(imgRange.getStart(), update, null);
-                    } catch (BadLocationException ex) {
-                        LOGGER.log(Level.WARNING, "Invalid offset: {0}", ex.offsetRequested()); // NOI18N
-                    }
-                });
+        // get src path
+        ImgTag imgTag = findImgTag(document, offset);
+        if (imgTag == null) {
+            return;
+        }
+        String src = imgTag.getSrc();
+        if (src == null || src.isEmpty()) {
+            return;
+        }
+        // don't read the image in the EDT
+        ImageIOScheduler.getDefault().post(ImageIOScheduler.Priority.USER, () -> {
+            ImageDimensions dimensions = DocUtils.getImageDimensions(src, document);
+            if (dimensions != null) {
+                update(document, offset, src, dimensions);
             }
+        });
+    }
+
+    private static void update(StyledDocument document, int offset, String src, ImageDimensions dimensions) {
+        try {
+            NbDocument.runAtomicAsUser(document, () -> {
+                // the document may be changed while the image is read
+                ImgTag current = ImgTag.find(document, offset);
+                if (current == null || !src.equals(current.getSrc())) {
+                    return;
+                }
+                try {
+                    updateImgTag(document, current, dimensions.getWidth(), dimensions.getHeight());
+                } catch (BadLocationException ex) {
+                    LOGGER.log(Level.WARNING, "Invalid offset: {0}", ex.offsetRequested()); // NOI18N
+                }
+            });
         } catch (BadLocationException ex) {
             LOGGER.log(Level.WARNING, "Invalid offset: {0}", ex.offsetRequested()); // NOI18N
         }
     }
 
-    static String updateImgTag(String target, int width, int height) {
-        if (!target.endsWith(" />")) { // NOI18N
-            target = target.replace("/>", " />"); // NOI18N
+    @CheckForNull
+    private static ImgTag findImgTag(Document document, int offset) {
+        ImgTag[] imgTag = new ImgTag[1];
+        document.render(() -> imgTag[0] = ImgTag.find(document, offset));
+        return imgTag[0];
+    }
+
+    /**
+     * Update width and height values of the img tag in place. Missing
+     * attributes are added before the close symbol. The caller must hold the
+     * write lock of the document.
+     *
+     * @param document Document
+     * @param imgTag img tag
+     * @param width width
+     * @param height height
+     * @return {@code true} if the document is changed, {@code false} if the
+     * tag already has the width and height
+     * @throws BadLocationException
+     */
+    public static boolean updateImgTag(Document document, ImgTag imgTag, int width, int height) throws BadLocationException {
+        OffsetRange widthRange = imgTag.getWidthRange();
+        OffsetRange heightRange = imgTag.getHeightRange();
+
+        // add missing attributes (the last position of the tag)
+        StringBuilder attributes = new StringBuilder();
+        if (widthRange == null) {
+            attributes.append(" width=\"").append(width).append('"'); // NOI18N
+        }
+        if (heightRange == null) {
+            attributes.append(" height=\"").append(height).append('"'); // NOI18N
+        }
+        if (attributes.length() > 0) {
+            int closeOffset = imgTag.getCloseOffset();
+            String previous = document.getText(closeOffset - 1, 1);
+            if (Character.isWhitespace(previous.charAt(0))) {
+                attributes.deleteCharAt(0).append(' ');
+            } else if (imgTag.isSelfClosing()) {
+                attributes.append(' ');
+            }
+            document.insertString(closeOffset, attributes.toString(), null);
         }
 
-        // width
-        if (target.contains("width=")) { // NOI18N
-            target = target.replaceAll("width=\"[0-9]*\"", "width=\"" + width + "\""); // NOI18N
+        // replace values from the end so that offsets are not shifted
+        boolean replaced;
+        if (widthRange != null && heightRange != null && widthRange.getStart() < heightRange.getStart()) {
+            replaced = replaceValue(document, heightRange, height);
+            replaced |= replaceValue(document, widthRange, width);
         } else {
-            target = target.replaceAll("/>", "width=\"" + width + "\" />"); // NOI18N
+            replaced = replaceValue(document, widthRange, width);
+            replaced |= replaceValue(document, heightRange, height);
         }
+        return attributes.length() > 0 || replaced;
+    }
 
-        // height
-        if (target.contains("height=")) { // NOI18N
-            target = target.replaceAll("height=\"[0-9]*\"", "height=\"" + height + "\""); // NOI18N
-        } else {
-            target = target.replaceAll("/>", "height=\"" + height + "\" />"); // NOI18N
+    private static boolean replaceValue(Document document, @NullAllowed OffsetRange range, int value) throws BadLocationException {
+        if (range == null) {
+            return false;
         }
+        String text = String.valueOf(value);
+        if (text.equals(document.getText(range.getStart(), range.getLength()))) {
+            return false;
+        }
+        document.remove(range.getStart(), range.getLength());
+        document.insertString(range.getStart(), text, null);
+        return true;
+    }
 
-        return target;
+    /**
+     * Update width and height values of the img tag text.
+     *
+     * @param target img tag
+     * @param width width
+     * @param height height
+     * @return the updated img tag
+     * @see ImgTagRewriter
+     */
+    public static String updateImgTag(String target, int width, int height) {
+        return ImgTagRewriter.rewrite(target, width, height);
     }
 }
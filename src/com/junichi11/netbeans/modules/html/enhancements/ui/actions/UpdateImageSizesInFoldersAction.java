@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.ui.actions;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+import org.openide.awt.ActionID;
+import org.openide.awt.ActionReference;
+import org.openide.awt.ActionRegistration;
+import org.openide.filesystems.FileObject;
+import org.openide.loaders.DataObject;
+import org.openide.util.NbBundle.Messages;
+
+@ActionID(
+        category = "XML",
+        id = "com.junichi11.netbeans.modules.html.enhancements.ui.actions.UpdateImageSizesInFoldersAction")
+@ActionRegistration(
+        displayName = "#CTL_UpdateImageSizesInFoldersAction")
+@ActionReference(path = "Loaders/folder/any/Actions", position = 1750)
+@Messages("CTL_UpdateImageSizesInFoldersAction=Update All Image Sizes")
+public final class UpdateImageSizesInFoldersAction implements ActionListener {
+
+    private final List<DataObject> context;
+
+    public UpdateImageSizesInFoldersAction(List<DataObject> context) {
+        this.context = context;
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent ev) {
+        List<FileObject> folders = new ArrayList<>();
+        for (DataObject dataObject : context) {
+            FileObject folder = dataObject.getPrimaryFile();
+            if (folder != null) {
+                folders.add(folder);
+            }
+        }
+        if (folders.isEmpty()) {
+            return;
+        }
+        ImageSizesUpdater.updateInBackground(folders);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.ui.actions;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+import org.netbeans.api.project.Project;
+import org.netbeans.api.project.ProjectUtils;
+import org.netbeans.api.project.SourceGroup;
+import org.netbeans.api.project.Sources;
+import org.openide.awt.ActionID;
+import org.openide.awt.ActionReference;
+import org.openide.awt.ActionRegistration;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.util.NbBundle.Messages;
+
+@ActionID(
+        category = "XML",
+        id = "com.junichi11.netbeans.modules.html.enhancements.ui.actions.UpdateImageSizesInProjectAction")
+@ActionRegistration(
+        displayName = "#CTL_UpdateImageSizesInProjectAction")
+@ActionReference(path = "Projects/Actions", position = 1750)
+@Messages("CTL_UpdateImageSizesInProjectAction=Update All Image Sizes")
+public final class UpdateImageSizesInProjectAction implements ActionListener {
+
+    private final Project context;
+
+    public UpdateImageSizesInProjectAction(Project context) {
+        this.context = context;
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent ev) {
+        List<FileObject> roots = new ArrayList<>();
+        Sources sources = ProjectUtils.getSources(context);
+        SourceGroup[] sourceGroups = sources.getSourceGroups(Sources.TYPE_GENERIC);
+        for (SourceGroup sourceGroup : sourceGroups) {
+            roots.add(sourceGroup.getRootFolder());
+        }
+        if (roots.isEmpty()) {
+            return;
+        }
+        // skip files which are excluded from the project (e.g. ignored folders)
+        ImageSizesUpdater.updateInBackground(roots, file -> isInSources(file, sourceGroups));
+    }
+
+    private static boolean isInSources(FileObject file, SourceGroup[] sourceGroups) {
+        for (SourceGroup sourceGroup : sourceGroups) {
+            FileObject root = sourceGroup.getRootFolder();
+            if (FileUtil.isParentOf(root, file)) {
+                return sourceGroup.contains(file);
+            }
+        }
+        return false;
+    }
+}
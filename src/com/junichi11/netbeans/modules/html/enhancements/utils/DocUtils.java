@@ -15,17 +15,28 @@
  */
 package com.junichi11.netbeans.modules.html.enhancements.utils;
 
-import java.awt.Image;
+import com.junichi11.netbeans.modules.html.enhancements.indexing.ImageIndex;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
+import javax.swing.text.Segment;
 import org.netbeans.api.annotations.common.CheckForNull;
-import org.netbeans.api.annotations.common.NonNull;
+import org.netbeans.api.html.lexer.HTMLTokenId;
+import org.netbeans.api.lexer.TokenHierarchy;
+import org.netbeans.api.lexer.TokenSequence;
 import org.netbeans.modules.csl.api.OffsetRange;
 import org.netbeans.modules.csl.spi.GsfUtilities;
 import org.openide.filesystems.FileObject;
@@ -41,7 +52,15 @@ public final class DocUtils {
     public static final String PHP_MIME_TYPE = "text/x-php5"; // NOI18N
 
     private static final String IMG_TAG_START = "<img "; // NOI18N
+    private static final int MAX_SCAN_WINDOW = Integer.getInteger("html.enhancements.img.scan.window", 64 * 1024); // NOI18N
+    private static final int MIN_SCAN_CHUNK_SIZE = 64;
+    private static final int MAX_SCAN_CHUNK_SIZE = 4096;
+    // the first region of an image file which is mapped to read the header
+    private static final int HEADER_REGION_SIZE = 64 * 1024;
+    private static final int HEADER_BUFFER_SIZE = 8 * 1024;
     private static final Logger LOGGER = Logger.getLogger(DocUtils.class.getName());
+    // concurrent lookups of the same file or URL share one load
+    private static final SingleFlight<Object, ImageDimensions> DIMENSIONS_IN_FLIGHT = new SingleFlight<>();
 
     private DocUtils() {
     }
@@ -55,36 +74,107 @@ public final class DocUtils {
      * @throws BadLocationException
      */
     public static OffsetRange getImgRange(Document doc, int offset) throws BadLocationException {
-        int start = offset;
-        int end = offset;
-        final int last = doc.getLength();
-
-        // start position
-        while (start - 1 > 0) {
-            if ((last - start >= IMG_TAG_START.length())
-                    && start != offset
-                    && doc.getText(start, IMG_TAG_START.length()).startsWith(IMG_TAG_START)) {
-                break;
-            }
-            String text = doc.getText(start - 1, 1);
-            if (text.equals(">")) { // NOI18N
-                return OffsetRange.NONE;
-            }
-            start--;
+        return getImgRange(doc, offset, MAX_SCAN_WINDOW);
+    }
+
+    /**
+     * Get img tag range. The document is scanned at most
+     * {@code maxScanWindow} characters backward and forward from the caret
+     * position.
+     *
+     * @param doc Document
+     * @param offset caret position
+     * @param maxScanWindow the maximum number of characters to scan in each
+     * direction
+     * @return range array if exists img tag, otherwise null
+     * @throws BadLocationException
+     */
+    public static OffsetRange getImgRange(Document doc, int offset, int maxScanWindow) throws BadLocationException {
+        if (offset < 0 || offset > doc.getLength()) {
+            throw new BadLocationException("Invalid offset", offset); // NOI18N
+        }
+        Segment segment = new Segment();
+        int start = findImgStart(doc, offset, maxScanWindow, segment);
+        if (start == -1) {
+            return OffsetRange.NONE;
         }
+        int end = findImgEnd(doc, offset, maxScanWindow, segment);
+        if (end == -1) {
+            return OffsetRange.NONE;
+        }
+        return new OffsetRange(start, end);
+    }
 
-        // end position
-        while (end <= last) {
-            if (doc.getText(offset, end - offset).endsWith(">")) { // NOI18N
-                break;
+    /**
+     * Find the start position of "&lt;img " before the caret position.
+     *
+     * @return the start position if it's found, otherwise -1
+     */
+    private static int findImgStart(Document doc, int offset, int maxScanWindow, Segment segment) throws BadLocationException {
+        // characters after the current position
+        char[] following = new char[IMG_TAG_START.length() - 1];
+        int followingLength = Math.min(following.length, doc.getLength() - offset);
+        doc.getText(offset, followingLength, segment);
+        System.arraycopy(segment.array, segment.offset, following, 0, followingLength);
+
+        int limit = Math.max(0, offset - maxScanWindow);
+        int chunkEnd = offset;
+        int chunkSize = MIN_SCAN_CHUNK_SIZE;
+        while (chunkEnd > limit) {
+            int chunkStart = Math.max(limit, chunkEnd - chunkSize);
+            doc.getText(chunkStart, chunkEnd - chunkStart, segment);
+            for (int i = segment.count - 1; i >= 0; i--) {
+                char c = segment.array[segment.offset + i];
+                if (c == '>') {
+                    return -1;
+                }
+                if (c == '<'
+                        && followingLength == following.length
+                        && isImgTagStart(following)) {
+                    return chunkStart + i;
+                }
+                System.arraycopy(following, 0, following, 1, following.length - 1);
+                following[0] = c;
+                if (followingLength < following.length) {
+                    followingLength++;
+                }
             }
-            if (end == last) {
-                return OffsetRange.NONE;
+            chunkEnd = chunkStart;
+            chunkSize = Math.min(chunkSize * 2, MAX_SCAN_CHUNK_SIZE);
+        }
+        return -1;
+    }
+
+    /**
+     * Find the end position of the tag (i.e. the position after "&gt;").
+     *
+     * @return the end position if it's found, otherwise -1
+     */
+    private static int findImgEnd(Document doc, int offset, int maxScanWindow, Segment segment) throws BadLocationException {
+        int limit = (int) Math.min(doc.getLength(), (long) offset + maxScanWindow);
+        segment.setPartialReturn(true);
+        int position = offset;
+        int chunkSize = MIN_SCAN_CHUNK_SIZE;
+        while (position < limit) {
+            doc.getText(position, Math.min(chunkSize, limit - position), segment);
+            for (int i = 0; i < segment.count; i++) {
+                if (segment.array[segment.offset + i] == '>') {
+                    return position + i + 1;
+                }
             }
-            end++;
+            position += segment.count;
+            chunkSize = Math.min(chunkSize * 2, MAX_SCAN_CHUNK_SIZE);
         }
+        return -1;
+    }
 
-        return new OffsetRange(start, end);
+    private static boolean isImgTagStart(char[] following) {
+        for (int i = 0; i < following.length; i++) {
+            if (Character.toLowerCase(following[i]) != IMG_TAG_START.charAt(i + 1)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -105,6 +195,30 @@ public final class DocUtils {
         return doc.getText(range.getStart(), range.getLength());
     }
 
+    /**
+     * Get HTML TokenSequence. If the top level language is not HTML (e.g.
+     * PHP), the embedded HTML sequence at the caret position is returned.
+     *
+     * @param doc Document
+     * @param caretOffset caret position
+     * @return TokenSequence if HTML tokens exist, otherwise null
+     */
+    @CheckForNull
+    @SuppressWarnings("unchecked")
+    public static TokenSequence<HTMLTokenId> getHtmlTokenSequence(Document doc, int caretOffset) {
+        TokenHierarchy<Document> hierarchy = TokenHierarchy.get(doc);
+        TokenSequence<HTMLTokenId> ts = hierarchy.tokenSequence(HTMLTokenId.language());
+        if (ts == null) {
+            TokenSequence<?> tokenSequence = hierarchy.tokenSequence();
+            if (tokenSequence != null) {
+                tokenSequence.move(caretOffset);
+                tokenSequence.moveNext();
+                ts = tokenSequence.embedded(HTMLTokenId.language());
+            }
+        }
+        return ts;
+    }
+
     /**
      * Get FileObject from Document
      *
@@ -117,63 +231,243 @@ public final class DocUtils {
     }
 
     /**
-     * Convert to path for FileObject
+     * Get image dimensions. Local files are probed, so only the header is
+     * read for known formats. Remote images are probed with
+     * {@link RemoteImageProbe} unless they are mapped to local folders by
+     * {@link ImagePathResolver}.
      *
-     * @param path
-     * @return relative path
+     * @param path src path
+     * @param doc Document
+     * @return ImageDimensions if the image is available, otherwise null
      */
-    private static String normalizePath(@NonNull String path) {
-        if (path.isEmpty()) {
-            return path;
+    @CheckForNull
+    public static ImageDimensions getImageDimensions(String path, Document doc) {
+        if (path == null || path.isEmpty()) {
+            return null;
         }
-        if (path.startsWith("./")) { // NOI18N
-            path = "." + path; // NOI18N
-        } else {
-            path = "../" + path; // NOI18N
+        if (isUrl(path)) {
+            // mapped to a local folder
+            FileObject mapped = getImageFileObject(path, doc);
+            if (mapped != null) {
+                return getImageDimensions(mapped);
+            }
+            URL url;
+            try {
+                url = new URL(path);
+            } catch (MalformedURLException ex) {
+                LOGGER.log(Level.FINE, null, ex);
+                return null;
+            }
+            // failed URLs are kept in the negative cache of RemoteImageProbe
+            return getInFlight(DIMENSIONS_IN_FLIGHT, path, () -> RemoteImageProbe.getDefault().probe(url));
+        }
+        FileObject target = getImageFileObject(path, doc);
+        if (target == null) {
+            return null;
         }
-        return path;
+        return getImageDimensions(target);
     }
 
     /**
-     * Get Image
+     * Get image dimensions. Results are kept in {@link ImageDimensionsCache}.
+     * {@link PersistentDimensionCache} and the project index are looked up
+     * before the file is read. Files which cannot be read are not read again
+     * until they are changed or the negative cache entry expires. Concurrent
+     * callers for the same file share one lookup.
      *
-     * @param path
-     * @param doc
-     * @return Image
+     * @param image image file
+     * @return ImageDimensions if the file can be read, otherwise null
      */
     @CheckForNull
-    public static Image getImage(String path, Document doc) {
-        if (path == null || path.isEmpty()) {
+    public static ImageDimensions getImageDimensions(FileObject image) {
+        Metrics metrics = Metrics.getDefault();
+        ImageDimensionsCache cache = ImageDimensionsCache.getDefault();
+        ImageDimensions dimensions = cache.get(image);
+        if (dimensions != null) {
+            metrics.recordCacheHit(Metrics.MEMORY_CACHE);
+            return dimensions;
+        }
+        metrics.recordCacheMiss(Metrics.MEMORY_CACHE);
+        if (cache.isUnreadable(image)) {
+            metrics.recordCacheHit(Metrics.NEGATIVE_CACHE);
             return null;
         }
+        return getInFlight(DIMENSIONS_IN_FLIGHT, image, () -> loadImageDimensions(image, cache, metrics));
+    }
 
-        // URL
-        if (path.startsWith("http://") || path.startsWith("https://")) { // NOI18N
-            try {
-                return ImageIO.read(new URL(path));
-            } catch (MalformedURLException ex) {
-                LOGGER.log(Level.WARNING, null, ex);
-            } catch (IOException ex) {
-                LOGGER.log(Level.WARNING, null, ex);
+    @CheckForNull
+    private static ImageDimensions loadImageDimensions(FileObject image, ImageDimensionsCache cache, Metrics metrics) {
+        PersistentDimensionCache persistentCache = PersistentDimensionCache.getDefault();
+        ImageDimensions dimensions = persistentCache == null ? null : persistentCache.get(image);
+        if (dimensions != null) {
+            metrics.recordCacheHit(Metrics.PERSISTENT_CACHE);
+            cache.put(image, dimensions);
+            return dimensions;
+        }
+        metrics.recordCacheMiss(Metrics.PERSISTENT_CACHE);
+        dimensions = ImageIndex.get(image);
+        if (dimensions == null) {
+            metrics.recordCacheMiss(Metrics.INDEX);
+            dimensions = probe(image);
+            if (dimensions != null && persistentCache != null) {
+                persistentCache.put(image, dimensions);
             }
-            return null;
+        } else {
+            metrics.recordCacheHit(Metrics.INDEX);
+        }
+        if (dimensions != null) {
+            cache.put(image, dimensions);
+        } else if (!Thread.currentThread().isInterrupted()) {
+            // not failed because of the interruption
+            cache.putUnreadable(image);
         }
+        return dimensions;
+    }
 
-        // relative path
-        path = normalizePath(path);
-        FileObject current = getFileObject(doc);
-        if (current == null) {
-            return null;
+    /**
+     * Probe image dimensions. Only the PNG IHDR, JPEG SOFn, GIF logical screen
+     * descriptor and BMP info header are read. Other formats are fully
+     * decoded. Local files are read through a mapped region of the file, other
+     * files (e.g. in archives) are read through {@link FileObject#getInputStream()}.
+     *
+     * @param image image file
+     * @return ImageDimensions if the file can be read, otherwise null
+     */
+    @CheckForNull
+    public static ImageDimensions probe(FileObject image) {
+        File file = FileUtil.toFile(image);
+        if (file != null) {
+            return probe(file);
         }
-        FileObject target = current.getFileObject(path);
-        if (target == null) {
-            return null;
+        Metrics metrics = Metrics.getDefault();
+        String format = Metrics.getFormat(image.getNameExt());
+        long start = System.nanoTime();
+        try {
+            ImageDimensions dimensions = parseHeader(image, metrics);
+            if (dimensions != null) {
+                metrics.recordProbe(format, false, start);
+                return dimensions;
+            }
+            // unknown format
+            start = System.nanoTime();
+            BufferedImage read = readImage(image);
+            metrics.recordDecode(format, false, start);
+            if (read != null) {
+                return new ImageDimensions(read.getWidth(), read.getHeight());
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, null, ex);
         }
+        return null;
+    }
+
+    /**
+     * Probe image dimensions of a local file. The file doesn't have to be in
+     * the IDE (e.g. for command line tools).
+     *
+     * @param file image file
+     * @return ImageDimensions if the file can be read, otherwise null
+     * @see #probe(FileObject)
+     */
+    @CheckForNull
+    public static ImageDimensions probe(File file) {
+        Metrics metrics = Metrics.getDefault();
+        String format = Metrics.getFormat(file.getName());
+        long start = System.nanoTime();
         try {
-            return ImageIO.read(FileUtil.toFile(target));
+            ImageDimensions dimensions = parseHeader(file, metrics);
+            if (dimensions != null) {
+                metrics.recordProbe(format, false, start);
+                return dimensions;
+            }
+            // unknown format
+            start = System.nanoTime();
+            BufferedImage read = ImageIO.read(file);
+            metrics.addBytesRead(file.length());
+            metrics.recordDecode(format, false, start);
+            if (read != null) {
+                return new ImageDimensions(read.getWidth(), read.getHeight());
+            }
         } catch (IOException ex) {
             LOGGER.log(Level.WARNING, null, ex);
         }
         return null;
     }
+
+    /**
+     * Parse the header of a local file. The header region is mapped, so the
+     * file is neither copied nor buffered. The region is extended if the
+     * header is larger than it (e.g. JPEG with large metadata).
+     */
+    @CheckForNull
+    private static ImageDimensions parseHeader(File file, Metrics metrics) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long regionSize = Math.min(size, HEADER_REGION_SIZE);
+            while (true) {
+                ByteBufferInputStream in = new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, regionSize));
+                try {
+                    return ImageHeaderParser.parse(in);
+                } catch (EOFException ex) {
+                    if (regionSize == size || regionSize == Integer.MAX_VALUE) {
+                        throw ex;
+                    }
+                    regionSize = Math.min(Math.min(size, Integer.MAX_VALUE), regionSize * 16);
+                } finally {
+                    metrics.addBytesRead(in.getPosition());
+                }
+            }
+        }
+    }
+
+    @CheckForNull
+    private static ImageDimensions parseHeader(FileObject image, Metrics metrics) throws IOException {
+        try (InputStream in = new BufferedInputStream(metrics.countBytes(image.getInputStream()), HEADER_BUFFER_SIZE)) {
+            return ImageHeaderParser.parse(in);
+        }
+    }
+
+    /**
+     * Load a value, or wait for the same load of another caller.
+     *
+     * @return the value, or {@code null} if the current thread is interrupted
+     */
+    @CheckForNull
+    private static <V> V getInFlight(SingleFlight<Object, V> inFlight, Object key, Supplier<V> loader) {
+        try {
+            return inFlight.get(key, loader);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @CheckForNull
+    private static BufferedImage readImage(FileObject image) throws IOException {
+        try (InputStream in = Metrics.getDefault().countBytes(image.getInputStream())) {
+            return ImageIO.read(in);
+        }
+    }
+
+    /**
+     * Get the image file of a src value. URLs are resolved only if they are
+     * mapped to local folders.
+     *
+     * @param path src path
+     * @param doc Document
+     * @return the image file if it exists, otherwise null
+     * @see ImagePathResolver
+     */
+    @CheckForNull
+    public static FileObject getImageFileObject(String path, Document doc) {
+        FileObject current = getFileObject(doc);
+        if (current == null) {
+            return null;
+        }
+        return ImagePathResolver.getDefault().resolve(current, path);
+    }
+
+    private static boolean isUrl(String path) {
+        return path.startsWith("http://") || path.startsWith("https://"); // NOI18N
+    }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+/**
+ * Width and height of an image.
+ *
+ * @author junichi11
+ */
+public final class ImageDimensions {
+
+    private final int width;
+    private final int height;
+
+    public ImageDimensions(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * width + height;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ImageDimensions)) {
+            return false;
+        }
+        ImageDimensions other = (ImageDimensions) obj;
+        return width == other.width && height == other.height;
+    }
+
+    @Override
+    public String toString() {
+        return "ImageDimensions{" + "width=" + width + ", height=" + height + '}'; // NOI18N
+    }
+}
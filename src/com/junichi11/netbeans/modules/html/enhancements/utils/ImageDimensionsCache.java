@@ -0,0 +1,286 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.netbeans.api.annotations.common.CheckForNull;
+import org.netbeans.api.annotations.common.NonNull;
+import org.netbeans.api.annotations.common.NullAllowed;
+import org.openide.filesystems.FileChangeAdapter;
+import org.openide.filesystems.FileChangeListener;
+import org.openide.filesystems.FileEvent;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileRenameEvent;
+
+/**
+ * Bounded LRU cache of image dimensions. Entries are validated against the
+ * last modified time and the size of the file, and are dropped when the file
+ * is changed, renamed or deleted. Files which cannot be read are kept in a
+ * {@link NegativeCache} until a file in the same folder is created, changed or
+ * renamed, or the entry expires.
+ *
+ * The bound can be changed with the
+ * {@code html.enhancements.image.cache.size} system property.
+ *
+ * @author junichi11
+ */
+public final class ImageDimensionsCache {
+
+    private static final int DEFAULT_MAX_ENTRIES = Integer.getInteger("html.enhancements.image.cache.size", 512); // NOI18N
+    // stop listening to folders without unreadable files when there are more folders
+    private static final int MAX_UNREADABLE_FOLDERS = 64;
+    private static final ImageDimensionsCache INSTANCE = new ImageDimensionsCache(DEFAULT_MAX_ENTRIES);
+
+    private final int maxEntries;
+    // @GuardedBy("this")
+    private final LinkedHashMap<FileObject, Entry> entries;
+    // @GuardedBy("this")
+    private final Map<FileObject, Integer> folderCounts = new HashMap<>();
+    private final FileChangeListener folderListener = new FolderListener();
+    private final NegativeCache<FileObject> unreadable = new NegativeCache<>();
+    // folders of unreadable files, they are not in the folders of cached entries
+    // @GuardedBy("this")
+    private final Set<FileObject> unreadableFolders = new HashSet<>();
+    private final FileChangeListener unreadableListener = new UnreadableFolderListener();
+
+    ImageDimensionsCache(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public static ImageDimensionsCache getDefault() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get cached dimensions.
+     *
+     * @param image image file
+     * @return dimensions if they are cached and the file is not modified,
+     * otherwise {@code null}
+     */
+    @CheckForNull
+    public ImageDimensions get(@NonNull FileObject image) {
+        long lastModified = image.lastModified().getTime();
+        long size = image.getSize();
+        synchronized (this) {
+            Entry entry = entries.get(image);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.lastModified != lastModified || entry.size != size) {
+                remove(image);
+                return null;
+            }
+            return entry.dimensions;
+        }
+    }
+
+    /**
+     * Cache dimensions of an image file.
+     *
+     * @param image image file
+     * @param dimensions dimensions of the image
+     */
+    public void put(@NonNull FileObject image, @NonNull ImageDimensions dimensions) {
+        Entry entry = new Entry(image.lastModified().getTime(), image.getSize(), dimensions);
+        synchronized (this) {
+            if (entries.put(image, entry) == null) {
+                addFolder(image.getParent());
+            }
+            Iterator<FileObject> iterator = entries.keySet().iterator();
+            while (entries.size() > maxEntries && iterator.hasNext()) {
+                FileObject eldest = iterator.next();
+                iterator.remove();
+                removeFolder(eldest.getParent());
+            }
+        }
+    }
+
+    /**
+     * Check whether the image file failed to be read recently.
+     *
+     * @param image image file
+     * @return {@code true} if the file is unreadable, otherwise {@code false}
+     */
+    public boolean isUnreadable(@NonNull FileObject image) {
+        return unreadable.contains(image);
+    }
+
+    /**
+     * Remember that the image file cannot be read.
+     *
+     * @param image image file
+     */
+    public void putUnreadable(@NonNull FileObject image) {
+        FileObject folder = image.getParent();
+        unreadable.add(image, folder);
+        if (folder == null) {
+            return;
+        }
+        synchronized (this) {
+            if (!unreadableFolders.add(folder)) {
+                return;
+            }
+            folder.addFileChangeListener(unreadableListener);
+            if (unreadableFolders.size() > MAX_UNREADABLE_FOLDERS) {
+                // entries expire without events
+                for (Iterator<FileObject> iterator = unreadableFolders.iterator(); iterator.hasNext();) {
+                    FileObject unreadableFolder = iterator.next();
+                    if (!unreadable.containsFolder(unreadableFolder)) {
+                        iterator.remove();
+                        unreadableFolder.removeFileChangeListener(unreadableListener);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the cached dimensions of an image file.
+     *
+     * @param image image file
+     */
+    public void invalidate(@NonNull FileObject image) {
+        synchronized (this) {
+            remove(image);
+        }
+        unreadable.remove(image);
+    }
+
+    public synchronized void clear() {
+        unreadable.clear();
+        for (FileObject folder : unreadableFolders) {
+            folder.removeFileChangeListener(unreadableListener);
+        }
+        unreadableFolders.clear();
+        entries.clear();
+        for (FileObject folder : folderCounts.keySet()) {
+            folder.removeFileChangeListener(folderListener);
+        }
+        folderCounts.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized int getUnreadableFolderCount() {
+        return unreadableFolders.size();
+    }
+
+    private void unreadableFolderChanged(FileObject folder) {
+        // a file in the folder may be readable now
+        unreadable.removeFolder(folder);
+        synchronized (this) {
+            if (unreadableFolders.remove(folder)) {
+                folder.removeFileChangeListener(unreadableListener);
+            }
+        }
+    }
+
+    // @GuardedBy("this")
+    private void remove(FileObject image) {
+        if (entries.remove(image) != null) {
+            removeFolder(image.getParent());
+        }
+    }
+
+    // @GuardedBy("this")
+    private void addFolder(@NullAllowed FileObject folder) {
+        if (folder == null) {
+            return;
+        }
+        Integer count = folderCounts.get(folder);
+        if (count == null) {
+            folder.addFileChangeListener(folderListener);
+            count = 0;
+        }
+        folderCounts.put(folder, count + 1);
+    }
+
+    // @GuardedBy("this")
+    private void removeFolder(@NullAllowed FileObject folder) {
+        if (folder == null) {
+            return;
+        }
+        Integer count = folderCounts.get(folder);
+        if (count == null) {
+            return;
+        }
+        if (count <= 1) {
+            folderCounts.remove(folder);
+            folder.removeFileChangeListener(folderListener);
+        } else {
+            folderCounts.put(folder, count - 1);
+        }
+    }
+
+    //~ Inner classes
+    private static final class Entry {
+
+        private final long lastModified;
+        private final long size;
+        private final ImageDimensions dimensions;
+
+        Entry(long lastModified, long size, ImageDimensions dimensions) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.dimensions = dimensions;
+        }
+    }
+
+    private final class FolderListener extends FileChangeAdapter {
+
+        @Override
+        public void fileChanged(FileEvent fe) {
+            invalidate(fe.getFile());
+        }
+
+        @Override
+        public void fileDeleted(FileEvent fe) {
+            invalidate(fe.getFile());
+        }
+
+        @Override
+        public void fileRenamed(FileRenameEvent fe) {
+            invalidate(fe.getFile());
+        }
+    }
+
+    private final class UnreadableFolderListener extends FileChangeAdapter {
+
+        @Override
+        public void fileDataCreated(FileEvent fe) {
+            unreadableFolderChanged(fe.getFile().getParent());
+        }
+
+        @Override
+        public void fileChanged(FileEvent fe) {
+            unreadableFolderChanged(fe.getFile().getParent());
+        }
+
+        @Override
+        public void fileRenamed(FileRenameEvent fe) {
+            unreadableFolderChanged(fe.getFile().getParent());
+        }
+    }
+}
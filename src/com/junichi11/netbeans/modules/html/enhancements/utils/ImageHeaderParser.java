@@ -0,0 +1,203 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import org.netbeans.api.annotations.common.CheckForNull;
+
+/**
+ * Read image dimensions from the header of PNG, JPEG, GIF and BMP files
+ * without decoding the pixel data.
+ *
+ * @author junichi11
+ */
+final class ImageHeaderParser {
+
+    private static final byte[] PNG_SIGNATURE = {
+        (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' // NOI18N
+    };
+    private static final int PNG_IHDR = 0x49484452; // IHDR
+    private static final int JPEG_SOI = 0xFFD8;
+    private static final int JPEG_SOS = 0xDA;
+    private static final int JPEG_EOI = 0xD9;
+    private static final int BMP_CORE_HEADER_SIZE = 12;
+
+    private ImageHeaderParser() {
+    }
+
+    /**
+     * Parse dimensions from the start of an image stream. Only the header is
+     * read. The stream is not closed.
+     *
+     * @param in the image stream, positioned at the first byte
+     * @return dimensions if the format is known, otherwise {@code null}
+     * @throws IOException if the stream can't be read or the header is
+     * truncated
+     */
+    @CheckForNull
+    static ImageDimensions parse(InputStream in) throws IOException {
+        int b0 = in.read();
+        int b1 = in.read();
+        if (b0 == -1 || b1 == -1) {
+            return null;
+        }
+        if (b0 == (PNG_SIGNATURE[0] & 0xFF) && b1 == PNG_SIGNATURE[1]) {
+            return parsePng(in);
+        }
+        if (((b0 << 8) | b1) == JPEG_SOI) {
+            return parseJpeg(in);
+        }
+        if (b0 == 'G' && b1 == 'I') { // NOI18N
+            return parseGif(in);
+        }
+        if (b0 == 'B' && b1 == 'M') { // NOI18N
+            return parseBmp(in);
+        }
+        return null;
+    }
+
+    private static ImageDimensions parsePng(InputStream in) throws IOException {
+        // rest of the signature
+        for (int i = 2; i < PNG_SIGNATURE.length; i++) {
+            if (readByte(in) != (PNG_SIGNATURE[i] & 0xFF)) {
+                return null;
+            }
+        }
+        // the first chunk must be IHDR
+        readInt(in); // length
+        if (readInt(in) != PNG_IHDR) {
+            return null;
+        }
+        return create(readInt(in), readInt(in));
+    }
+
+    private static ImageDimensions parseGif(InputStream in) throws IOException {
+        // GIF87a or GIF89a
+        if (readByte(in) != 'F' || readByte(in) != '8') { // NOI18N
+            return null;
+        }
+        int version = readByte(in);
+        if ((version != '7' && version != '9') || readByte(in) != 'a') { // NOI18N
+            return null;
+        }
+        // logical screen descriptor
+        int width = readShortLittleEndian(in);
+        int height = readShortLittleEndian(in);
+        return create(width, height);
+    }
+
+    private static ImageDimensions parseBmp(InputStream in) throws IOException {
+        // file header: size(4) reserved(4) offset(4)
+        skip(in, 12);
+        int headerSize = readIntLittleEndian(in);
+        if (headerSize == BMP_CORE_HEADER_SIZE) {
+            return create(readShortLittleEndian(in), readShortLittleEndian(in));
+        }
+        int width = readIntLittleEndian(in);
+        // negative height means a top-down bitmap
+        int height = Math.abs(readIntLittleEndian(in));
+        return create(width, height);
+    }
+
+    private static ImageDimensions parseJpeg(InputStream in) throws IOException {
+        while (true) {
+            int marker = readByte(in);
+            if (marker != 0xFF) {
+                // not a marker, broken stream
+                return null;
+            }
+            // skip fill bytes
+            while (marker == 0xFF) {
+                marker = readByte(in);
+            }
+            if (marker == JPEG_SOS || marker == JPEG_EOI) {
+                // no SOF before image data
+                return null;
+            }
+            if ((marker >= 0xD0 && marker <= 0xD7) || marker == 0x01) {
+                // standalone markers (RSTn, TEM)
+                continue;
+            }
+            int length = readShort(in);
+            if (length < 2) {
+                return null;
+            }
+            if (isSof(marker)) {
+                readByte(in); // precision
+                int height = readShort(in);
+                int width = readShort(in);
+                return create(width, height);
+            }
+            skip(in, length - 2);
+        }
+    }
+
+    /**
+     * SOF0-SOF15 except DHT(C4), JPG(C8) and DAC(CC).
+     */
+    private static boolean isSof(int marker) {
+        return marker >= 0xC0
+                && marker <= 0xCF
+                && marker != 0xC4
+                && marker != 0xC8
+                && marker != 0xCC;
+    }
+
+    @CheckForNull
+    private static ImageDimensions create(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        return new ImageDimensions(width, height);
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private static int readShort(InputStream in) throws IOException {
+        return (readByte(in) << 8) | readByte(in);
+    }
+
+    private static int readShortLittleEndian(InputStream in) throws IOException {
+        return readByte(in) | (readByte(in) << 8);
+    }
+
+    private static int readInt(InputStream in) throws IOException {
+        return (readShort(in) << 16) | readShort(in);
+    }
+
+    private static int readIntLittleEndian(InputStream in) throws IOException {
+        return readShortLittleEndian(in) | (readShortLittleEndian(in) << 16);
+    }
+
+    private static void skip(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                readByte(in);
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+}
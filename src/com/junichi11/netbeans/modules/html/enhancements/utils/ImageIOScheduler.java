@@ -0,0 +1,231 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import org.netbeans.api.annotations.common.NonNull;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Scheduler of image I/O. Images of the module are read on one
+ * RequestProcessor whose parallelism is limited. Queued tasks are run in the
+ * order of the priority. One thread is kept for
+ * {@link Priority#INTERACTIVE} tasks, so bulk reads never make the completion
+ * popup wait for a free thread. Hence at least two threads are used even if
+ * a smaller number is set to the {@code html.enhancements.io.parallelism}
+ * system property.
+ *
+ * @author junichi11
+ */
+public final class ImageIOScheduler {
+
+    private static final int PARALLELISM = Math.max(2, Integer.getInteger("html.enhancements.io.parallelism", // NOI18N
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()))));
+    private static volatile ImageIOScheduler instance;
+
+    private final RequestProcessor rp;
+    private final Metrics metrics;
+    private final int parallelism;
+    // the number of threads for USER and BACKGROUND tasks
+    private final int bulkParallelism;
+    // @GuardedBy("this")
+    private final PriorityQueue<Job<?>> queue = new PriorityQueue<>();
+    // @GuardedBy("this")
+    private final int[] queued = new int[Priority.values().length];
+    // @GuardedBy("this")
+    private int running;
+    // @GuardedBy("this")
+    private int runningBulk;
+    // @GuardedBy("this")
+    private long sequence;
+
+    ImageIOScheduler(String name, int parallelism, Metrics metrics) {
+        // one thread for interactive tasks and at least one for the others
+        this.parallelism = Math.max(2, parallelism);
+        this.bulkParallelism = this.parallelism - 1;
+        this.rp = new RequestProcessor(name, this.parallelism, true);
+        this.metrics = metrics;
+        for (Priority priority : Priority.values()) {
+            metrics.registerGauge("io." + priority.getName() + ".queued", () -> getQueueLength(priority)); // NOI18N
+        }
+        metrics.registerGauge("io.running", this::getRunning); // NOI18N
+    }
+
+    public static ImageIOScheduler getDefault() {
+        ImageIOScheduler scheduler = instance;
+        if (scheduler == null) {
+            synchronized (ImageIOScheduler.class) {
+                scheduler = instance;
+                if (scheduler == null) {
+                    scheduler = new ImageIOScheduler(ImageIOScheduler.class.getName(), PARALLELISM, Metrics.getDefault());
+                    instance = scheduler;
+                }
+            }
+        }
+        return scheduler;
+    }
+
+    /**
+     * Submit a task. Cancelling the returned future interrupts the running
+     * task, or removes it from the queue.
+     *
+     * @param <T> result type
+     * @param priority the priority
+     * @param task task which reads images
+     * @return the future of the result
+     */
+    public <T> Future<T> submit(@NonNull Priority priority, @NonNull Callable<T> task) {
+        return enqueue(new Job<>(task, priority));
+    }
+
+    /**
+     * Post a task.
+     *
+     * @param priority the priority
+     * @param task task which reads images
+     * @return the future of the task
+     * @see #submit(Priority, Callable)
+     */
+    public Future<?> post(@NonNull Priority priority, @NonNull Runnable task) {
+        return enqueue(new Job<>(() -> {
+            task.run();
+            return null;
+        }, priority));
+    }
+
+    private <T> Job<T> enqueue(Job<T> job) {
+        synchronized (this) {
+            job.sequence = sequence++;
+            queue.add(job);
+            queued[job.priority.ordinal()]++;
+        }
+        dispatch();
+        return job;
+    }
+
+    private void dispatch() {
+        List<Job<?>> ready = new ArrayList<>();
+        synchronized (this) {
+            while (running < parallelism) {
+                Job<?> job = queue.peek();
+                if (job == null) {
+                    break;
+                }
+                // the queue is ordered by the priority, so no interactive task is left
+                if (job.isBulk() && runningBulk >= bulkParallelism) {
+                    break;
+                }
+                queue.poll();
+                queued[job.priority.ordinal()]--;
+                running++;
+                if (job.isBulk()) {
+                    runningBulk++;
+                }
+                ready.add(job);
+            }
+        }
+        for (Job<?> job : ready) {
+            rp.post(() -> run(job));
+        }
+    }
+
+    private void run(Job<?> job) {
+        try {
+            metrics.recordQueueWait(job.priority.getName(), job.enqueued);
+            job.run();
+        } finally {
+            synchronized (this) {
+                running--;
+                if (job.isBulk()) {
+                    runningBulk--;
+                }
+            }
+            dispatch();
+        }
+    }
+
+    private synchronized void cancelled(Job<?> job) {
+        if (queue.remove(job)) {
+            queued[job.priority.ordinal()]--;
+        }
+    }
+
+    synchronized int getQueueLength(Priority priority) {
+        return queued[priority.ordinal()];
+    }
+
+    synchronized int getRunning() {
+        return running;
+    }
+
+    //~ Inner classes
+    public enum Priority {
+        /**
+         * The user is waiting for the result in the editor (e.g. completion).
+         */
+        INTERACTIVE,
+        /**
+         * Invoked by the user explicitly (e.g. actions).
+         */
+        USER,
+        /**
+         * Prefetching, hints.
+         */
+        BACKGROUND;
+
+        String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final class Job<T> extends FutureTask<T> implements Comparable<Job<?>> {
+
+        private final Priority priority;
+        private final long enqueued = System.nanoTime();
+        private long sequence;
+
+        Job(Callable<T> callable, Priority priority) {
+            super(callable);
+            this.priority = priority;
+        }
+
+        boolean isBulk() {
+            return priority != Priority.INTERACTIVE;
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                cancelled(this);
+            }
+        }
+
+        @Override
+        public int compareTo(Job<?> other) {
+            int result = priority.compareTo(other.priority);
+            if (result != 0) {
+                return result;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.prefs.Preferences;
+import org.netbeans.api.annotations.common.CheckForNull;
+import org.netbeans.api.annotations.common.NonNull;
+import org.netbeans.api.project.FileOwnerQuery;
+import org.netbeans.api.project.Project;
+import org.netbeans.api.project.ProjectUtils;
+import org.openide.filesystems.FileChangeAdapter;
+import org.openide.filesystems.FileChangeListener;
+import org.openide.filesystems.FileEvent;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileRenameEvent;
+import org.openide.filesystems.FileUtil;
+
+/**
+ * Resolve src values to image files. Results are cached per directory and src
+ * value. Deleted files are dropped when they are looked up, and entries of a
+ * renamed file or files under a renamed folder are removed.
+ * Unresolved src values are kept in a {@link NegativeCache} until a file is
+ * created in the deepest existing folder of the path or the entry expires.
+ * <ul>
+ * <li>relative paths are resolved from the directory of the document</li>
+ * <li>root-relative paths (e.g. "/assets/img.png") are resolved from the web
+ * root of the project</li>
+ * <li>URLs are resolved with URL prefix mappings of the project (e.g.
+ * "https://cdn.example.com/assets/" to "public/assets")</li>
+ * </ul>
+ * The web root and mappings are read from the project preferences
+ * ({@value #WEB_ROOT} and {@value #URL_MAPPINGS}). Paths are relative to the
+ * project directory. Mappings are separated with ";" and a prefix and a
+ * folder are separated with "=" (e.g.
+ * "https://cdn.example.com/assets/=public/assets").
+ *
+ * @author junichi11
+ */
+public final class ImagePathResolver {
+
+    public static final String WEB_ROOT = "webRoot"; // NOI18N
+    public static final String URL_MAPPINGS = "urlMappings"; // NOI18N
+    private static final String[] DEFAULT_WEB_ROOTS = {"public_html", "public", "htdocs", "www", "web", "src/main/webapp"}; // NOI18N
+    private static final int MAX_ENTRIES = Integer.getInteger("html.enhancements.path.cache.size", 1024); // NOI18N
+    private static volatile ImagePathResolver instance;
+
+    private final int maxEntries;
+    // @GuardedBy("this")
+    private final Map<Key, FileObject> entries;
+    private final NegativeCache<Key> unresolved = new NegativeCache<>();
+    // @GuardedBy("this")
+    private final Map<Project, ProjectSettings> settings = new WeakHashMap<>();
+    private final FileChangeListener fileChangeListener = new FileChangeAdapter() {
+        @Override
+        public void fileFolderCreated(FileEvent fe) {
+            unresolved.removeFolder(fe.getFile().getParent());
+        }
+
+        @Override
+        public void fileDataCreated(FileEvent fe) {
+            unresolved.removeFolder(fe.getFile().getParent());
+        }
+
+        @Override
+        public void fileRenamed(FileRenameEvent fe) {
+            FileObject renamed = fe.getFile();
+            removeEntries(renamed);
+            // it may have been renamed to an expected name
+            unresolved.removeFolder(renamed.getParent());
+        }
+    };
+
+    ImagePathResolver(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public static ImagePathResolver getDefault() {
+        ImagePathResolver resolver = instance;
+        if (resolver == null) {
+            synchronized (ImagePathResolver.class) {
+                resolver = instance;
+                if (resolver == null) {
+                    resolver = new ImagePathResolver(MAX_ENTRIES);
+                    resolver.startListening();
+                    instance = resolver;
+                }
+            }
+        }
+        return resolver;
+    }
+
+    /**
+     * Listen to all file changes to invalidate entries.
+     */
+    void startListening() {
+        FileUtil.addFileChangeListener(fileChangeListener);
+    }
+
+    void stopListening() {
+        FileUtil.removeFileChangeListener(fileChangeListener);
+    }
+
+    /**
+     * Resolve a src value.
+     *
+     * @param document the file which contains the src value
+     * @param src src value (a path or a URL)
+     * @return the image file if it exists, otherwise {@code null}
+     */
+    @CheckForNull
+    public FileObject resolve(@NonNull FileObject document, @NonNull String src) {
+        FileObject directory = document.isFolder() ? document : document.getParent();
+        if (directory == null || src.isEmpty()) {
+            return null;
+        }
+        Key key = new Key(directory, src);
+        if (unresolved.contains(key)) {
+            return null;
+        }
+        synchronized (this) {
+            FileObject image = entries.get(key);
+            if (image != null) {
+                if (image.isValid()) {
+                    return image;
+                }
+                entries.remove(key);
+            }
+        }
+        Location location = getLocation(directory, src, document);
+        FileObject image = location == null ? null : getData(location.folder, location.path);
+        if (image == null) {
+            // only a file created in the expected folder can resolve it
+            unresolved.add(key, location == null ? null : location.getExistingFolder());
+            return null;
+        }
+        synchronized (this) {
+            entries.put(key, image);
+            Iterator<Key> iterator = entries.keySet().iterator();
+            while (entries.size() > maxEntries && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        return image;
+    }
+
+    public void clear() {
+        synchronized (this) {
+            entries.clear();
+        }
+        unresolved.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Remove entries resolved to the file or files under the folder.
+     *
+     * @param file the file or the folder
+     */
+    private synchronized void removeEntries(FileObject file) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        boolean folder = file.isFolder();
+        for (Iterator<FileObject> iterator = entries.values().iterator(); iterator.hasNext();) {
+            FileObject image = iterator.next();
+            if (image.equals(file) || (folder && FileUtil.isParentOf(file, image))) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @CheckForNull
+    private Location getLocation(FileObject directory, String src, FileObject document) {
+        String path = stripQuery(src);
+        if (isUrl(path)) {
+            ProjectSettings projectSettings = getSettings(document);
+            return projectSettings == null ? null : projectSettings.getUrlLocation(path);
+        }
+        if (path.startsWith("/")) { // NOI18N
+            ProjectSettings projectSettings = getSettings(document);
+            if (projectSettings == null || projectSettings.webRoot == null) {
+                return null;
+            }
+            return new Location(projectSettings.webRoot, path.substring(1));
+        }
+        if (path.startsWith("./")) { // NOI18N
+            path = path.substring(2);
+        }
+        return new Location(directory, path);
+    }
+
+    @CheckForNull
+    private synchronized ProjectSettings getSettings(FileObject document) {
+        Project project = FileOwnerQuery.getOwner(document);
+        if (project == null) {
+            return null;
+        }
+        ProjectSettings projectSettings = settings.get(project);
+        if (projectSettings == null) {
+            Preferences preferences = ProjectUtils.getPreferences(project, ImagePathResolver.class, true);
+            projectSettings = ProjectSettings.create(project.getProjectDirectory(), preferences);
+            settings.put(project, projectSettings);
+            preferences.addPreferenceChangeListener(evt -> {
+                synchronized (ImagePathResolver.this) {
+                    settings.put(project, ProjectSettings.create(project.getProjectDirectory(), preferences));
+                    entries.clear();
+                }
+                unresolved.clear();
+            });
+        }
+        return projectSettings;
+    }
+
+    @CheckForNull
+    private static FileObject getData(FileObject folder, String path) {
+        if (path.isEmpty()) {
+            return null;
+        }
+        FileObject file = folder.getFileObject(path);
+        return file != null && file.isData() ? file : null;
+    }
+
+    private static String stripQuery(String src) {
+        int index = src.length();
+        int query = src.indexOf('?');
+        if (query != -1) {
+            index = query;
+        }
+        int fragment = src.indexOf('#');
+        if (fragment != -1 && fragment < index) {
+            index = fragment;
+        }
+        return src.substring(0, index);
+    }
+
+    private static boolean isUrl(String path) {
+        return path.startsWith("http://") || path.startsWith("https://") || path.startsWith("//"); // NOI18N
+    }
+
+    //~ Inner classes
+    private static final class Key {
+
+        private final FileObject directory;
+        private final String src;
+
+        Key(FileObject directory, String src) {
+            this.directory = directory;
+            this.src = src;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * directory.hashCode() + src.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Objects.equals(directory, other.directory) && src.equals(other.src);
+        }
+    }
+
+    /**
+     * A path relative to a folder.
+     */
+    private static final class Location {
+
+        private final FileObject folder;
+        private final String path;
+
+        Location(FileObject folder, String path) {
+            this.folder = folder;
+            this.path = path;
+        }
+
+        /**
+         * Get the deepest existing folder of the parent folders of the path.
+         *
+         * @return the deepest existing folder
+         */
+        FileObject getExistingFolder() {
+            FileObject existing = folder;
+            String[] segments = path.split("/"); // NOI18N
+            for (int i = 0; i < segments.length - 1; i++) {
+                String segment = segments[i];
+                if (segment.isEmpty() || ".".equals(segment)) { // NOI18N
+                    continue;
+                }
+                FileObject next = "..".equals(segment) ? existing.getParent() : existing.getFileObject(segment); // NOI18N
+                if (next == null || !next.isFolder()) {
+                    break;
+                }
+                existing = next;
+            }
+            return existing;
+        }
+    }
+
+    private static final class ProjectSettings {
+
+        private final FileObject webRoot;
+        // longest prefix first
+        private final List<String> prefixes;
+        private final List<FileObject> folders;
+
+        private ProjectSettings(FileObject webRoot, List<String> prefixes, List<FileObject> folders) {
+            this.webRoot = webRoot;
+            this.prefixes = prefixes;
+            this.folders = folders;
+        }
+
+        static ProjectSettings create(FileObject projectDirectory, Preferences preferences) {
+            FileObject webRoot = null;
+            String webRootPath = preferences.get(WEB_ROOT, null);
+            if (webRootPath != null) {
+                webRoot = projectDirectory.getFileObject(webRootPath);
+            } else {
+                for (String defaultWebRoot : DEFAULT_WEB_ROOTS) {
+                    webRoot = projectDirectory.getFileObject(defaultWebRoot);
+                    if (webRoot != null && webRoot.isFolder()) {
+                        break;
+                    }
+                    webRoot = null;
+                }
+                if (webRoot == null) {
+                    webRoot = projectDirectory;
+                }
+            }
+            if (webRoot != null && !webRoot.isFolder()) {
+                webRoot = null;
+            }
+
+            List<String> prefixes = new ArrayList<>();
+            List<FileObject> folders = new ArrayList<>();
+            for (String mapping : preferences.get(URL_MAPPINGS, "").split(";")) { // NOI18N
+                int index = mapping.lastIndexOf('=');
+                if (index <= 0) {
+                    continue;
+                }
+                String prefix = normalizeUrl(mapping.substring(0, index).trim());
+                FileObject folder = projectDirectory.getFileObject(mapping.substring(index + 1).trim());
+                if (prefix.isEmpty() || folder == null || !folder.isFolder()) {
+                    continue;
+                }
+                if (!prefix.endsWith("/")) { // NOI18N
+                    prefix += "/"; // NOI18N
+                }
+                int i = 0;
+                while (i < prefixes.size() && prefixes.get(i).length() >= prefix.length()) {
+                    i++;
+                }
+                prefixes.add(i, prefix);
+                folders.add(i, folder);
+            }
+            return new ProjectSettings(webRoot, prefixes, folders);
+        }
+
+        @CheckForNull
+        Location getUrlLocation(String url) {
+            String normalized = normalizeUrl(url);
+            for (int i = 0; i < prefixes.size(); i++) {
+                String prefix = prefixes.get(i);
+                if (normalized.startsWith(prefix)) {
+                    return new Location(folders.get(i), normalized.substring(prefix.length()));
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Remove the scheme so that http, https and protocol-relative URLs
+         * are mapped in the same way.
+         */
+        private static String normalizeUrl(String url) {
+            int index = url.indexOf("//"); // NOI18N
+            return index == -1 ? url : url.substring(index + 2);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.text.Document;
+import org.netbeans.api.annotations.common.CheckForNull;
+import org.netbeans.api.html.lexer.HTMLTokenId;
+import org.netbeans.api.lexer.Token;
+import org.netbeans.api.lexer.TokenHierarchy;
+import org.netbeans.api.lexer.TokenSequence;
+import org.netbeans.api.lexer.TokenUtilities;
+import org.netbeans.modules.csl.api.OffsetRange;
+
+/**
+ * img tag located with the HTML lexer. Value ranges don't contain quotes.
+ *
+ * @author junichi11
+ */
+public final class ImgTag {
+
+    private static final String IMG = "img"; // NOI18N
+    private static final String SRC = "src"; // NOI18N
+    private static final String WIDTH = "width"; // NOI18N
+    private static final String HEIGHT = "height"; // NOI18N
+
+    private final OffsetRange range;
+    private final String src;
+    private final OffsetRange widthRange;
+    private final OffsetRange heightRange;
+    private final int closeOffset;
+    private final boolean selfClosing;
+
+    private ImgTag(OffsetRange range, String src, OffsetRange widthRange, OffsetRange heightRange, int closeOffset, boolean selfClosing) {
+        this.range = range;
+        this.src = src;
+        this.widthRange = widthRange;
+        this.heightRange = heightRange;
+        this.closeOffset = closeOffset;
+        this.selfClosing = selfClosing;
+    }
+
+    /**
+     * Find the img tag which contains the caret position. The caller must hold
+     * the read lock of the document.
+     *
+     * @param doc Document
+     * @param offset caret position
+     * @return ImgTag if the caret position is inside an img tag, otherwise
+     * {@code null}
+     */
+    @CheckForNull
+    public static ImgTag find(Document doc, int offset) {
+        TokenSequence<HTMLTokenId> ts = DocUtils.getHtmlTokenSequence(doc, offset);
+        if (ts == null) {
+            return null;
+        }
+        return find(ts, offset);
+    }
+
+    /**
+     * Find the img tag which contains the caret position.
+     *
+     * @param ts HTML token sequence
+     * @param offset caret position
+     * @return ImgTag if the caret position is inside an img tag, otherwise
+     * {@code null}
+     */
+    @CheckForNull
+    public static ImgTag find(TokenSequence<HTMLTokenId> ts, int offset) {
+        ts.move(offset);
+        if (!ts.moveNext() && !ts.movePrevious()) {
+            return null;
+        }
+
+        // find "<"
+        boolean first = true;
+        while (true) {
+            Token<HTMLTokenId> token = ts.token();
+            HTMLTokenId id = token.id();
+            if (id == HTMLTokenId.TAG_OPEN_SYMBOL) {
+                break;
+            }
+            if (!first && id == HTMLTokenId.TAG_CLOSE_SYMBOL) {
+                return null;
+            }
+            first = false;
+            if (!ts.movePrevious()) {
+                return null;
+            }
+        }
+        int start = ts.offset();
+        if (start >= offset) {
+            return null;
+        }
+        ImgTag imgTag = parse(ts);
+        if (imgTag == null || offset >= imgTag.getRange().getEnd()) {
+            return null;
+        }
+        return imgTag;
+    }
+
+    /**
+     * Find all img tags. The caller must hold the read lock of the document.
+     *
+     * @param doc Document
+     * @return img tags in document order
+     */
+    public static List<ImgTag> findAll(Document doc) {
+        return findAll(doc, 0, doc.getLength());
+    }
+
+    /**
+     * Find img tags which intersect a region. The caller must hold the read
+     * lock of the document.
+     *
+     * @param doc Document
+     * @param startOffset start offset of the region
+     * @param endOffset end offset of the region
+     * @return img tags in document order
+     */
+    public static List<ImgTag> findAll(Document doc, int startOffset, int endOffset) {
+        List<ImgTag> imgTags = new ArrayList<>();
+        TokenHierarchy<Document> hierarchy = TokenHierarchy.get(doc);
+        TokenSequence<HTMLTokenId> ts = hierarchy.tokenSequence(HTMLTokenId.language());
+        if (ts != null) {
+            findAll(ts, startOffset, endOffset, imgTags);
+            return imgTags;
+        }
+        // e.g. PHP
+        TokenSequence<?> tokenSequence = hierarchy.tokenSequence();
+        if (tokenSequence == null) {
+            return imgTags;
+        }
+        tokenSequence.move(startOffset);
+        while (tokenSequence.moveNext() && tokenSequence.offset() <= endOffset) {
+            TokenSequence<HTMLTokenId> embedded = tokenSequence.embedded(HTMLTokenId.language());
+            if (embedded != null) {
+                findAll(embedded, startOffset, endOffset, imgTags);
+            }
+        }
+        return imgTags;
+    }
+
+    private static void findAll(TokenSequence<HTMLTokenId> ts, int startOffset, int endOffset, List<ImgTag> imgTags) {
+        // start from the tag which contains the start offset
+        ts.move(startOffset);
+        while (ts.movePrevious()) {
+            HTMLTokenId id = ts.token().id();
+            if (id == HTMLTokenId.TAG_OPEN_SYMBOL) {
+                ts.move(ts.offset());
+                break;
+            }
+            if (id == HTMLTokenId.TAG_CLOSE_SYMBOL) {
+                break;
+            }
+        }
+        while (ts.moveNext() && ts.offset() <= endOffset) {
+            if (ts.token().id() == HTMLTokenId.TAG_OPEN_SYMBOL) {
+                ImgTag imgTag = parse(ts);
+                if (imgTag != null && imgTag.getRange().getEnd() > startOffset) {
+                    imgTags.add(imgTag);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parse an img tag. The token sequence must be positioned at "&lt;". It is
+     * left at the last token of the tag, or before the token which terminates
+     * an unclosed tag.
+     */
+    @CheckForNull
+    private static ImgTag parse(TokenSequence<HTMLTokenId> ts) {
+        int start = ts.offset();
+
+        // "img"
+        if (!ts.moveNext()) {
+            return null;
+        }
+        Token<HTMLTokenId> token = ts.token();
+        if (token.id() != HTMLTokenId.TAG_OPEN || !equalsIgnoreCase(token.text(), IMG)) {
+            ts.movePrevious();
+            return null;
+        }
+
+        // attributes
+        String src = null;
+        OffsetRange widthRange = null;
+        OffsetRange heightRange = null;
+        CharSequence attribute = null;
+        while (ts.moveNext()) {
+            token = ts.token();
+            HTMLTokenId id = token.id();
+            switch (id) {
+                case ARGUMENT:
+                    attribute = token.text();
+                    break;
+                case VALUE: // fall-through
+                case VALUE_CSS: // fall-through
+                case VALUE_JAVASCRIPT:
+                    if (attribute == null) {
+                        break;
+                    }
+                    OffsetRange valueRange = getValueRange(token.text(), ts.offset());
+                    if (equalsIgnoreCase(attribute, SRC)) {
+                        CharSequence text = token.text();
+                        int quote = valueRange.getStart() - ts.offset();
+                        src = text.subSequence(quote, quote + valueRange.getLength()).toString();
+                    } else if (equalsIgnoreCase(attribute, WIDTH)) {
+                        widthRange = valueRange;
+                    } else if (equalsIgnoreCase(attribute, HEIGHT)) {
+                        heightRange = valueRange;
+                    }
+                    attribute = null;
+                    break;
+                case TAG_CLOSE_SYMBOL:
+                    int end = ts.offset() + token.length();
+                    boolean selfClosing = TokenUtilities.startsWith(token.text(), "/"); // NOI18N
+                    return new ImgTag(new OffsetRange(start, end), src, widthRange, heightRange, ts.offset(), selfClosing);
+                case TAG_OPEN_SYMBOL: // fall-through
+                case TAG_OPEN:
+                    // unterminated
+                    ts.movePrevious();
+                    return null;
+                default:
+                    break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compare a tag or attribute name. HTML names are case-insensitive.
+     *
+     * @param text the text of the token
+     * @param name the lower case name
+     */
+    private static boolean equalsIgnoreCase(CharSequence text, String name) {
+        if (text.length() != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.toLowerCase(text.charAt(i)) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static OffsetRange getValueRange(CharSequence text, int offset) {
+        int length = text.length();
+        if (length >= 2) {
+            char first = text.charAt(0);
+            if ((first == '"' || first == '\'') && text.charAt(length - 1) == first) {
+                return new OffsetRange(offset + 1, offset + length - 1);
+            }
+        }
+        return new OffsetRange(offset, offset + length);
+    }
+
+    /**
+     * Get the range of the tag (from "&lt;" to "&gt;").
+     *
+     * @return the range of the tag
+     */
+    public OffsetRange getRange() {
+        return range;
+    }
+
+    /**
+     * Get the src value.
+     *
+     * @return the src value if the tag has it, otherwise {@code null}
+     */
+    @CheckForNull
+    public String getSrc() {
+        return src;
+    }
+
+    /**
+     * Get the range of the width value.
+     *
+     * @return the range of the width value if the tag has it, otherwise
+     * {@code null}
+     */
+    @CheckForNull
+    public OffsetRange getWidthRange() {
+        return widthRange;
+    }
+
+    /**
+     * Get the range of the height value.
+     *
+     * @return the range of the height value if the tag has it, otherwise
+     * {@code null}
+     */
+    @CheckForNull
+    public OffsetRange getHeightRange() {
+        return heightRange;
+    }
+
+    /**
+     * Get the start offset of "&gt;" or "/&gt;".
+     *
+     * @return the start offset of the close symbol
+     */
+    public int getCloseOffset() {
+        return closeOffset;
+    }
+
+    public boolean isSelfClosing() {
+        return selfClosing;
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Performance metrics. Registered as the MBean
+ * {@value #OBJECT_NAME}.
+ *
+ * @author junichi11
+ */
+public final class Metrics implements MetricsMXBean {
+
+    public static final String OBJECT_NAME = "com.junichi11.netbeans.modules.html.enhancements:type=Metrics"; // NOI18N
+    public static final String MEMORY_CACHE = "memory"; // NOI18N
+    public static final String INDEX = "index"; // NOI18N
+    public static final String REMOTE_CACHE = "remote"; // NOI18N
+    public static final String NEGATIVE_CACHE = "negative"; // NOI18N
+    public static final String THUMBNAIL_CACHE = "thumbnail"; // NOI18N
+    public static final String PERSISTENT_CACHE = "persistent"; // NOI18N
+    private static final long[] LATENCY_BUCKETS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+    private static final Logger LOGGER = Logger.getLogger(Metrics.class.getName());
+    private static volatile Metrics instance;
+
+    private final LongAdder[] completionLatencies = new LongAdder[LATENCY_BUCKETS.length + 1];
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    Metrics() {
+        for (int i = 0; i < completionLatencies.length; i++) {
+            completionLatencies[i] = new LongAdder();
+        }
+    }
+
+    public static Metrics getDefault() {
+        Metrics metrics = instance;
+        if (metrics == null) {
+            synchronized (Metrics.class) {
+                metrics = instance;
+                if (metrics == null) {
+                    metrics = new Metrics();
+                    register(metrics);
+                    instance = metrics;
+                }
+            }
+        }
+        return metrics;
+    }
+
+    private static void register(Metrics metrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                // e.g. the module is reloaded
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(metrics, name);
+        } catch (JMException ex) {
+            LOGGER.log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * Record the latency of a completion query.
+     *
+     * @param startNanos start time ({@link System#nanoTime()})
+     */
+    public void recordCompletionQuery(long startNanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        int i = 0;
+        while (i < LATENCY_BUCKETS.length && millis > LATENCY_BUCKETS[i]) {
+            i++;
+        }
+        completionLatencies[i].increment();
+        record("completion.query", startNanos); // NOI18N
+    }
+
+    /**
+     * Record the time spent holding the read lock of a document.
+     *
+     * @param startNanos start time ({@link System#nanoTime()})
+     */
+    public void recordReadLock(long startNanos) {
+        record("completion.readLock", startNanos); // NOI18N
+    }
+
+    /**
+     * Record the time to read the header of an image.
+     *
+     * @param format format (extension)
+     * @param remote {@code true} if the image is remote
+     * @param startNanos start time ({@link System#nanoTime()})
+     */
+    public void recordProbe(String format, boolean remote, long startNanos) {
+        record("probe." + format + (remote ? ".remote" : ".local"), startNanos); // NOI18N
+    }
+
+    /**
+     * Record the time to decode an image.
+     *
+     * @param format format (extension)
+     * @param remote {@code true} if the image is remote
+     * @param startNanos start time ({@link System#nanoTime()})
+     */
+    public void recordDecode(String format, boolean remote, long startNanos) {
+        record("decode." + format + (remote ? ".remote" : ".local"), startNanos); // NOI18N
+    }
+
+    public void recordCacheHit(String cache) {
+        increment("cache." + cache + ".hit"); // NOI18N
+    }
+
+    public void recordCacheMiss(String cache) {
+        increment("cache." + cache + ".miss"); // NOI18N
+    }
+
+    /**
+     * Record a lookup which waited for the same lookup of another caller.
+     */
+    public void recordCoalesced() {
+        increment("lookup.coalesced"); // NOI18N
+    }
+
+    /**
+     * Record the time a task waited in the queue of {@link ImageIOScheduler}.
+     *
+     * @param lane the priority name
+     * @param startNanos enqueued time ({@link System#nanoTime()})
+     */
+    public void recordQueueWait(String lane, long startNanos) {
+        record("io." + lane + ".wait", startNanos); // NOI18N
+    }
+
+    /**
+     * Register a current value (e.g. a queue length). Gauges are not cleared
+     * by {@link #reset()}.
+     *
+     * @param name the name
+     * @param gauge supplies the current value
+     */
+    public void registerGauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public void addBytesRead(long bytes) {
+        counters.computeIfAbsent("bytesRead", key -> new LongAdder()).add(bytes); // NOI18N
+    }
+
+    /**
+     * Wrap an input stream to count bytes read.
+     *
+     * @param in input stream
+     * @return input stream which counts bytes read
+     */
+    public InputStream countBytes(InputStream in) {
+        return new CountingInputStream(in);
+    }
+
+    /**
+     * Get the format name for metrics from a file name or a URL path.
+     *
+     * @param name file name or URL path
+     * @return lower case extension, or "unknown"
+     */
+    public static String getFormat(String name) {
+        int slash = name.lastIndexOf('/');
+        int dot = name.lastIndexOf('.');
+        if (dot <= slash || dot == name.length() - 1) {
+            return "unknown"; // NOI18N
+        }
+        return name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private void increment(String name) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).increment();
+    }
+
+    private void record(String name, long startNanos) {
+        timers.computeIfAbsent(name, key -> new Timer()).record(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> result = new TreeMap<>();
+        counters.forEach((name, counter) -> result.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> result.put(name, gauge.getAsLong()));
+        timers.forEach((name, timer) -> {
+            result.put(name + ".count", timer.count.sum()); // NOI18N
+            result.put(name + ".totalMicros", TimeUnit.NANOSECONDS.toMicros(timer.total.sum())); // NOI18N
+            result.put(name + ".maxMicros", TimeUnit.NANOSECONDS.toMicros(timer.max.get())); // NOI18N
+        });
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getCompletionLatencyHistogram() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            result.put("<=" + LATENCY_BUCKETS[i] + "ms", completionLatencies[i].sum()); // NOI18N
+        }
+        result.put(">" + LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1] + "ms", completionLatencies[LATENCY_BUCKETS.length].sum()); // NOI18N
+        return result;
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("HTML Enhancements metrics\n"); // NOI18N
+        getCounters().forEach((name, value) -> sb.append("  ").append(name).append(" = ").append(value).append('\n')); // NOI18N
+        sb.append("  completion latency histogram\n"); // NOI18N
+        getCompletionLatencyHistogram().forEach((name, value) -> sb.append("    ").append(name).append(" = ").append(value).append('\n')); // NOI18N
+        return sb.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder latency : completionLatencies) {
+            latency.reset();
+        }
+        timers.clear();
+        counters.clear();
+    }
+
+    //~ Inner classes
+    private static final class Timer {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+    }
+
+    private final class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1) {
+                addBytesRead(1);
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                addBytesRead(read);
+            }
+            return read;
+        }
+
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.util.Map;
+
+/**
+ * Performance metrics of HTML Enhancements.
+ *
+ * @author junichi11
+ */
+public interface MetricsMXBean {
+
+    /**
+     * Get counters, timers and gauges. Timers have ".count", ".totalMicros"
+     * and ".maxMicros" entries.
+     *
+     * @return counters, timers and gauges
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Get the histogram of completion query latencies.
+     *
+     * @return the number of queries for each upper bound (e.g. "&lt;=50ms")
+     */
+    Map<String, Long> getCompletionLatencyHistogram();
+
+    /**
+     * Get all metrics as text.
+     *
+     * @return metrics
+     */
+    String dump();
+
+    /**
+     * Clear all metrics.
+     */
+    void reset();
+}
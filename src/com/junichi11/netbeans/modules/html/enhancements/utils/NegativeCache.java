@@ -0,0 +1,161 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+import org.netbeans.api.annotations.common.NonNull;
+import org.netbeans.api.annotations.common.NullAllowed;
+import org.openide.filesystems.FileObject;
+
+/**
+ * Bounded cache of failed lookups (e.g. unresolved paths, unreadable files and
+ * failing URLs), so that they are not retried on every completion. Entries
+ * expire after the TTL. An entry can be related to a folder, and is removed
+ * when {@link #removeFolder(FileObject)} is called for it (e.g. a file is
+ * created in the folder).
+ *
+ * The TTL (ms) can be changed with the
+ * {@code html.enhancements.negative.cache.ttl} system property.
+ *
+ * @author junichi11
+ * @param <K> key type
+ */
+public final class NegativeCache<K> {
+
+    static final long DEFAULT_TTL = Long.getLong("html.enhancements.negative.cache.ttl", 60 * 1000L); // NOI18N
+    static final int DEFAULT_MAX_ENTRIES = Integer.getInteger("html.enhancements.negative.cache.size", 1024); // NOI18N
+
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final LongSupplier clock;
+    // @GuardedBy("this")
+    private final LinkedHashMap<K, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public NegativeCache() {
+        this(DEFAULT_TTL, DEFAULT_MAX_ENTRIES, System::nanoTime);
+    }
+
+    NegativeCache(long ttl, int maxEntries, LongSupplier clock) {
+        this.ttlNanos = ttl * 1_000_000L;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.clock = clock;
+    }
+
+    /**
+     * Check whether the key has failed recently.
+     *
+     * @param key the key
+     * @return {@code true} if the key is cached and not expired, otherwise
+     * {@code false}
+     */
+    public synchronized boolean contains(@NonNull K key) {
+        if (entries.isEmpty()) {
+            return false;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return false;
+        }
+        if (clock.getAsLong() - entry.expires >= 0) {
+            entries.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Cache a failed key.
+     *
+     * @param key the key
+     */
+    public void add(@NonNull K key) {
+        add(key, null);
+    }
+
+    /**
+     * Cache a failed key related to a folder.
+     *
+     * @param key the key
+     * @param folder the folder which may fix the failure, can be {@code null}
+     */
+    public synchronized void add(@NonNull K key, @NullAllowed FileObject folder) {
+        entries.put(key, new Entry(clock.getAsLong() + ttlNanos, folder));
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    public synchronized void remove(@NonNull K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Remove entries related to the folder.
+     *
+     * @param folder the folder
+     */
+    public synchronized void removeFolder(@NullAllowed FileObject folder) {
+        if (folder == null || entries.isEmpty()) {
+            return;
+        }
+        for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext();) {
+            if (Objects.equals(folder, iterator.next().folder)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Check whether the cache has an unexpired entry related to the folder.
+     *
+     * @param folder the folder
+     * @return {@code true} if there is an entry, otherwise {@code false}
+     */
+    public synchronized boolean containsFolder(@NonNull FileObject folder) {
+        long now = clock.getAsLong();
+        for (Entry entry : entries.values()) {
+            if (folder.equals(entry.folder) && now - entry.expires < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    //~ Inner classes
+    private static final class Entry {
+
+        private final long expires;
+        private final FileObject folder;
+
+        Entry(long expires, FileObject folder) {
+            this.expires = expires;
+            this.folder = folder;
+        }
+    }
+}
@@ -0,0 +1,501 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.netbeans.api.annotations.common.CheckForNull;
+import org.netbeans.api.annotations.common.NonNull;
+import org.openide.filesystems.FileObject;
+import org.openide.modules.OnStart;
+import org.openide.modules.OnStop;
+import org.openide.modules.Places;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Image dimensions which survive IDE restarts. Entries (path, last modified
+ * time, size, width and height) are appended to a binary file under the cache
+ * directory. The file is mapped when the module is started, and only the
+ * offsets of the entries are kept in memory. Entries are validated against the
+ * last modified time and the size of the file when they are looked up. New
+ * entries are written in batches on a background thread, and the file is
+ * mapped again after that, so that only entries which are not written yet are
+ * kept in memory. The file is compacted on open if it has too many stale
+ * entries.
+ *
+ * The number of entries (10000 by default) can be changed with the
+ * {@code html.enhancements.persistent.cache.size} system property. The oldest
+ * entries are dropped first.
+ *
+ * <pre>
+ * header: magic (int), version (int)
+ * entry:  path length (unsigned short), path (UTF-8), last modified (long),
+ *         size (long), width (int), height (int)
+ * </pre>
+ *
+ * @author junichi11
+ */
+public final class PersistentDimensionCache {
+
+    private static final Logger LOGGER = Logger.getLogger(PersistentDimensionCache.class.getName());
+    private static final String CACHE_DIRECTORY = "html-enhancements"; // NOI18N
+    private static final String CACHE_FILE = "dimensions.bin"; // NOI18N
+    private static final int MAGIC = 0x48454443; // "HEDC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    // lastModified, size, width, height
+    private static final int VALUE_SIZE = 8 + 8 + 4 + 4;
+    private static final int MAX_PATH_LENGTH = 0xFFFF;
+    private static final boolean ENABLED = !Boolean.getBoolean("html.enhancements.persistent.cache.disabled"); // NOI18N
+    private static final int WRITE_DELAY = Integer.getInteger("html.enhancements.persistent.cache.delay", 2000); // NOI18N
+    private static final int MAX_ENTRIES = Integer.getInteger("html.enhancements.persistent.cache.size", 10000); // NOI18N
+    private static final RequestProcessor RP = new RequestProcessor(PersistentDimensionCache.class.getName());
+    private static volatile PersistentDimensionCache instance;
+
+    private final File file;
+    private final RequestProcessor.Task writeTask;
+    private final int writeDelay;
+    private final int maxEntries;
+    private final Object writeLock = new Object();
+    // @GuardedBy("this")
+    private boolean opened;
+    // @GuardedBy("this")
+    private MappedByteBuffer buffer;
+    // @GuardedBy("this")
+    private long validLength;
+    // @GuardedBy("this")
+    private boolean writable = true;
+    // offsets of the values in the mapped buffer, from the oldest entry
+    // @GuardedBy("this")
+    private final LinkedHashMap<String, Integer> offsets = new LinkedHashMap<>();
+    // entries which are not in the mapped buffer yet, from the oldest entry
+    // @GuardedBy("this")
+    private final LinkedHashMap<String, Entry> added = new LinkedHashMap<>();
+    // @GuardedBy("this")
+    private final Map<String, Entry> pending = new LinkedHashMap<>();
+
+    PersistentDimensionCache(File file, int writeDelay) {
+        this(file, writeDelay, MAX_ENTRIES);
+    }
+
+    PersistentDimensionCache(File file, int writeDelay, int maxEntries) {
+        this.file = file;
+        this.writeDelay = writeDelay;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.writeTask = RP.create(this::flush);
+    }
+
+    @CheckForNull
+    public static PersistentDimensionCache getDefault() {
+        if (!ENABLED) {
+            return null;
+        }
+        PersistentDimensionCache cache = instance;
+        if (cache == null) {
+            synchronized (PersistentDimensionCache.class) {
+                cache = instance;
+                if (cache == null) {
+                    cache = new PersistentDimensionCache(new File(Places.getCacheSubdirectory(CACHE_DIRECTORY), CACHE_FILE), WRITE_DELAY);
+                    instance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Get the dimensions of an image file.
+     *
+     * @param image image file
+     * @return the dimensions if they are cached and the file is not modified,
+     * otherwise {@code null}
+     */
+    @CheckForNull
+    public ImageDimensions get(@NonNull FileObject image) {
+        return get(getKey(image), image.lastModified().getTime(), image.getSize());
+    }
+
+    @CheckForNull
+    synchronized ImageDimensions get(String key, long lastModified, long size) {
+        open();
+        Entry entry = getEntry(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.lastModified != lastModified || entry.size != size) {
+            return null;
+        }
+        return entry.dimensions;
+    }
+
+    /**
+     * Add the dimensions of an image file. The entry is written later.
+     *
+     * @param image image file
+     * @param dimensions dimensions of the image
+     */
+    public void put(@NonNull FileObject image, @NonNull ImageDimensions dimensions) {
+        put(getKey(image), image.lastModified().getTime(), image.getSize(), dimensions);
+    }
+
+    void put(String key, long lastModified, long size, ImageDimensions dimensions) {
+        if (key.getBytes(StandardCharsets.UTF_8).length > MAX_PATH_LENGTH) {
+            return;
+        }
+        Entry entry = new Entry(lastModified, size, dimensions);
+        synchronized (this) {
+            open();
+            if (entry.equals(getEntry(key))) {
+                return;
+            }
+            added.remove(key);
+            added.put(key, entry);
+            // e.g. the file cannot be written
+            trim(added);
+            boolean schedule = pending.isEmpty();
+            pending.put(key, entry);
+            if (schedule) {
+                // the first entry of a batch decides the time
+                writeTask.schedule(writeDelay);
+            }
+        }
+    }
+
+    @CheckForNull
+    // @GuardedBy("this")
+    private Entry getEntry(String key) {
+        Entry entry = added.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        Integer offset = offsets.get(key);
+        if (offset == null) {
+            return null;
+        }
+        int position = offset;
+        return new Entry(buffer.getLong(position), buffer.getLong(position + 8),
+                new ImageDimensions(buffer.getInt(position + 16), buffer.getInt(position + 20)));
+    }
+
+    /**
+     * Map the file and read offsets of entries. The file is compacted if it
+     * contains many stale entries or a broken entry (e.g. the IDE is killed
+     * while it's written). It's called when the module is started or the
+     * cache is used first.
+     */
+    synchronized void open() {
+        if (opened) {
+            return;
+        }
+        opened = true;
+        if (!file.isFile()) {
+            return;
+        }
+        LinkedHashMap<String, Integer> read = new LinkedHashMap<>();
+        try {
+            int count = read(read, HEADER_SIZE);
+            boolean broken = validLength != buffer.capacity();
+            if (broken || (count > read.size() * 2 && count > 16) || read.size() > maxEntries) {
+                try {
+                    trim(read);
+                    compact(read);
+                    read.clear();
+                    read(read, HEADER_SIZE);
+                } catch (IOException ex) {
+                    // e.g. the mapped file cannot be replaced on some platforms
+                    LOGGER.log(Level.INFO, "Cannot compact {0}: {1}", new Object[]{file, ex.getMessage()}); // NOI18N
+                    writable = !broken;
+                    if (buffer == null) {
+                        read.clear();
+                    }
+                }
+            }
+            offsets.putAll(read);
+            trim(offsets);
+        } catch (IOException ex) {
+            LOGGER.log(Level.INFO, "Cannot read {0}: {1}", new Object[]{file, ex.getMessage()}); // NOI18N
+            buffer = null;
+            offsets.clear();
+            file.delete();
+        }
+    }
+
+    /**
+     * Map the file and read offsets of valid entries. A newer entry is moved
+     * to the end of the map.
+     *
+     * @param start the position of the first entry to read
+     * @return the number of entries including the duplicated ones
+     */
+    // @GuardedBy("this")
+    private int read(Map<String, Integer> read, int start) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE || fileSize > Integer.MAX_VALUE) {
+                throw new IOException("Invalid file size: " + fileSize); // NOI18N
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+                throw new IOException("Unknown format"); // NOI18N
+            }
+            int count = 0;
+            int position = start;
+            int limit = (int) fileSize;
+            byte[] path = new byte[256];
+            while (position + 2 <= limit) {
+                int pathLength = mapped.getShort(position) & 0xFFFF;
+                int valueOffset = position + 2 + pathLength;
+                if (valueOffset + VALUE_SIZE > limit) {
+                    break;
+                }
+                if (path.length < pathLength) {
+                    path = new byte[pathLength];
+                }
+                for (int i = 0; i < pathLength; i++) {
+                    path[i] = mapped.get(position + 2 + i);
+                }
+                String key = new String(path, 0, pathLength, StandardCharsets.UTF_8);
+                read.remove(key);
+                read.put(key, valueOffset);
+                count++;
+                position = valueOffset + VALUE_SIZE;
+            }
+            buffer = mapped;
+            validLength = position;
+            return count;
+        }
+    }
+
+    /**
+     * Rewrite the file with the latest entries. It must be called before the
+     * file is mapped again.
+     */
+    // @GuardedBy("this")
+    private void compact(Map<String, Integer> read) throws IOException {
+        File temp = new File(file.getPath() + ".tmp"); // NOI18N
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            write(channel, header);
+            for (Map.Entry<String, Integer> entry : read.entrySet()) {
+                byte[] path = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                ByteBuffer bytes = ByteBuffer.allocate(2 + path.length + VALUE_SIZE);
+                bytes.putShort((short) path.length).put(path);
+                for (int i = 0; i < VALUE_SIZE; i++) {
+                    bytes.put(buffer.get(entry.getValue() + i));
+                }
+                bytes.flip();
+                write(channel, bytes);
+            }
+        }
+        buffer = null;
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Append pending entries to the file, and map it again. Appended entries
+     * are dropped from memory.
+     */
+    void flush() {
+        synchronized (writeLock) {
+            Map<String, Entry> entries;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                entries = new LinkedHashMap<>(pending);
+                pending.clear();
+                if (!writable) {
+                    return;
+                }
+            }
+            if (append(entries)) {
+                remap(entries);
+            }
+        }
+    }
+
+    // @GuardedBy("writeLock")
+    private boolean append(Map<String, Entry> entries) {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            return false;
+        }
+        int size = 0;
+        List<byte[]> paths = new ArrayList<>(entries.size());
+        for (String key : entries.keySet()) {
+            byte[] path = key.getBytes(StandardCharsets.UTF_8);
+            paths.add(path);
+            size += 2 + path.length + VALUE_SIZE;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(HEADER_SIZE + size);
+        boolean exists = file.isFile() && file.length() >= HEADER_SIZE;
+        if (!exists) {
+            bytes.putInt(MAGIC).putInt(VERSION);
+        }
+        int i = 0;
+        for (Entry entry : entries.values()) {
+            byte[] path = paths.get(i++);
+            bytes.putShort((short) path.length).put(path)
+                    .putLong(entry.lastModified)
+                    .putLong(entry.size)
+                    .putInt(entry.dimensions.getWidth())
+                    .putInt(entry.dimensions.getHeight());
+        }
+        bytes.flip();
+        try (FileChannel channel = exists
+                ? FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+                : FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, bytes);
+        } catch (IOException ex) {
+            LOGGER.log(Level.INFO, "Cannot write {0}: {1}", new Object[]{file, ex.getMessage()}); // NOI18N
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Map the file again and read offsets of the appended entries. Written
+     * entries are removed from memory unless they are replaced meanwhile.
+     */
+    private synchronized void remap(Map<String, Entry> written) {
+        if (buffer != null && validLength != buffer.capacity()) {
+            // the mapped file has a broken entry
+            return;
+        }
+        try {
+            read(offsets, buffer == null ? HEADER_SIZE : (int) validLength);
+        } catch (IOException ex) {
+            LOGGER.log(Level.INFO, "Cannot read {0}: {1}", new Object[]{file, ex.getMessage()}); // NOI18N
+            return;
+        }
+        trim(offsets);
+        for (Map.Entry<String, Entry> entry : written.entrySet()) {
+            String key = entry.getKey();
+            if (offsets.containsKey(key) && entry.getValue().equals(added.get(key))) {
+                added.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Remove the oldest entries if there are too many entries.
+     */
+    private void trim(Map<String, ?> entries) {
+        Iterator<String> iterator = entries.keySet().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    synchronized int getAddedCount() {
+        return added.size();
+    }
+
+    synchronized int size() {
+        open();
+        int size = added.size();
+        for (String key : offsets.keySet()) {
+            if (!added.containsKey(key)) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    private static String getKey(FileObject image) {
+        return image.toURL().toExternalForm();
+    }
+
+    //~ Inner classes
+    private static final class Entry {
+
+        private final long lastModified;
+        private final long size;
+        private final ImageDimensions dimensions;
+
+        Entry(long lastModified, long size, ImageDimensions dimensions) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.dimensions = dimensions;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(lastModified) + dimensions.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) obj;
+            return lastModified == other.lastModified && size == other.size && dimensions.equals(other.dimensions);
+        }
+    }
+
+    /**
+     * Map the file when the module is started.
+     */
+    @OnStart
+    public static final class Opener implements Runnable {
+
+        @Override
+        public void run() {
+            PersistentDimensionCache cache = getDefault();
+            if (cache != null) {
+                cache.open();
+            }
+        }
+    }
+
+    /**
+     * Write pending entries when the IDE is closed.
+     */
+    @OnStop
+    public static final class Closer implements Runnable {
+
+        @Override
+        public void run() {
+            PersistentDimensionCache cache = instance;
+            if (cache != null) {
+                cache.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import org.netbeans.api.annotations.common.CheckForNull;
+import org.netbeans.api.annotations.common.NonNull;
+import org.netbeans.api.annotations.common.NullAllowed;
+import org.openide.modules.OnStop;
+import org.openide.modules.Places;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Probe dimensions of remote images. Only the first bytes of an image are
+ * requested with a Range header and the connection is closed as soon as the
+ * header is parsed. A request is aborted when it takes longer than the total
+ * timeout, and at most {@code maxImageSize} bytes are read to decode an image
+ * of an unknown format. Results are kept in a bounded disk cache which is
+ * written in batches, and they are revalidated with ETag/Last-Modified. Failed
+ * URLs are kept in a {@link NegativeCache} and are not requested again until
+ * the entry expires. A stale entry is used while its URL fails.
+ *
+ * @author junichi11
+ */
+public final class RemoteImageProbe {
+
+    private static final Logger LOGGER = Logger.getLogger(RemoteImageProbe.class.getName());
+    private static final String CACHE_DIRECTORY = "html-enhancements"; // NOI18N
+    private static final String CACHE_FILE = "remote-images.properties"; // NOI18N
+    private static final int RANGE_SIZE = 16 * 1024;
+    private static final int CONNECT_TIMEOUT = Integer.getInteger("html.enhancements.remote.connect.timeout", 2000); // NOI18N
+    // idle timeout of a read
+    private static final int READ_TIMEOUT = Integer.getInteger("html.enhancements.remote.read.timeout", 3000); // NOI18N
+    // timeout of a whole probe including the fallback request
+    private static final int TIMEOUT = Integer.getInteger("html.enhancements.remote.timeout", 5000); // NOI18N
+    // revalidate cached entries at most once in this period
+    private static final long FRESHNESS = Long.getLong("html.enhancements.remote.freshness", 10 * 60 * 1000L); // NOI18N
+    private static final int MAX_ENTRIES = Integer.getInteger("html.enhancements.remote.cache.size", 1000); // NOI18N
+    private static final int MAX_IMAGE_SIZE = Integer.getInteger("html.enhancements.remote.maxImageSize", 2 * 1024 * 1024); // NOI18N
+    private static final int WRITE_DELAY = Integer.getInteger("html.enhancements.remote.cache.delay", 2000); // NOI18N
+    private static final RequestProcessor RP = new RequestProcessor(RemoteImageProbe.class.getName(), 2);
+    private static volatile RemoteImageProbe instance;
+
+    private final File cacheFile;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int timeout;
+    private final long freshness;
+    private final int maxEntries;
+    private final int maxImageSize;
+    private final NegativeCache<String> failures = new NegativeCache<>();
+    private final RequestProcessor.Task writeTask;
+    // the least recently used entry is removed first
+    // @GuardedBy("this")
+    private Map<String, CacheEntry> entries;
+    // @GuardedBy("this")
+    private boolean dirty;
+
+    RemoteImageProbe(@NullAllowed File cacheFile, int connectTimeout, int readTimeout, int timeout, long freshness, int maxEntries, int maxImageSize) {
+        this.cacheFile = cacheFile;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.timeout = timeout;
+        this.freshness = freshness;
+        this.maxEntries = maxEntries;
+        this.maxImageSize = maxImageSize;
+        this.writeTask = RP.create(this::flush);
+    }
+
+    public static RemoteImageProbe getDefault() {
+        RemoteImageProbe probe = instance;
+        if (probe == null) {
+            synchronized (RemoteImageProbe.class) {
+                probe = instance;
+                if (probe == null) {
+                    File cacheFile = new File(Places.getCacheSubdirectory(CACHE_DIRECTORY), CACHE_FILE);
+                    probe = new RemoteImageProbe(cacheFile, CONNECT_TIMEOUT, READ_TIMEOUT, TIMEOUT, FRESHNESS, MAX_ENTRIES, MAX_IMAGE_SIZE);
+                    instance = probe;
+                }
+            }
+        }
+        return probe;
+    }
+
+    /**
+     * Get dimensions of a remote image.
+     *
+     * @param url http or https URL
+     * @return dimensions if the image is available or it was available when
+     * it was checked last time, otherwise {@code null}
+     */
+    @CheckForNull
+    public ImageDimensions probe(@NonNull URL url) {
+        String key = url.toExternalForm();
+        CacheEntry cached = getCacheEntry(key);
+        if (cached != null && System.currentTimeMillis() - cached.checked < freshness) {
+            Metrics.getDefault().recordCacheHit(Metrics.REMOTE_CACHE);
+            return cached.dimensions;
+        }
+        Metrics.getDefault().recordCacheMiss(Metrics.REMOTE_CACHE);
+        if (failures.contains(key)) {
+            Metrics.getDefault().recordCacheHit(Metrics.NEGATIVE_CACHE);
+            return getDimensions(cached);
+        }
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            CacheEntry entry = fetch(url, cached, true, deadline);
+            if (entry != null) {
+                putCacheEntry(key, entry);
+                return entry.dimensions;
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.INFO, "Cannot probe {0}: {1}", new Object[]{key, ex.getMessage()}); // NOI18N
+        }
+        // don't connect again until the entry expires
+        failures.add(key);
+        // the server may be down temporarily, so keep using the stale entry
+        return getDimensions(cached);
+    }
+
+    @CheckForNull
+    private static ImageDimensions getDimensions(@NullAllowed CacheEntry entry) {
+        return entry == null ? null : entry.dimensions;
+    }
+
+    @CheckForNull
+    private CacheEntry fetch(URL url, @NullAllowed CacheEntry cached, boolean partial, long deadline) throws IOException {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Timed out after " + timeout + " ms"); // NOI18N
+        }
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout((int) Math.min(connectTimeout, remaining));
+        connection.setReadTimeout((int) Math.min(readTimeout, remaining));
+        connection.setUseCaches(false);
+        if (!(connection instanceof HttpURLConnection)) {
+            return null;
+        }
+        HttpURLConnection http = (HttpURLConnection) connection;
+        // the read timeout is reset by every read, so a server which sends
+        // bytes slowly is disconnected when the total time is over
+        RequestProcessor.Task watchdog = RP.post(http::disconnect, (int) remaining);
+        try {
+            if (partial) {
+                http.setRequestProperty("Range", "bytes=0-" + (RANGE_SIZE - 1)); // NOI18N
+            }
+            if (cached != null) {
+                if (cached.etag != null) {
+                    http.setRequestProperty("If-None-Match", cached.etag); // NOI18N
+                }
+                if (cached.lastModified > 0) {
+                    http.setIfModifiedSince(cached.lastModified);
+                }
+            }
+            int code = http.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                return new CacheEntry(cached.dimensions, System.currentTimeMillis(), cached.etag, cached.lastModified);
+            }
+            if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+                return null;
+            }
+            boolean complete = code == HttpURLConnection.HTTP_OK;
+            Metrics metrics = Metrics.getDefault();
+            String format = Metrics.getFormat(url.getPath());
+            long start = System.nanoTime();
+            ImageDimensions dimensions;
+            try (InputStream in = new BufferedInputStream(metrics.countBytes(http.getInputStream()), RANGE_SIZE)) {
+                in.mark(RANGE_SIZE);
+                try {
+                    dimensions = ImageHeaderParser.parse(in);
+                } catch (EOFException ex) {
+                    if (complete) {
+                        throw ex;
+                    }
+                    // the header is larger than the range
+                    return fetch(url, null, false, deadline);
+                }
+                if (dimensions == null) {
+                    // unknown format
+                    if (!complete) {
+                        return fetch(url, null, false, deadline);
+                    }
+                    if (http.getContentLengthLong() > maxImageSize) {
+                        return null;
+                    }
+                    in.reset();
+                    start = System.nanoTime();
+                    BufferedImage image = ImageIO.read(new LimitedInputStream(in, maxImageSize));
+                    metrics.recordDecode(format, true, start);
+                    if (image == null) {
+                        return null;
+                    }
+                    dimensions = new ImageDimensions(image.getWidth(), image.getHeight());
+                } else {
+                    metrics.recordProbe(format, true, start);
+                }
+            }
+            return new CacheEntry(dimensions, System.currentTimeMillis(), http.getHeaderField("ETag"), http.getLastModified()); // NOI18N
+        } finally {
+            watchdog.cancel();
+            // don't read the rest of the body
+            http.disconnect();
+        }
+    }
+
+    @CheckForNull
+    private synchronized CacheEntry getCacheEntry(String key) {
+        return getEntries().get(key);
+    }
+
+    private void putCacheEntry(String key, CacheEntry entry) {
+        synchronized (this) {
+            getEntries().put(key, entry);
+            if (cacheFile == null || dirty) {
+                return;
+            }
+            dirty = true;
+        }
+        // the first entry of a batch decides the time
+        writeTask.schedule(WRITE_DELAY);
+    }
+
+    /**
+     * Write the entries to the cache file. The file is replaced with a
+     * temporary file.
+     */
+    void flush() {
+        Properties properties = new Properties();
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            for (Map.Entry<String, CacheEntry> entry : entries.entrySet()) {
+                properties.setProperty(entry.getKey(), entry.getValue().toString());
+            }
+        }
+        File parent = cacheFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            return;
+        }
+        File temp = null;
+        try {
+            temp = File.createTempFile(CACHE_FILE, ".tmp", parent); // NOI18N
+            try (OutputStream out = new FileOutputStream(temp)) {
+                properties.store(out, null);
+            }
+            Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, null, ex);
+            if (temp != null && temp.isFile() && !temp.delete()) {
+                LOGGER.log(Level.INFO, "Cannot delete {0}", temp); // NOI18N
+            }
+        }
+    }
+
+    // @GuardedBy("this")
+    private Map<String, CacheEntry> getEntries() {
+        if (entries == null) {
+            entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+            if (cacheFile != null && cacheFile.isFile()) {
+                Properties properties = new Properties();
+                try (InputStream in = new FileInputStream(cacheFile)) {
+                    properties.load(in);
+                } catch (IOException ex) {
+                    LOGGER.log(Level.WARNING, null, ex);
+                }
+                // the order of a properties file is not kept, use the last checked time instead
+                List<Map.Entry<String, CacheEntry>> loaded = new ArrayList<>(properties.size());
+                for (String key : properties.stringPropertyNames()) {
+                    CacheEntry entry = CacheEntry.parse(properties.getProperty(key));
+                    if (entry != null) {
+                        loaded.add(new AbstractMap.SimpleImmutableEntry<>(key, entry));
+                    }
+                }
+                loaded.sort(Comparator.comparingLong(entry -> entry.getValue().checked));
+                for (Map.Entry<String, CacheEntry> entry : loaded) {
+                    entries.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return entries;
+    }
+
+    //~ Inner classes
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long read;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long n) throws IOException {
+            read += n;
+            if (read > limit) {
+                throw new IOException("The image is larger than " + limit + " bytes"); // NOI18N
+            }
+        }
+    }
+
+    private static final class CacheEntry {
+
+        private static final String SEPARATOR = ","; // NOI18N
+        private final ImageDimensions dimensions;
+        private final long checked;
+        private final String etag;
+        private final long lastModified;
+
+        CacheEntry(ImageDimensions dimensions, long checked, @NullAllowed String etag, long lastModified) {
+            this.dimensions = dimensions;
+            this.checked = checked;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Parse "width,height,checked,lastModified[,etag]".
+         */
+        @CheckForNull
+        static CacheEntry parse(String value) {
+            String[] split = value.split(SEPARATOR, 5);
+            if (split.length < 4) {
+                return null;
+            }
+            try {
+                ImageDimensions dimensions = new ImageDimensions(Integer.parseInt(split[0]), Integer.parseInt(split[1]));
+                String etag = split.length == 5 ? split[4] : null;
+                return new CacheEntry(dimensions, Long.parseLong(split[2]), etag, Long.parseLong(split[3]));
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(dimensions.getWidth()).append(SEPARATOR)
+                    .append(dimensions.getHeight()).append(SEPARATOR)
+                    .append(checked).append(SEPARATOR)
+                    .append(lastModified);
+            if (etag != null) {
+                sb.append(SEPARATOR).append(etag);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Write the cache when the IDE is closed.
+     */
+    @OnStop
+    public static final class Closer implements Runnable {
+
+        @Override
+        public void run() {
+            RemoteImageProbe probe = instance;
+            if (probe != null) {
+                probe.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+import org.netbeans.api.annotations.common.NonNull;
+
+/**
+ * Coalesce concurrent loads of the same key. The first caller loads the value
+ * and the other callers wait for it. Each caller can be interrupted without
+ * affecting the others. If the loading caller is interrupted, one of the
+ * waiting callers loads the value again.
+ *
+ * @author junichi11
+ * @param <K> key type
+ * @param <V> value type
+ */
+final class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Get the value of the key.
+     *
+     * @param key the key
+     * @param loader loads the value, the result can be {@code null}
+     * @return the value
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    V get(@NonNull K key, @NonNull Supplier<V> loader) throws InterruptedException {
+        while (true) {
+            CompletableFuture<V> future = new CompletableFuture<>();
+            CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+            if (existing == null) {
+                return load(key, future, loader);
+            }
+            Metrics.getDefault().recordCoalesced();
+            try {
+                return existing.get();
+            } catch (CancellationException ex) {
+                // the loading caller was interrupted, try again
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    private V load(K key, CompletableFuture<V> future, Supplier<V> loader) throws InterruptedException {
+        try {
+            V value = loader.get();
+            if (Thread.currentThread().isInterrupted()) {
+                // the value may be incomplete (e.g. the channel is closed by the interrupt)
+                future.cancel(false);
+                Thread.interrupted();
+                throw new InterruptedException();
+            }
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    int size() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import org.netbeans.api.annotations.common.CheckForNull;
+import org.netbeans.api.annotations.common.NonNull;
+import org.netbeans.api.annotations.common.NullAllowed;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.modules.Places;
+
+/**
+ * Thumbnails of image files for the completion documentation. Images are
+ * decoded with source subsampling, so a full resolution raster is never
+ * created. Thumbnails are written to a disk cache as PNG files, and the recent
+ * ones are kept in a bounded LRU cache which is validated against the last
+ * modified time and the size of the file.
+ *
+ * @author junichi11
+ */
+public final class ThumbnailCache {
+
+    private static final Logger LOGGER = Logger.getLogger(ThumbnailCache.class.getName());
+    private static final String CACHE_DIRECTORY = "html-enhancements/thumbnails"; // NOI18N
+    private static final String EXTENSION = ".png"; // NOI18N
+    private static final String TEMP_EXTENSION = ".tmp"; // NOI18N
+    private static final long TEMP_FILE_EXPIRATION = 60 * 60 * 1000L;
+    static final int THUMBNAIL_SIZE = Integer.getInteger("html.enhancements.thumbnail.size", 128); // NOI18N
+    private static final int MAX_ENTRIES = Integer.getInteger("html.enhancements.thumbnail.cache.size", 64); // NOI18N
+    private static final int MAX_DISK_ENTRIES = Integer.getInteger("html.enhancements.thumbnail.disk.cache.size", 1000); // NOI18N
+    // writes of the same cache file are serialized, also across instances
+    private static final Object[] WRITE_LOCKS = new Object[32];
+    private static volatile ThumbnailCache instance;
+
+    static {
+        for (int i = 0; i < WRITE_LOCKS.length; i++) {
+            WRITE_LOCKS[i] = new Object();
+        }
+    }
+
+    private final File directory;
+    private final int thumbnailSize;
+    private final int maxEntries;
+    private final int maxDiskEntries;
+    // @GuardedBy("this")
+    private final LinkedHashMap<FileObject, Thumbnail> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    ThumbnailCache(@NullAllowed File directory, int thumbnailSize, int maxEntries, int maxDiskEntries) {
+        this.directory = directory;
+        this.thumbnailSize = Math.max(1, thumbnailSize);
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxDiskEntries = Math.max(1, maxDiskEntries);
+    }
+
+    public static ThumbnailCache getDefault() {
+        ThumbnailCache cache = instance;
+        if (cache == null) {
+            synchronized (ThumbnailCache.class) {
+                cache = instance;
+                if (cache == null) {
+                    cache = new ThumbnailCache(Places.getCacheSubdirectory(CACHE_DIRECTORY), THUMBNAIL_SIZE, MAX_ENTRIES, MAX_DISK_ENTRIES);
+                    instance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Get the thumbnail of an image file. The image is decoded if the
+     * thumbnail is neither in the memory nor on the disk.
+     *
+     * @param image image file
+     * @return the thumbnail if the image can be read, otherwise {@code null}
+     */
+    @CheckForNull
+    public Thumbnail get(@NonNull FileObject image) {
+        long lastModified = image.lastModified().getTime();
+        long size = image.getSize();
+        synchronized (this) {
+            Thumbnail thumbnail = entries.get(image);
+            if (thumbnail != null) {
+                if (thumbnail.lastModified == lastModified && thumbnail.fileSize == size && thumbnail.file.isFile()) {
+                    Metrics.getDefault().recordCacheHit(Metrics.THUMBNAIL_CACHE);
+                    return thumbnail;
+                }
+                entries.remove(image);
+            }
+        }
+        Metrics.getDefault().recordCacheMiss(Metrics.THUMBNAIL_CACHE);
+        if (directory == null) {
+            return null;
+        }
+        File file = new File(directory, getCacheName(image, lastModified, size));
+        if (!file.isFile() && !create(image, file)) {
+            return null;
+        }
+        Thumbnail thumbnail = new Thumbnail(file, lastModified, size);
+        synchronized (this) {
+            entries.put(image, thumbnail);
+            Iterator<FileObject> iterator = entries.keySet().iterator();
+            while (entries.size() > maxEntries && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        return thumbnail;
+    }
+
+    private boolean create(FileObject image, File file) {
+        synchronized (getWriteLock(file)) {
+            // written while waiting for the lock
+            if (file.isFile()) {
+                return true;
+            }
+            try {
+                BufferedImage decoded = decode(image, thumbnailSize);
+                return decoded != null && write(decoded, file);
+            } catch (IOException ex) {
+                LOGGER.log(Level.INFO, "Cannot create the thumbnail of {0}: {1}", new Object[]{image.getPath(), ex.getMessage()}); // NOI18N
+                return false;
+            }
+        }
+    }
+
+    private static Object getWriteLock(File file) {
+        return WRITE_LOCKS[(file.getName().hashCode() & Integer.MAX_VALUE) % WRITE_LOCKS.length];
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Decode an image with source subsampling. The larger side of the result
+     * is at most {@code maxSize}.
+     *
+     * @param image image file
+     * @param maxSize the maximum width and height
+     * @return the decoded image if the format is supported, otherwise
+     * {@code null}
+     * @throws IOException
+     */
+    @CheckForNull
+    static BufferedImage decode(FileObject image, int maxSize) throws IOException {
+        Metrics metrics = Metrics.getDefault();
+        String format = Metrics.getFormat(image.getNameExt());
+        long start = System.nanoTime();
+        File file = FileUtil.toFile(image);
+        BufferedImage decoded;
+        if (file != null) {
+            // random access, so the reader can skip rows
+            try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+                decoded = decode(in, maxSize);
+            }
+        } else {
+            try (InputStream inputStream = metrics.countBytes(image.getInputStream());
+                    ImageInputStream in = ImageIO.createImageInputStream(inputStream)) {
+                decoded = decode(in, maxSize);
+            }
+        }
+        metrics.recordDecode(format, false, start);
+        return decoded;
+    }
+
+    @CheckForNull
+    private static BufferedImage decode(@NullAllowed ImageInputStream in, int maxSize) throws IOException {
+        if (in == null) {
+            return null;
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(in, true, true);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            int step = Math.max(1, Math.max(width, height) / maxSize);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(step, step, 0, 0);
+            return scale(reader.read(0, param), maxSize);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Scale the subsampled image to fit in {@code maxSize}. The source is at
+     * most twice as large as the result.
+     */
+    private static BufferedImage scale(BufferedImage image, int maxSize) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width <= maxSize && height <= maxSize) {
+            return image;
+        }
+        double ratio = Math.min((double) maxSize / width, (double) maxSize / height);
+        int scaledWidth = Math.max(1, (int) Math.round(width * ratio));
+        int scaledHeight = Math.max(1, (int) Math.round(height * ratio));
+        BufferedImage scaled = new BufferedImage(scaledWidth, scaledHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, scaledWidth, scaledHeight, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private boolean write(BufferedImage thumbnail, File file) throws IOException {
+        // the directory may be created by another thread at the same time
+        if (!directory.mkdirs() && !directory.isDirectory()) {
+            return false;
+        }
+        prune();
+        // another thread may read the file while it's written
+        File temp = File.createTempFile(file.getName(), TEMP_EXTENSION, directory);
+        try {
+            if (!ImageIO.write(thumbnail, "png", temp)) { // NOI18N
+                return false;
+            }
+            if (!temp.renameTo(file)) {
+                return false;
+            }
+        } finally {
+            if (temp.isFile()) {
+                temp.delete();
+            }
+        }
+        return file.isFile();
+    }
+
+    /**
+     * Delete the oldest thumbnails if there are too many files.
+     */
+    private void prune() {
+        // temporary files left by a crash
+        File[] temps = directory.listFiles((dir, name) -> name.endsWith(TEMP_EXTENSION));
+        if (temps != null) {
+            long expired = System.currentTimeMillis() - TEMP_FILE_EXPIRATION;
+            for (File temp : temps) {
+                if (temp.lastModified() < expired) {
+                    temp.delete();
+                }
+            }
+        }
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null || files.length < maxDiskEntries) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i <= files.length - maxDiskEntries; i++) {
+            files[i].delete();
+        }
+    }
+
+    private static String getCacheName(FileObject image, long lastModified, long size) {
+        String key = image.toURL().toExternalForm() + '\n' + lastModified + '\n' + size;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8)); // NOI18N
+            StringBuilder sb = new StringBuilder(digest.length * 2 + EXTENSION.length());
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.append(EXTENSION).toString();
+        } catch (NoSuchAlgorithmException ex) {
+            // SHA-1 is always available
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    //~ Inner classes
+    public static final class Thumbnail {
+
+        private final File file;
+        private final long lastModified;
+        private final long fileSize;
+
+        Thumbnail(File file, long lastModified, long fileSize) {
+            this.file = file;
+            this.lastModified = lastModified;
+            this.fileSize = fileSize;
+        }
+
+        /**
+         * Get the URL of the thumbnail PNG file.
+         *
+         * @return the URL
+         */
+        @CheckForNull
+        public URL getUrl() {
+            try {
+                return file.toURI().toURL();
+            } catch (MalformedURLException ex) {
+                return null;
+            }
+        }
+
+        /**
+         * Get the size of the original image file.
+         *
+         * @return the file size in bytes
+         */
+        public long getFileSize() {
+            return fileSize;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.editor;
+
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageDimensions;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageDimensionsCache;
+import com.junichi11.netbeans.modules.html.enhancements.utils.TestImages;
+import java.util.List;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import org.netbeans.api.html.lexer.HTMLTokenId;
+import org.netbeans.api.lexer.Language;
+import org.netbeans.editor.BaseDocument;
+import org.netbeans.junit.NbTestCase;
+import org.netbeans.spi.editor.hints.ErrorDescription;
+import org.netbeans.spi.editor.hints.Fix;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.loaders.DataObject;
+
+/**
+ *
+ * @author junichi11
+ */
+public class ImageSizeHintsTest extends NbTestCase {
+
+    private static final String IMG = "<img src=\"test.png\""; // NOI18N
+
+    private FileObject root;
+
+    public ImageSizeHintsTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearWorkDir();
+        root = FileUtil.toFileObject(getWorkDir());
+        FileObject image = TestImages.createFile(root, "test.png", 100, 50); // NOI18N
+        // the project index is not available
+        ImageDimensionsCache.getDefault().put(image, new ImageDimensions(100, 50));
+    }
+
+    public void testMissingAndMismatchedSizes() throws Exception {
+        String missing = IMG + ">"; // NOI18N
+        String mismatched = IMG + " width=\"10\" height=\"50\">"; // NOI18N
+        String missingHeight = IMG + " width=\"100\" height=\"\">"; // NOI18N
+        BaseDocument document = createDocument(missing + "\n" + mismatched + "\n" + missingHeight); // NOI18N
+        ImageSizeHints.DocumentHints hints = createHints(document);
+        hints.run();
+
+        List<ErrorDescription> errors = hints.getErrors();
+        assertEquals(3, errors.size());
+        assertError(Bundle.ImageSizeHints_missing(100, 50), 0, missing.length(), getError(errors, 0));
+        int start = missing.length() + 1;
+        assertError(Bundle.ImageSizeHints_mismatch(100, 50), start, start + mismatched.length(), getError(errors, start));
+        start += mismatched.length() + 1;
+        assertError(Bundle.ImageSizeHints_missing(100, 50), start, start + missingHeight.length(), getError(errors, start));
+    }
+
+    public void testNoHints() throws Exception {
+        BaseDocument document = createDocument(IMG + " width=\"50%\" height=\"50%\">\n" // NOI18N
+                + IMG + " width=\"100\" height=\"50\">\n" // NOI18N
+                + IMG + " width=\"100px\" height=\" 50 \">\n" // NOI18N
+                + "<img src=\"missing.png\">"); // NOI18N
+        ImageSizeHints.DocumentHints hints = createHints(document);
+        hints.run();
+        assertTrue(hints.getErrors().isEmpty());
+    }
+
+    public void testEditInTag() throws Exception {
+        String missing = IMG + ">"; // NOI18N
+        String correct = IMG + " width=\"100\" height=\"50\">"; // NOI18N
+        BaseDocument document = createDocument(missing + "\n" + correct); // NOI18N
+        ImageSizeHints.DocumentHints hints = createHints(document);
+        hints.run();
+        assertEquals(1, hints.getErrors().size());
+
+        // the missing sizes are added
+        document.insertString(missing.length() - 1, " width=\"100\" height=\"50\"", null); // NOI18N
+        hints.run();
+        assertTrue(hints.getErrors().isEmpty());
+
+        // the correct width is changed
+        int offset = document.getText(0, document.getLength()).lastIndexOf("100"); // NOI18N
+        document.remove(offset, 3);
+        document.insertString(offset, "10", null); // NOI18N
+        hints.run();
+        List<ErrorDescription> errors = hints.getErrors();
+        assertEquals(1, errors.size());
+        assertEquals(Bundle.ImageSizeHints_mismatch(100, 50), errors.get(0).getDescription());
+        assertTrue(errors.get(0).getRange().getBegin().getOffset() > offset - correct.length());
+    }
+
+    public void testEditOutsideOfTags() throws Exception {
+        String missing = IMG + ">"; // NOI18N
+        BaseDocument document = createDocument("<p>\n" + missing + "\n</p>"); // NOI18N
+        ImageSizeHints.DocumentHints hints = createHints(document);
+        hints.run();
+        List<ErrorDescription> errors = hints.getErrors();
+        assertEquals(1, errors.size());
+
+        // hints of other tags are kept
+        document.insertString(0, "<h1>Title</h1>\n", null); // NOI18N
+        hints.run();
+        assertEquals(errors, hints.getErrors());
+
+        document.insertString(document.getLength(), "\n<p>text</p>", null); // NOI18N
+        hints.run();
+        assertEquals(errors, hints.getErrors());
+    }
+
+    public void testFix() throws Exception {
+        BaseDocument document = createDocument("<p>" + IMG + " width=\"10\"></p>"); // NOI18N
+        ImageSizeHints.DocumentHints hints = createHints(document);
+        hints.run();
+        List<ErrorDescription> errors = hints.getErrors();
+        assertEquals(1, errors.size());
+        List<Fix> fixes = errors.get(0).getFixes().getFixes();
+        assertEquals(1, fixes.size());
+        assertEquals(Bundle.ImageSizeHints_fix(100, 50), fixes.get(0).getText());
+
+        fixes.get(0).implement();
+        assertEquals("<p>" + IMG + " width=\"100\" height=\"50\"></p>", document.getText(0, document.getLength())); // NOI18N
+        hints.run();
+        assertTrue(hints.getErrors().isEmpty());
+    }
+
+    private BaseDocument createDocument(String text) throws Exception {
+        FileObject file = FileUtil.createData(root, "index.html"); // NOI18N
+        BaseDocument document = new BaseDocument(false, "text/html"); // NOI18N
+        document.putProperty(Language.class, HTMLTokenId.language());
+        document.putProperty(Document.StreamDescriptionProperty, DataObject.find(file));
+        document.insertString(0, text, null);
+        return document;
+    }
+
+    /**
+     * The task is not scheduled, the hints are checked by calling run().
+     */
+    private static ImageSizeHints.DocumentHints createHints(Document document) {
+        ImageSizeHints.DocumentHints hints = new ImageSizeHints.DocumentHints(document, Integer.MAX_VALUE);
+        document.addDocumentListener(hints);
+        hints.addRegion(0, document.getLength());
+        return hints;
+    }
+
+    private static ErrorDescription getError(List<ErrorDescription> errors, int start) {
+        for (ErrorDescription error : errors) {
+            if (error.getRange().getBegin().getOffset() == start) {
+                return error;
+            }
+        }
+        fail("No hint at " + start); // NOI18N
+        return null;
+    }
+
+    private static void assertError(String description, int start, int end, ErrorDescription error) throws BadLocationException {
+        assertEquals(description, error.getDescription());
+        assertEquals(start, error.getRange().getBegin().getOffset());
+        assertEquals(end, error.getRange().getEnd().getOffset());
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.indexing;
+
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageDimensions;
+import com.junichi11.netbeans.modules.html.enhancements.utils.TestImages;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import javax.swing.text.Document;
+import org.netbeans.api.java.classpath.ClassPath;
+import org.netbeans.api.java.classpath.GlobalPathRegistry;
+import org.netbeans.api.editor.mimelookup.MimePath;
+import org.netbeans.junit.MockServices;
+import org.netbeans.junit.NbTestCase;
+import org.netbeans.modules.parsing.api.Source;
+import org.netbeans.modules.parsing.api.indexing.IndexingManager;
+import org.netbeans.modules.parsing.impl.indexing.CacheFolder;
+import org.netbeans.modules.parsing.impl.indexing.RepositoryUpdater;
+import org.netbeans.modules.parsing.impl.indexing.implspi.ActiveDocumentProvider;
+import org.netbeans.modules.parsing.implspi.EnvironmentFactory;
+import org.netbeans.modules.parsing.implspi.SourceControl;
+import org.netbeans.modules.parsing.implspi.SourceEnvironment;
+import org.netbeans.modules.parsing.spi.Parser;
+import org.netbeans.modules.parsing.spi.Scheduler;
+import org.netbeans.modules.parsing.spi.indexing.PathRecognizer;
+import org.netbeans.spi.editor.document.EditorMimeTypesImplementation;
+import org.netbeans.spi.editor.mimelookup.MimeDataProvider;
+import org.netbeans.spi.java.classpath.ClassPathProvider;
+import org.netbeans.spi.java.classpath.support.ClassPathSupport;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.filesystems.MIMEResolver;
+import org.openide.util.Lookup;
+import org.openide.util.lookup.Lookups;
+
+/**
+ *
+ * @author junichi11
+ */
+public class ImageIndexTest extends NbTestCase {
+
+    private static final String SOURCE_PATH_ID = "html-enhancements-test-source"; // NOI18N
+    private static final String PNG_MIME_TYPE = "image/png"; // NOI18N
+    private static boolean started;
+    private static FileObject root;
+
+    private ClassPath[] classPaths;
+
+    public ImageIndexTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearWorkDir();
+        MockServices.setServices(MimeResolverImpl.class, MimeDataProviderImpl.class, PathRecognizerImpl.class,
+                ClassPathProviderImpl.class, ActiveDocumentProviderImpl.class, EnvironmentFactoryImpl.class,
+                EditorMimeTypesImpl.class);
+        if (!started) {
+            // RepositoryUpdater cannot be restarted
+            CacheFolder.setCacheFolder(FileUtil.createFolder(new File(getWorkDir().getParentFile(), "cache"))); // NOI18N
+            RepositoryUpdater.getDefault().start(true);
+            started = true;
+        }
+        root = FileUtil.createFolder(new File(getWorkDir(), "src")); // NOI18N
+        classPaths = new ClassPath[]{ClassPathSupport.createClassPath(root)};
+        GlobalPathRegistry.getDefault().register(SOURCE_PATH_ID, classPaths);
+        // wait for the scan of the new root
+        RepositoryUpdater.getDefault().waitUntilFinished(-1);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        GlobalPathRegistry.getDefault().unregister(SOURCE_PATH_ID, classPaths);
+        super.tearDown();
+    }
+
+    public void testGet() throws Exception {
+        FileObject image = TestImages.createFile(root, "test.png", 64, 32); // NOI18N
+        refreshIndex();
+        assertEquals(new ImageDimensions(64, 32), ImageIndex.get(image));
+    }
+
+    public void testModifiedImageIsIgnored() throws Exception {
+        FileObject image = TestImages.createFile(root, "test.png", 64, 32); // NOI18N
+        refreshIndex();
+        assertEquals(new ImageDimensions(64, 32), ImageIndex.get(image));
+
+        // the entry is stale until the image is indexed again
+        TestImages.write(image, TestImages.create("png", 640, 320)); // NOI18N
+        assertNull(ImageIndex.get(image));
+        refreshIndex();
+        assertEquals(new ImageDimensions(640, 320), ImageIndex.get(image));
+    }
+
+    private static void refreshIndex() throws Exception {
+        IndexingManager.getDefault().refreshIndexAndWait(root.toURL(), null, true);
+        // file events may be still processed
+        RepositoryUpdater.getDefault().waitUntilFinished(-1);
+    }
+
+    //~ Inner classes
+    public static final class MimeResolverImpl extends MIMEResolver {
+
+        public MimeResolverImpl() {
+            super(PNG_MIME_TYPE);
+        }
+
+        @Override
+        public String findMIMEType(FileObject fo) {
+            return "png".equals(fo.getExt()) ? PNG_MIME_TYPE : null; // NOI18N
+        }
+    }
+
+    public static final class MimeDataProviderImpl implements MimeDataProvider {
+
+        @Override
+        public Lookup getLookup(MimePath mimePath) {
+            if (PNG_MIME_TYPE.equals(mimePath.getPath())) {
+                return Lookups.singleton(new ImageIndexer.Factory());
+            }
+            return Lookup.EMPTY;
+        }
+    }
+
+    public static final class PathRecognizerImpl extends PathRecognizer {
+
+        @Override
+        public Set<String> getSourcePathIds() {
+            return Collections.singleton(SOURCE_PATH_ID);
+        }
+
+        @Override
+        public Set<String> getLibraryPathIds() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Set<String> getBinaryLibraryPathIds() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Set<String> getMimeTypes() {
+            return Collections.singleton(PNG_MIME_TYPE);
+        }
+    }
+
+    public static final class ClassPathProviderImpl implements ClassPathProvider {
+
+        @Override
+        public ClassPath findClassPath(FileObject file, String type) {
+            if (SOURCE_PATH_ID.equals(type) && root != null
+                    && (root.equals(file) || FileUtil.isParentOf(root, file))) {
+                return ClassPathSupport.createClassPath(root);
+            }
+            return null;
+        }
+    }
+
+    public static final class ActiveDocumentProviderImpl implements ActiveDocumentProvider {
+
+        @Override
+        public Document getActiveDocument() {
+            return null;
+        }
+
+        @Override
+        public Set<? extends Document> getActiveDocuments() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public void addActiveDocumentListener(ActiveDocumentListener listener) {
+        }
+
+        @Override
+        public void removeActiveDocumentListener(ActiveDocumentListener listener) {
+        }
+    }
+
+    public static final class EnvironmentFactoryImpl implements EnvironmentFactory {
+
+        @Override
+        public Lookup getContextLookup() {
+            return Lookup.getDefault();
+        }
+
+        @Override
+        public Class<? extends Scheduler> findStandardScheduler(String schedulerName) {
+            return null;
+        }
+
+        @Override
+        public Parser findMimeParser(Lookup context, String mimeType) {
+            return null;
+        }
+
+        @Override
+        public Collection<? extends Scheduler> getSchedulers(Lookup context) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public SourceEnvironment createEnvironment(Source source, SourceControl control) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T> T runPriorityIO(Callable<T> r) throws Exception {
+            return r.call();
+        }
+    }
+
+    public static final class EditorMimeTypesImpl implements EditorMimeTypesImplementation {
+
+        @Override
+        public Set<String> getSupportedMimeTypes() {
+            return Collections.singleton(PNG_MIME_TYPE);
+        }
+
+        @Override
+        public void addPropertyChangeListener(PropertyChangeListener listener) {
+        }
+
+        @Override
+        public void removePropertyChangeListener(PropertyChangeListener listener) {
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.ui.actions;
+
+import com.junichi11.netbeans.modules.html.enhancements.utils.DocUtils;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageDimensions;
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageDimensionsCache;
+import com.junichi11.netbeans.modules.html.enhancements.utils.TestImages;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Document;
+import javax.swing.text.StyledDocument;
+import javax.swing.undo.CompoundEdit;
+import javax.swing.undo.UndoManager;
+import org.netbeans.api.html.lexer.HTMLTokenId;
+import org.netbeans.api.lexer.Language;
+import org.netbeans.junit.MockServices;
+import org.netbeans.junit.NbTestCase;
+import org.netbeans.api.project.FileOwnerQuery;
+import org.netbeans.api.project.Project;
+import org.netbeans.spi.project.FileOwnerQueryImplementation;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.filesystems.MIMEResolver;
+import org.openide.loaders.DataObject;
+import org.openide.text.NbDocument;
+
+/**
+ *
+ * @author junichi11
+ */
+public class ImageSizesUpdaterTest extends NbTestCase {
+
+    public ImageSizesUpdaterTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        MockServices.setServices(MimeResolverImpl.class, FileOwnerQueryImpl.class);
+    }
+
+    public void testCollectFilesSkipsIgnoredFolders() throws Exception {
+        clearWorkDir();
+        FileObject root = FileUtil.toFileObject(getWorkDir());
+        FileObject index = FileUtil.createData(root, "index.html"); // NOI18N
+        FileObject page = FileUtil.createData(root, "pages/page.html"); // NOI18N
+        FileUtil.createData(root, "node_modules/lib/readme.html"); // NOI18N
+        FileUtil.createData(root, "vendor/lib/index.php"); // NOI18N
+        FileUtil.createData(root, ".git/description.html"); // NOI18N
+        FileUtil.createData(root, "style.css"); // NOI18N
+
+        List<FileObject> files = ImageSizesUpdater.collectFiles(Collections.singletonList(root), file -> true);
+        assertEquals(2, files.size());
+        assertTrue(files.contains(index));
+        assertTrue(files.contains(page));
+    }
+
+    public void testCollectFilesWithFilter() throws Exception {
+        clearWorkDir();
+        FileObject root = FileUtil.toFileObject(getWorkDir());
+        FileObject index = FileUtil.createData(root, "index.html"); // NOI18N
+        FileObject excluded = FileUtil.createFolder(root, "excluded"); // NOI18N
+        FileUtil.createData(excluded, "page.html"); // NOI18N
+
+        List<FileObject> files = ImageSizesUpdater.collectFiles(Collections.singletonList(root), file -> !file.equals(excluded));
+        assertEquals(Collections.singletonList(index), files);
+    }
+
+    public void testUpdateDocument() throws Exception {
+        clearWorkDir();
+        FileObject root = FileUtil.toFileObject(getWorkDir());
+        createImage(root, "a.png", 100, 50); // NOI18N
+        createImage(root, "b.png", 20, 10); // NOI18N
+        String text = "<p>\n" // NOI18N
+                + "<img src=\"a.png\">\n" // NOI18N
+                + "<img src=\"a.png\" width=\"1\">\n" // NOI18N
+                + "<img src=\"b.png\" width=\"20\" height=\"10\">\n" // NOI18N
+                + "<img src=\"missing.png\">\n" // NOI18N
+                + "</p>"; // NOI18N
+        StyledDocument document = createDocument(root, text);
+        UndoManager undoManager = new UndoManager();
+        document.addUndoableEditListener(undoManager);
+
+        // duplicate images are read once, tags which already have the sizes are not counted
+        assertEquals(2, new ImageSizesUpdater().update(document, null));
+        assertEquals("<p>\n" // NOI18N
+                + "<img src=\"a.png\" width=\"100\" height=\"50\">\n" // NOI18N
+                + "<img src=\"a.png\" width=\"100\" height=\"50\">\n" // NOI18N
+                + "<img src=\"b.png\" width=\"20\" height=\"10\">\n" // NOI18N
+                + "<img src=\"missing.png\">\n" // NOI18N
+                + "</p>", getText(document)); // NOI18N
+
+        // one undo reverts all changes
+        undoManager.undo();
+        assertEquals(text, getText(document));
+        assertFalse(undoManager.canUndo());
+    }
+
+    public void testUpdateDocumentWithoutChanges() throws Exception {
+        clearWorkDir();
+        FileObject root = FileUtil.toFileObject(getWorkDir());
+        createImage(root, "a.png", 100, 50); // NOI18N
+        String text = "<img src=\"a.png\" width=\"100\" height=\"50\"><img src=\"a.png\" height=\"50\" width=\"100\">"; // NOI18N
+        StyledDocument document = createDocument(root, text);
+        UndoManager undoManager = new UndoManager();
+        document.addUndoableEditListener(undoManager);
+
+        assertEquals(0, new ImageSizesUpdater().update(document, null));
+        assertEquals(text, getText(document));
+        assertFalse(undoManager.canUndo());
+    }
+
+    public void testUpdateDocumentCancelled() throws Exception {
+        clearWorkDir();
+        FileObject root = FileUtil.toFileObject(getWorkDir());
+        createImage(root, "a.png", 100, 50); // NOI18N
+        String text = "<img src=\"a.png\">"; // NOI18N
+        StyledDocument document = createDocument(root, text);
+
+        ImageSizesUpdater updater = new ImageSizesUpdater();
+        assertTrue(updater.cancel());
+        assertEquals(0, updater.update(document, null));
+        assertEquals(text, getText(document));
+    }
+
+    public void testUpdateFile() throws Exception {
+        clearWorkDir();
+        FileObject root = FileUtil.toFileObject(getWorkDir());
+        createImage(root, "a.png", 100, 50); // NOI18N
+        FileObject file = FileUtil.createData(root, "index.html"); // NOI18N
+        write(file, "<p>\r\n<img src=\"a.png\">\r\n<img src=\"a.png\" width=\"100\" height=\"50\">\r\n</p>\r\n"); // NOI18N
+
+        // the file is not opened in the editor, so it is rewritten
+        assertTrue(new ImageSizesUpdater().update(file));
+        assertEquals("<p>\r\n<img src=\"a.png\" width=\"100\" height=\"50\">\r\n<img src=\"a.png\" width=\"100\" height=\"50\">\r\n</p>\r\n", // NOI18N
+                file.asText(StandardCharsets.UTF_8.name()));
+        assertFalse(DataObject.find(file).isModified());
+
+        // nothing is changed
+        long lastModified = file.lastModified().getTime();
+        assertFalse(new ImageSizesUpdater().update(file));
+        assertEquals(lastModified, file.lastModified().getTime());
+    }
+
+    /**
+     * The project index is not available, so the dimensions are cached.
+     */
+    private static void createImage(FileObject folder, String name, int width, int height) throws IOException {
+        FileObject image = TestImages.createFile(folder, name, width, height);
+        ImageDimensionsCache.getDefault().put(image, new ImageDimensions(width, height));
+    }
+
+    private static StyledDocument createDocument(FileObject folder, String text) throws IOException, BadLocationException {
+        FileObject file = FileUtil.createData(folder, "index.html"); // NOI18N
+        StyledDocument document = new AtomicDocument();
+        document.putProperty(Language.class, HTMLTokenId.language());
+        document.putProperty(Document.StreamDescriptionProperty, DataObject.find(file));
+        document.insertString(0, text, null);
+        return document;
+    }
+
+    private static String getText(Document document) throws BadLocationException {
+        return document.getText(0, document.getLength());
+    }
+
+    private static void write(FileObject file, String text) throws IOException {
+        TestImages.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    //~ Inner classes
+    /**
+     * Changes in an atomic edit are undone at once like the editor document.
+     */
+    private static final class AtomicDocument extends DefaultStyledDocument implements NbDocument.WriteLockable {
+
+        private static final long serialVersionUID = 1L;
+        private CompoundEdit atomicEdit;
+
+        @Override
+        public void runAtomic(Runnable runnable) {
+            try {
+                runAtomicAsUser(runnable);
+            } catch (BadLocationException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        @Override
+        public void runAtomicAsUser(Runnable runnable) throws BadLocationException {
+            writeLock();
+            CompoundEdit edit = new CompoundEdit();
+            try {
+                atomicEdit = edit;
+                runnable.run();
+            } finally {
+                atomicEdit = null;
+                writeUnlock();
+            }
+            edit.end();
+            if (edit.isSignificant()) {
+                super.fireUndoableEditUpdate(new UndoableEditEvent(this, edit));
+            }
+        }
+
+        @Override
+        protected void fireUndoableEditUpdate(UndoableEditEvent event) {
+            if (atomicEdit != null) {
+                atomicEdit.addEdit(event.getEdit());
+            } else {
+                super.fireUndoableEditUpdate(event);
+            }
+        }
+    }
+
+    public static final class MimeResolverImpl extends MIMEResolver {
+
+        public MimeResolverImpl() {
+            super(DocUtils.HTML_MIME_TYPE, DocUtils.PHP_MIME_TYPE);
+        }
+
+        @Override
+        public String findMIMEType(FileObject fo) {
+            switch (fo.getExt()) {
+                case "html": // NOI18N
+                    return DocUtils.HTML_MIME_TYPE;
+                case "php": // NOI18N
+                    return DocUtils.PHP_MIME_TYPE;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * Files are not owned by projects, so no project manager is needed.
+     */
+    public static final class FileOwnerQueryImpl implements FileOwnerQueryImplementation {
+
+        @Override
+        public Project getOwner(URI file) {
+            return FileOwnerQuery.UNOWNED;
+        }
+
+        @Override
+        public Project getOwner(FileObject file) {
+            return FileOwnerQuery.UNOWNED;
+        }
+    }
+}
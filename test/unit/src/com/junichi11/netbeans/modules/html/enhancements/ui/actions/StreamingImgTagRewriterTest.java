@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.ui.actions;
+
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageDimensions;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import org.netbeans.junit.NbTestCase;
+
+/**
+ *
+ * @author junichi11
+ */
+public class StreamingImgTagRewriterTest extends NbTestCase {
+
+    private static final ImageDimensions DIMENSIONS = new ImageDimensions(100, 200);
+
+    public StreamingImgTagRewriterTest(String name) {
+        super(name);
+    }
+
+    public void testRewrite() throws Exception {
+        assertEquals("<p><img src=\"a.png\" width=\"100\" height=\"200\" /></p>", // NOI18N
+                rewrite("<p><img src=\"a.png\"/></p>", 8192)); // NOI18N
+        assertEquals("<IMG SRC='a.png' width='100' height='200'>", // NOI18N
+                rewrite("<IMG SRC='a.png' width='1' height='2'>", 8192)); // NOI18N
+        assertEquals("<img src=\"a.png\" alt=\"a > b\" width=\"100\" height=\"200\">", // NOI18N
+                rewrite("<img src=\"a.png\" alt=\"a > b\">", 8192)); // NOI18N
+        // no src, unknown image
+        assertEquals("<img alt=\"a\"><img src=\"unknown.png\">", // NOI18N
+                rewrite("<img alt=\"a\"><img src=\"unknown.png\">", 8192)); // NOI18N
+        // not img
+        assertEquals("<imgx src=\"a.png\"><image src=\"a.png\"></img>", // NOI18N
+                rewrite("<imgx src=\"a.png\"><image src=\"a.png\"></img>", 8192)); // NOI18N
+        // unclosed
+        assertEquals("<p><img src=\"a.png\"", rewrite("<p><img src=\"a.png\"", 8192)); // NOI18N
+    }
+
+    public void testRewriteUnchanged() throws Exception {
+        // already has the size
+        String html = "<img src=\"a.png\" width=\"100\" height=\"200\"/>"; // NOI18N
+        StreamingImgTagRewriter rewriter = new StreamingImgTagRewriter(src -> DIMENSIONS, null);
+        StringWriter writer = new StringWriter();
+        assertEquals(0, rewriter.rewrite(new StringReader(html), writer));
+        assertEquals(1, rewriter.getTags());
+        assertEquals(html, writer.toString());
+    }
+
+    public void testRewriteSkipsCommentsAndRawText() throws Exception {
+        String html = "<!-- <img src=\"a.png\"> -->" // NOI18N
+                + "<script>var s = '<img src=\"a.png\">';</script>" // NOI18N
+                + "<style>/* <img src=\"a.png\"> */</STYLE>" // NOI18N
+                + "<img src=\"a.png\">"; // NOI18N
+        String expected = "<!-- <img src=\"a.png\"> -->" // NOI18N
+                + "<script>var s = '<img src=\"a.png\">';</script>" // NOI18N
+                + "<style>/* <img src=\"a.png\"> */</STYLE>" // NOI18N
+                + "<img src=\"a.png\" width=\"100\" height=\"200\">"; // NOI18N
+        assertEquals(expected, rewrite(html, 8192));
+        assertEquals(expected, rewrite(html, 3));
+    }
+
+    public void testRewriteAcrossBufferBoundaries() throws Exception {
+        StringBuilder html = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            html.append("<div>").append(i).append("<<img\n src=\"a.png\" alt='").append(i).append("'/></div>\n"); // NOI18N
+            expected.append("<div>").append(i).append("<<img\n src=\"a.png\" alt='").append(i).append("' width=\"100\" height=\"200\" /></div>\n"); // NOI18N
+        }
+        for (int bufferSize = 1; bufferSize < 40; bufferSize++) {
+            assertEquals("buffer size: " + bufferSize, expected.toString(), rewrite(html.toString(), bufferSize)); // NOI18N
+        }
+    }
+
+    public void testListener() throws Exception {
+        List<String> updated = new ArrayList<>();
+        StreamingImgTagRewriter rewriter = new StreamingImgTagRewriter(
+                src -> src.equals("a.png") ? DIMENSIONS : null, // NOI18N
+                (line, oldTag, newTag) -> updated.add(line + ":" + oldTag + ":" + newTag), // NOI18N
+                4);
+        StringWriter writer = new StringWriter();
+        int count = rewriter.rewrite(new StringReader("<p>\n<img src=\"b.png\">\n\n<img src=\"a.png\">\n</p>"), writer); // NOI18N
+        assertEquals(1, count);
+        assertEquals(2, rewriter.getTags());
+        assertEquals(1, updated.size());
+        assertEquals("4:<img src=\"a.png\">:<img src=\"a.png\" width=\"100\" height=\"200\">", updated.get(0)); // NOI18N
+    }
+
+    private static String rewrite(String html, int bufferSize) throws Exception {
+        StreamingImgTagRewriter rewriter = new StreamingImgTagRewriter(
+                src -> src.equals("a.png") ? DIMENSIONS : null, // NOI18N
+                null,
+                bufferSize);
+        StringWriter writer = new StringWriter();
+        rewriter.rewrite(new StringReader(html), writer);
+        return writer.toString();
+    }
+}
@@ -15,10 +15,15 @@
  */
 package com.junichi11.netbeans.modules.html.enhancements.ui.actions;
 
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImgTag;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.netbeans.api.html.lexer.HTMLTokenId;
+import org.netbeans.api.lexer.Language;
 import org.netbeans.junit.NbTestCase;
 
 /**
@@ -100,4 +105,49 @@ public class UpdateImageSizeActionTest extends NbTestCase {
         assertEquals(expResult, result);
     }
 
+    public void testUpdateImgTagQuotes() {
+        assertEquals("<img src='test.png' width='100' height='200' />", // NOI18N
+                UpdateImageSizeAction.updateImgTag("<img src='test.png' width='2' height='3'/>", 100, 200)); // NOI18N
+        assertEquals("<img src=test.png width=100 height=200 />", // NOI18N
+                UpdateImageSizeAction.updateImgTag("<img src=test.png width=2 height=3 />", 100, 200)); // NOI18N
+        assertEquals("<img src=\"test.png\" width=\"100\" height='200' />", // NOI18N
+                UpdateImageSizeAction.updateImgTag("<img src=\"test.png\" width=\"2px\" height='3px' />", 100, 200)); // NOI18N
+        assertEquals("<img src=\"test.png\" WIDTH = \"100\" height=\"200\" />", // NOI18N
+                UpdateImageSizeAction.updateImgTag("<img src=\"test.png\" WIDTH = \"2\" />", 100, 200)); // NOI18N
+        assertEquals("<img width=\"100\" src=\"test.png\" height=\"200\" />", // NOI18N
+                UpdateImageSizeAction.updateImgTag("<img width src=\"test.png\" />", 100, 200)); // NOI18N
+    }
+
+    public void testUpdateImgTagNotSelfClosing() {
+        assertEquals("<img src=\"test.png\" width=\"100\" height=\"200\">", // NOI18N
+                UpdateImageSizeAction.updateImgTag("<img src=\"test.png\">", 100, 200)); // NOI18N
+        assertEquals("<img src=\"images/a.png\" alt=\"a > b\" height=\"200\" width=\"100\">", // NOI18N
+                UpdateImageSizeAction.updateImgTag("<img src=\"images/a.png\" alt=\"a > b\" height=\"3\">", 100, 200)); // NOI18N
+    }
+
+    public void testUpdateImgTagInDocument() throws Exception {
+        assertEquals("<p><img src=\"test.png\" width=\"100\" height=\"200\" /></p>", // NOI18N
+                updateImgTagInDocument("<p><img src=\"test.png\"/></p>", 100, 200)); // NOI18N
+        assertEquals("<p><img src=\"test.png\" width=\"100\" height=\"200\" /></p>", // NOI18N
+                updateImgTagInDocument("<p><img src=\"test.png\" /></p>", 100, 200)); // NOI18N
+        assertEquals("<p><img src=\"test.png\" width=\"100\" height=\"200\"></p>", // NOI18N
+                updateImgTagInDocument("<p><img src=\"test.png\"></p>", 100, 200)); // NOI18N
+        assertEquals("<p><img src=\"test.png\" height='200' width=\"100\" /></p>", // NOI18N
+                updateImgTagInDocument("<p><img src=\"test.png\" height='2' /></p>", 100, 200)); // NOI18N
+        assertEquals("<p><img src=\"test.png\" width=\"100\"\n     height=\"200\" /></p>", // NOI18N
+                updateImgTagInDocument("<p><img src=\"test.png\" width=\"\"\n     height=\"3px\" /></p>", 100, 200)); // NOI18N
+        // case-insensitive
+        assertEquals("<p><IMG SRC=\"test.png\" WIDTH=\"100\" height=\"200\"></p>", // NOI18N
+                updateImgTagInDocument("<p><IMG SRC=\"test.png\" WIDTH=\"2\"></p>", 100, 200)); // NOI18N
+    }
+
+    private static String updateImgTagInDocument(String text, int width, int height) throws Exception {
+        Document doc = new PlainDocument();
+        doc.putProperty(Language.class, HTMLTokenId.language());
+        doc.insertString(0, text, null);
+        ImgTag imgTag = ImgTag.find(doc, 6);
+        assertNotNull(imgTag);
+        UpdateImageSizeAction.updateImgTag(doc, imgTag, width, height);
+        return doc.getText(0, doc.getLength());
+    }
 }
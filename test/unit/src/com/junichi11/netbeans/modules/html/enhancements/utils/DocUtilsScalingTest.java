@@ -0,0 +1,367 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import com.junichi11.netbeans.modules.html.enhancements.ui.actions.UpdateImageSizeAction;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.GapContent;
+import javax.swing.text.PlainDocument;
+import org.netbeans.api.html.lexer.HTMLTokenId;
+import org.netbeans.api.lexer.Language;
+import org.netbeans.junit.NbTestCase;
+import org.netbeans.modules.csl.api.OffsetRange;
+
+/**
+ * Scaling tests of scanning documents and rewriting img tags with generated
+ * inputs. The time and the allocated memory per character must not grow with
+ * the input size, i.e. the cost grows at most linearly. Inputs are at most
+ * 4MB by default. The largest input size can be changed with
+ * "html.enhancements.stress.maxSize", and "ant test-stress" runs the tests with
+ * 50MB documents.
+ *
+ * @author junichi11
+ */
+public class DocUtilsScalingTest extends NbTestCase {
+
+    private static final int MAX_SIZE = Integer.getInteger("html.enhancements.stress.maxSize", 4 * 1024 * 1024); // NOI18N
+    private static final int[] DOCUMENT_SIZES = {1024, 16 * 1024, 256 * 1024, 4 * 1024 * 1024, 50 * 1024 * 1024};
+    private static final int[] TAG_SIZES = {1024, 16 * 1024, 256 * 1024, 4 * 1024 * 1024};
+    private static final int[] TAG_COUNTS = {250, 1000, 4000, 16000};
+    // smaller documents don't reach the scan window of DocUtils
+    private static final int REFERENCE_SIZE = 256 * 1024;
+    // allowed growth of the cost per character, timers of CI machines are noisy
+    private static final double TIME_FACTOR = 4.0;
+    private static final double ALLOCATION_FACTOR = 2.0;
+    private static final int TRIALS = 3;
+    private static final long MIN_MEASURE_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    public DocUtilsScalingTest(String name) {
+        super(name);
+    }
+
+    public void testGetImgRangeFormatted() throws Exception {
+        List<Cost> costs = new ArrayList<>();
+        for (int size : getSizes(DOCUMENT_SIZES)) {
+            Workload workload = generate(size, 1, (sb, i) -> {
+                sb.append("    <div class=\"item\">\n        "); // NOI18N
+                int offset = sb.length() + 10;
+                sb.append("<img src=\"images/photo").append(i).append(".png\" alt=\"photo ").append(i).append("\" />\n"); // NOI18N
+                sb.append("    </div>\n"); // NOI18N
+                return offset;
+            });
+            costs.add(measure(workload.length(), () -> () -> {
+                for (int i = 0; i < workload.count; i++) {
+                    OffsetRange range = DocUtils.getImgRange(workload.document, workload.offsets[i]);
+                    assertTrue(range.getLength() > 0);
+                }
+            }));
+        }
+        assertLinear(costs, REFERENCE_SIZE);
+    }
+
+    public void testGetImgTagMinified() throws Exception {
+        List<Cost> costs = new ArrayList<>();
+        for (int size : getSizes(DOCUMENT_SIZES)) {
+            // one line
+            Workload workload = generate(size, 1, (sb, i) -> {
+                sb.append("<li><a href=\"/p/").append(i).append("\">"); // NOI18N
+                int offset = sb.length() + 5;
+                sb.append("<img src=\"images/photo").append(i).append(".png\" alt=\"\"></a></li>"); // NOI18N
+                return offset;
+            });
+            costs.add(measure(workload.length(), () -> () -> {
+                for (int i = 0; i < workload.count; i++) {
+                    String imgTag = DocUtils.getImgTag(workload.document, workload.offsets[i]);
+                    assertTrue(imgTag.startsWith("<img ")); // NOI18N
+                }
+            }));
+        }
+        assertLinear(costs, REFERENCE_SIZE);
+    }
+
+    public void testGetImgRangeUnterminated() throws Exception {
+        char[] filler = new char[1000];
+        Arrays.fill(filler, 'x');
+        List<Cost> costs = new ArrayList<>();
+        for (int size : getSizes(DOCUMENT_SIZES)) {
+            // no ">", each query scans the whole window
+            Workload workload = generate(size, 16, (sb, i) -> {
+                int offset = sb.length() + 12;
+                sb.append("<img <img src=\"images/a").append(i).append(".png\" alt=\"").append(filler); // NOI18N
+                return offset;
+            });
+            costs.add(measure(workload.length(), () -> () -> {
+                for (int i = 0; i < workload.count; i++) {
+                    assertEquals(OffsetRange.NONE, DocUtils.getImgRange(workload.document, workload.offsets[i]));
+                }
+            }));
+        }
+        assertLinear(costs, REFERENCE_SIZE);
+    }
+
+    public void testUpdateImgTagManyAttributes() throws Exception {
+        List<Cost> costs = new ArrayList<>();
+        for (int size : getSizes(TAG_SIZES)) {
+            StringBuilder sb = new StringBuilder(size + 64);
+            sb.append("<img src=\"test.png\""); // NOI18N
+            for (int i = 0; sb.length() < size; i++) {
+                sb.append(" data-a").append(i).append("='").append(i).append('\''); // NOI18N
+            }
+            sb.append(" width=\"2px\" />"); // NOI18N
+            String tag = sb.toString();
+            costs.add(measure(tag.length(), () -> () -> {
+                String result = UpdateImageSizeAction.updateImgTag(tag, 100, 200);
+                assertTrue(result.endsWith(" width=\"100\" height=\"200\" />")); // NOI18N
+            }));
+        }
+        assertLinear(costs, TAG_SIZES[1]);
+    }
+
+    public void testUpdateImgTagUnterminated() throws Exception {
+        List<Cost> costs = new ArrayList<>();
+        for (int size : getSizes(TAG_SIZES)) {
+            char[] value = new char[size];
+            Arrays.fill(value, 'a');
+            // neither the quote nor the tag is closed
+            String tag = "<img width=\"1\" src=\"" + new String(value); // NOI18N
+            costs.add(measure(tag.length(), () -> () -> {
+                String result = UpdateImageSizeAction.updateImgTag(tag, 100, 200);
+                assertTrue(result.startsWith("<img width=\"100\" src=\"")); // NOI18N
+            }));
+        }
+        assertLinear(costs, TAG_SIZES[1]);
+    }
+
+    public void testUpdateImgTagsInDocument() throws Exception {
+        List<Cost> costs = new ArrayList<>();
+        for (int count : TAG_COUNTS) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("<html>\n<body>\n"); // NOI18N
+            for (int i = 0; i < count; i++) {
+                sb.append("<p><img src=\"images/photo").append(i).append(".png\" alt=\"\" height=\"1\"></p>\n"); // NOI18N
+            }
+            sb.append("</body>\n</html>\n"); // NOI18N
+            String text = sb.toString();
+            costs.add(measure(text.length(), () -> {
+                Document document = new PlainDocument();
+                document.putProperty(Language.class, HTMLTokenId.language());
+                document.insertString(0, text, null);
+                return () -> {
+                    List<ImgTag> imgTags = ImgTag.findAll(document);
+                    assertEquals(count, imgTags.size());
+                    // from the end, so that the ranges of the other tags are kept
+                    for (int i = imgTags.size() - 1; i >= 0; i--) {
+                        UpdateImageSizeAction.updateImgTag(document, imgTags.get(i), 100, 200);
+                    }
+                };
+            }));
+        }
+        assertLinear(costs, costs.get(0).size);
+    }
+
+    private static int[] getSizes(int[] sizes) {
+        return Arrays.stream(sizes)
+                .filter(size -> size <= MAX_SIZE)
+                .toArray();
+    }
+
+    private static Workload generate(int size, int queryInterval, UnitWriter writer) throws BadLocationException {
+        TextDocument document = new TextDocument(size + CHUNK_SIZE);
+        Workload workload = new Workload(document);
+        StringBuilder sb = new StringBuilder(CHUNK_SIZE + 1024);
+        for (int i = 0; document.getLength() + sb.length() < size; i++) {
+            int offset = writer.write(sb, i);
+            if (i % queryInterval == 0) {
+                workload.add(document.getLength() + offset);
+            }
+            if (sb.length() >= CHUNK_SIZE) {
+                document.insertString(document.getLength(), sb.toString(), null);
+                sb.setLength(0);
+            }
+        }
+        document.insertString(document.getLength(), sb.toString(), null);
+        return workload;
+    }
+
+    /**
+     * Measure the best time and allocation of a task. Small inputs are
+     * repeated so that the timer resolution doesn't matter.
+     *
+     * @param size the input size
+     * @param setUp creates the task, not measured
+     * @return the cost
+     */
+    private static Cost measure(int size, Callable<Task> setUp) throws Exception {
+        long bestNanos = Long.MAX_VALUE;
+        long bestBytes = Long.MAX_VALUE;
+        for (int trial = 0; trial < TRIALS; trial++) {
+            long nanos = 0;
+            long bytes = 0;
+            int repeat = 0;
+            while (nanos < MIN_MEASURE_NANOS) {
+                Task task = setUp.call();
+                long allocated = getAllocatedBytes();
+                long start = System.nanoTime();
+                task.run();
+                nanos += System.nanoTime() - start;
+                bytes += getAllocatedBytes() - allocated;
+                repeat++;
+            }
+            bestNanos = Math.min(bestNanos, nanos / repeat);
+            bestBytes = Math.min(bestBytes, bytes / repeat);
+        }
+        // -1: allocated bytes are not available
+        return new Cost(size, bestNanos, getAllocatedBytes() < 0 ? -1 : bestBytes);
+    }
+
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check that the cost per character of inputs larger than the reference
+     * size doesn't grow.
+     */
+    private static void assertLinear(List<Cost> costs, int referenceSize) {
+        Cost reference = null;
+        for (Cost cost : costs) {
+            if (cost.size >= referenceSize) {
+                reference = cost;
+                break;
+            }
+        }
+        if (reference == null) {
+            // the max size is too small
+            return;
+        }
+        for (Cost cost : costs) {
+            if (cost.size <= reference.size) {
+                continue;
+            }
+            assertTrue("time: " + costs, cost.getNanosPerChar() <= reference.getNanosPerChar() * TIME_FACTOR); // NOI18N
+            if (cost.bytes >= 0 && reference.bytes >= 0) {
+                // + 1: fixed costs (e.g. a few objects for each call)
+                assertTrue("allocation: " + costs, cost.getBytesPerChar() <= reference.getBytesPerChar() * ALLOCATION_FACTOR + 1); // NOI18N
+            }
+        }
+    }
+
+    //~ Inner classes
+    private interface UnitWriter {
+
+        /**
+         * Append a unit of the document.
+         *
+         * @return the query offset in the appended text
+         */
+        int write(StringBuilder sb, int index);
+    }
+
+    private interface Task {
+
+        void run() throws Exception;
+    }
+
+    private static final class Workload {
+
+        private final Document document;
+        private int[] offsets = new int[1024];
+        private int count;
+
+        Workload(Document document) {
+            this.document = document;
+        }
+
+        void add(int offset) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = offset;
+        }
+
+        int length() {
+            return document.getLength();
+        }
+    }
+
+    private static final class Cost {
+
+        private final int size;
+        private final long nanos;
+        private final long bytes;
+
+        Cost(int size, long nanos, long bytes) {
+            this.size = size;
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+
+        double getNanosPerChar() {
+            return (double) nanos / size;
+        }
+
+        double getBytesPerChar() {
+            return (double) bytes / size;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d chars: %.2f ns/char, %.2f bytes/char", size, getNanosPerChar(), getBytesPerChar()); // NOI18N
+        }
+    }
+
+    /**
+     * Document without line elements, so that large documents stay small.
+     */
+    private static final class TextDocument extends AbstractDocument {
+
+        private static final long serialVersionUID = 1L;
+        private final Element root;
+
+        TextDocument(int capacity) {
+            super(new GapContent(capacity));
+            root = createBranchElement(null, null);
+        }
+
+        @Override
+        public Element getDefaultRootElement() {
+            return root;
+        }
+
+        @Override
+        public Element getParagraphElement(int pos) {
+            return root;
+        }
+    }
+}
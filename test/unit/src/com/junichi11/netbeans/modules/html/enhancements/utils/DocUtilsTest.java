@@ -15,8 +15,11 @@
  */
 package com.junichi11.netbeans.modules.html.enhancements.utils;
 
+import java.io.ByteArrayOutputStream;
+import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultStyledDocument;
 import javax.swing.text.Document;
+import javax.swing.text.Segment;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -148,6 +151,88 @@ public class DocUtilsTest extends NbTestCase {
         assertNull(result);
     }
 
+    public void testGetImgRangeDocumentStart() throws Exception {
+        Document doc = new DefaultStyledDocument();
+        doc.insertString(0, "<img src=\"test.png\">", null); // NOI18N
+        OffsetRange result = DocUtils.getImgRange(doc, 3);
+        assertEquals(0, result.getStart());
+        assertEquals(20, result.getEnd());
+
+        doc = new DefaultStyledDocument();
+        doc.insertString(0, "<div>test</div>", null); // NOI18N
+        assertEquals(OffsetRange.NONE, DocUtils.getImgRange(doc, 3));
+    }
+
+    public void testGetImgRangeLongTag() throws Exception {
+        StringBuilder sb = new StringBuilder("<p>test</p><img src=\"data:image/png;base64,"); // NOI18N
+        for (int i = 0; i < 200000; i++) {
+            sb.append('A');
+        }
+        sb.append("\" alt=\"\" /><p>test</p>"); // NOI18N
+        String text = sb.toString();
+        int start = text.indexOf("<img "); // NOI18N
+        int end = text.indexOf("/>") + 2; // NOI18N
+        CountingDocument doc = new CountingDocument(text);
+
+        OffsetRange result = DocUtils.getImgRange(doc, end - 5, Integer.MAX_VALUE);
+        assertEquals(start, result.getStart());
+        assertEquals(end, result.getEnd());
+        // proportional to the tag length
+        assertTrue(doc.getReadCount() <= 2 * (end - start));
+
+        // the tag is longer than the scan window
+        assertEquals(OffsetRange.NONE, DocUtils.getImgRange(doc, end - 5, 1000));
+    }
+
+    public void testGetImgRangeMinified() throws Exception {
+        String tag = "<img src=\"imgs/test1.png\" alt=\"\" width=\"642\" height=\"493\" />"; // NOI18N
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append("<div>").append(tag).append("</div>"); // NOI18N
+        }
+        CountingDocument doc = new CountingDocument(sb.toString());
+        int tagStart = 5000 * (tag.length() + 11) + 5;
+        for (int offset = tagStart + 1; offset < tagStart + tag.length(); offset++) {
+            doc.resetReadCount();
+            OffsetRange result = DocUtils.getImgRange(doc, offset);
+            assertEquals(tagStart, result.getStart());
+            assertEquals(tagStart + tag.length(), result.getEnd());
+            // the cost doesn't depend on the document length
+            assertTrue(doc.getReadCount() <= 4 * tag.length());
+        }
+    }
+
+    public void testProbe() throws Exception {
+        clearWorkDir();
+        // local file
+        FileObject workDir = FileUtil.toFileObject(getWorkDir());
+        FileObject local = TestImages.createFile(workDir, "local.png", 64, 32); // NOI18N
+        assertEquals(new ImageDimensions(64, 32), DocUtils.probe(local));
+
+        // not on the local disk (e.g. in an archive)
+        FileObject memory = FileUtil.createMemoryFileSystem().getRoot().createData("memory.gif"); // NOI18N
+        TestImages.write(memory, TestImages.create("gif", 3, 5)); // NOI18N
+        assertNull(FileUtil.toFile(memory));
+        assertEquals(new ImageDimensions(3, 5), DocUtils.probe(memory));
+    }
+
+    public void testProbeLargeHeader() throws Exception {
+        clearWorkDir();
+        // the header is not in the first mapped region
+        byte[] jpeg = TestImages.create("jpg", 40, 30); // NOI18N
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2); // SOI
+        for (int i = 0; i < 3; i++) {
+            // APP1
+            out.write(new byte[]{(byte) 0xFF, (byte) 0xE1, (byte) 0xFF, (byte) 0xFF});
+            out.write(new byte[0xFFFF - 2]);
+        }
+        out.write(jpeg, 2, jpeg.length - 2);
+        FileObject image = FileUtil.toFileObject(getWorkDir()).createData("large.jpg"); // NOI18N
+        TestImages.write(image, out.toByteArray());
+        assertEquals(new ImageDimensions(40, 30), DocUtils.probe(image));
+    }
+
     private FileObject getTestFile(String relativePath) {
         return FileUtil.toFileObject(getDataDir()).getFileObject(relativePath);
     }
@@ -159,4 +244,35 @@ public class DocUtilsTest extends NbTestCase {
         return doc;
     }
 
+    //~ Inner classes
+    private static final class CountingDocument extends DefaultStyledDocument {
+
+        private static final long serialVersionUID = 1L;
+        private long readCount;
+
+        CountingDocument(String text) throws BadLocationException {
+            insertString(0, text, null);
+            resetReadCount();
+        }
+
+        @Override
+        public String getText(int offset, int length) throws BadLocationException {
+            readCount += length;
+            return super.getText(offset, length);
+        }
+
+        @Override
+        public void getText(int offset, int length, Segment txt) throws BadLocationException {
+            super.getText(offset, length, txt);
+            readCount += txt.count;
+        }
+
+        long getReadCount() {
+            return readCount;
+        }
+
+        void resetReadCount() {
+            readCount = 0;
+        }
+    }
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.io.OutputStream;
+import org.netbeans.junit.NbTestCase;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+
+/**
+ *
+ * @author junichi11
+ */
+public class ImageDimensionsCacheTest extends NbTestCase {
+
+    private FileObject root;
+
+    public ImageDimensionsCacheTest(String name) {
+        super(name);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        root = FileUtil.createMemoryFileSystem().getRoot();
+    }
+
+    public void testGetAndPut() throws Exception {
+        ImageDimensionsCache cache = new ImageDimensionsCache(10);
+        FileObject image = root.createData("test.png"); // NOI18N
+        assertNull(cache.get(image));
+
+        ImageDimensions dimensions = new ImageDimensions(100, 200);
+        cache.put(image, dimensions);
+        assertSame(dimensions, cache.get(image));
+    }
+
+    public void testEviction() throws Exception {
+        ImageDimensionsCache cache = new ImageDimensionsCache(2);
+        FileObject image1 = root.createData("test1.png"); // NOI18N
+        FileObject image2 = root.createData("test2.png"); // NOI18N
+        FileObject image3 = root.createData("test3.png"); // NOI18N
+        cache.put(image1, new ImageDimensions(1, 1));
+        cache.put(image2, new ImageDimensions(2, 2));
+
+        // image1 becomes the most recently used entry
+        assertNotNull(cache.get(image1));
+        cache.put(image3, new ImageDimensions(3, 3));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(image1));
+        assertNull(cache.get(image2));
+        assertNotNull(cache.get(image3));
+    }
+
+    public void testInvalidateOnChange() throws Exception {
+        ImageDimensionsCache cache = new ImageDimensionsCache(10);
+        FileObject folder = root.createFolder("imgs"); // NOI18N
+        FileObject image = folder.createData("test.png"); // NOI18N
+        cache.put(image, new ImageDimensions(100, 200));
+
+        try (OutputStream out = image.getOutputStream()) {
+            out.write(new byte[]{1, 2, 3});
+        }
+        assertNull(cache.get(image));
+        assertEquals(0, cache.size());
+    }
+
+    public void testInvalidateOnDelete() throws Exception {
+        ImageDimensionsCache cache = new ImageDimensionsCache(10);
+        FileObject image = root.createData("test.png"); // NOI18N
+        cache.put(image, new ImageDimensions(100, 200));
+
+        image.delete();
+        assertEquals(0, cache.size());
+    }
+
+    public void testUnreadableIsRemovedByEventsInItsFolder() throws Exception {
+        ImageDimensionsCache cache = new ImageDimensionsCache(10);
+        FileObject folder1 = root.createFolder("imgs1"); // NOI18N
+        FileObject folder2 = root.createFolder("imgs2"); // NOI18N
+        FileObject image1 = folder1.createData("broken1.png"); // NOI18N
+        FileObject image2 = folder2.createData("broken2.png"); // NOI18N
+        cache.putUnreadable(image1);
+        cache.putUnreadable(image2);
+        assertEquals(2, cache.getUnreadableFolderCount());
+
+        // other folders
+        root.createData("other.png"); // NOI18N
+        assertTrue(cache.isUnreadable(image1));
+        assertTrue(cache.isUnreadable(image2));
+
+        folder2.createData("new.png"); // NOI18N
+        assertTrue(cache.isUnreadable(image1));
+        assertFalse(cache.isUnreadable(image2));
+        // not listened anymore
+        assertEquals(1, cache.getUnreadableFolderCount());
+
+        cache.clear();
+        assertEquals(0, cache.getUnreadableFolderCount());
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import org.netbeans.junit.NbTestCase;
+
+/**
+ *
+ * @author junichi11
+ */
+public class ImageHeaderParserTest extends NbTestCase {
+
+    public ImageHeaderParserTest(String name) {
+        super(name);
+    }
+
+    public void testParsePng() throws Exception {
+        assertEquals(new ImageDimensions(642, 493), parse(TestImages.create("png", 642, 493))); // NOI18N
+    }
+
+    public void testParseJpeg() throws Exception {
+        assertEquals(new ImageDimensions(320, 240), parse(TestImages.create("jpg", 320, 240))); // NOI18N
+    }
+
+    public void testParseGif() throws Exception {
+        assertEquals(new ImageDimensions(17, 1), parse(TestImages.create("gif", 17, 1))); // NOI18N
+    }
+
+    public void testParseBmp() throws Exception {
+        assertEquals(new ImageDimensions(1000, 3), parse(TestImages.create("bmp", 1000, 3))); // NOI18N
+    }
+
+    public void testParseUnknown() throws Exception {
+        assertNull(parse(new byte[0]));
+        assertNull(parse("<svg></svg>".getBytes("UTF-8"))); // NOI18N
+    }
+
+    public void testParseTruncated() throws Exception {
+        byte[] png = TestImages.create("png", 10, 10); // NOI18N
+        byte[] truncated = new byte[20];
+        System.arraycopy(png, 0, truncated, 0, truncated.length);
+        try {
+            parse(truncated);
+            fail();
+        } catch (EOFException ex) {
+            // expected
+        }
+    }
+
+    private static ImageDimensions parse(byte[] bytes) throws IOException {
+        return ImageHeaderParser.parse(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import com.junichi11.netbeans.modules.html.enhancements.utils.ImageIOScheduler.Priority;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.netbeans.junit.NbTestCase;
+
+/**
+ *
+ * @author junichi11
+ */
+public class ImageIOSchedulerTest extends NbTestCase {
+
+    public ImageIOSchedulerTest(String name) {
+        super(name);
+    }
+
+    public void testPriority() throws Exception {
+        ImageIOScheduler scheduler = new ImageIOScheduler(getName(), 2, new Metrics());
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch releaseInteractive = new CountDownLatch(1);
+        Future<?> blocking = scheduler.post(Priority.BACKGROUND, () -> await(release));
+        Future<?> blockingInteractive = scheduler.post(Priority.INTERACTIVE, () -> await(releaseInteractive));
+        List<Priority> order = Collections.synchronizedList(new ArrayList<>());
+        List<Future<?>> futures = new ArrayList<>();
+        for (Priority priority : Arrays.asList(Priority.BACKGROUND, Priority.USER, Priority.INTERACTIVE, Priority.USER)) {
+            futures.add(scheduler.post(priority, () -> order.add(priority)));
+        }
+        assertEquals(1, scheduler.getQueueLength(Priority.BACKGROUND));
+        assertEquals(2, scheduler.getQueueLength(Priority.USER));
+        assertEquals(1, scheduler.getQueueLength(Priority.INTERACTIVE));
+        release.countDown();
+        blocking.get(10, TimeUnit.SECONDS);
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(Arrays.asList(Priority.INTERACTIVE, Priority.USER, Priority.USER, Priority.BACKGROUND), order);
+        releaseInteractive.countDown();
+        blockingInteractive.get(10, TimeUnit.SECONDS);
+    }
+
+    public void testInteractiveThreadIsKept() throws Exception {
+        // one thread is not allowed
+        ImageIOScheduler scheduler = new ImageIOScheduler(getName(), 1, new Metrics());
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> bulk = scheduler.post(Priority.USER, () -> await(release));
+        assertEquals("value", scheduler.submit(Priority.INTERACTIVE, () -> "value").get(10, TimeUnit.SECONDS)); // NOI18N
+        release.countDown();
+        bulk.get(10, TimeUnit.SECONDS);
+    }
+
+    public void testInteractiveIsNotBlockedByBulkTasks() throws Exception {
+        Metrics metrics = new Metrics();
+        ImageIOScheduler scheduler = new ImageIOScheduler(getName(), 2, metrics);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<?>> bulk = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            bulk.add(scheduler.post(Priority.BACKGROUND, () -> await(release)));
+            bulk.add(scheduler.post(Priority.USER, () -> await(release)));
+        }
+        // only one thread is used for bulk tasks
+        assertEquals(1, scheduler.getRunning());
+        assertEquals(5, scheduler.getQueueLength(Priority.BACKGROUND) + scheduler.getQueueLength(Priority.USER));
+        assertEquals(Long.valueOf(2), metrics.getCounters().get("io.background.queued")); // NOI18N
+
+        assertEquals("value", scheduler.submit(Priority.INTERACTIVE, () -> "value").get(10, TimeUnit.SECONDS)); // NOI18N
+        release.countDown();
+        for (Future<?> future : bulk) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        // the counter is decremented after the future is done
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (scheduler.getRunning() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, scheduler.getRunning());
+        assertEquals(Long.valueOf(1), metrics.getCounters().get("io.interactive.wait.count")); // NOI18N
+    }
+
+    public void testCancel() throws Exception {
+        ImageIOScheduler scheduler = new ImageIOScheduler(getName(), 2, new Metrics());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Future<?> running = scheduler.post(Priority.USER, () -> {
+            started.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException ex) {
+                interrupted.countDown();
+            }
+        });
+        Future<?> queued = scheduler.post(Priority.BACKGROUND, () -> fail());
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.getQueueLength(Priority.BACKGROUND));
+        // removed from the queue
+        queued.cancel(true);
+        assertEquals(0, scheduler.getQueueLength(Priority.BACKGROUND));
+        // interrupted
+        running.cancel(true);
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+        assertEquals("value", scheduler.submit(Priority.BACKGROUND, () -> "value").get(10, TimeUnit.SECONDS)); // NOI18N
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.io.IOException;
+import org.netbeans.junit.NbTestCase;
+import org.openide.filesystems.FileLock;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileSystem;
+import org.openide.filesystems.FileUtil;
+
+/**
+ *
+ * @author junichi11
+ */
+public class ImagePathResolverTest extends NbTestCase {
+
+    private FileObject root;
+    private FileObject html;
+    // listens to file changes
+    private ImagePathResolver listeningResolver;
+
+    public ImagePathResolverTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearWorkDir();
+        root = FileUtil.toFileObject(getWorkDir());
+        html = FileUtil.createData(root, "site/pages/index.html"); // NOI18N
+        FileUtil.createData(root, "site/pages/imgs/a.png"); // NOI18N
+        FileUtil.createData(root, "site/assets/b.png"); // NOI18N
+        // not the default one, it's shared with other tests
+        listeningResolver = new ImagePathResolver(10);
+        listeningResolver.startListening();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        listeningResolver.stopListening();
+        super.tearDown();
+    }
+
+    public void testResolve() throws Exception {
+        ImagePathResolver resolver = new ImagePathResolver(10);
+        assertEquals(root.getFileObject("site/pages/imgs/a.png"), resolver.resolve(html, "imgs/a.png")); // NOI18N
+        assertEquals(root.getFileObject("site/pages/imgs/a.png"), resolver.resolve(html, "./imgs/a.png")); // NOI18N
+        assertEquals(root.getFileObject("site/pages/imgs/a.png"), resolver.resolve(html, "imgs/a.png?v=2#top")); // NOI18N
+        assertEquals(root.getFileObject("site/assets/b.png"), resolver.resolve(html, "../assets/b.png")); // NOI18N
+        assertNull(resolver.resolve(html, "imgs/none.png")); // NOI18N
+        assertNull(resolver.resolve(html, "imgs")); // NOI18N
+        assertNull(resolver.resolve(html, "")); // NOI18N
+    }
+
+    public void testCache() throws Exception {
+        ImagePathResolver resolver = new ImagePathResolver(2);
+        resolver.resolve(html, "imgs/a.png"); // NOI18N
+        resolver.resolve(html, "imgs/a.png"); // NOI18N
+        assertEquals(1, resolver.size());
+        resolver.resolve(html, "../assets/b.png"); // NOI18N
+        resolver.resolve(html, "imgs/none.png"); // NOI18N
+        assertEquals(2, resolver.size());
+
+        // deleted files are not returned
+        FileObject b = root.getFileObject("site/assets/b.png"); // NOI18N
+        assertEquals(b, resolver.resolve(html, "../assets/b.png")); // NOI18N
+        b.delete();
+        assertNull(resolver.resolve(html, "../assets/b.png")); // NOI18N
+    }
+
+    public void testInvalidateOnCreate() throws Exception {
+        ImagePathResolver resolver = listeningResolver;
+        assertNull(resolver.resolve(html, "imgs/c.png")); // NOI18N
+        FileObject c = root.getFileObject("site/pages/imgs").createData("c.png"); // NOI18N
+        assertEquals(c, resolver.resolve(html, "imgs/c.png")); // NOI18N
+    }
+
+    public void testInvalidateOnCreateInExpectedFolder() throws Exception {
+        ImagePathResolver resolver = listeningResolver;
+        assertNull(resolver.resolve(html, "imgs/c.png")); // NOI18N
+        assertNull(resolver.resolve(html, "new/sub/e.png")); // NOI18N
+
+        // not in the expected folder
+        root.getFileObject("site/assets").createData("c.png"); // NOI18N
+        assertNull(resolver.resolve(html, "imgs/c.png")); // NOI18N
+
+        FileObject c = root.getFileObject("site/pages/imgs").createData("c.png"); // NOI18N
+        assertEquals(c, resolver.resolve(html, "imgs/c.png")); // NOI18N
+
+        // the parent folders are created one by one
+        FileObject e = FileUtil.createData(root, "site/pages/new/sub/e.png"); // NOI18N
+        assertEquals(e, resolver.resolve(html, "new/sub/e.png")); // NOI18N
+    }
+
+    public void testRename() throws Exception {
+        ImagePathResolver resolver = listeningResolver;
+        FileObject a = root.getFileObject("site/pages/imgs/a.png"); // NOI18N
+        FileObject b = root.getFileObject("site/assets/b.png"); // NOI18N
+        assertEquals(a, resolver.resolve(html, "imgs/a.png")); // NOI18N
+        assertEquals(b, resolver.resolve(html, "../assets/b.png")); // NOI18N
+        assertEquals(2, resolver.size());
+
+        // deleting other files doesn't affect entries
+        FileUtil.createData(root, "site/other.png").delete(); // NOI18N
+        assertEquals(2, resolver.size());
+
+        rename(b, "b2"); // NOI18N
+        assertEquals(1, resolver.size());
+        assertNull(resolver.resolve(html, "../assets/b.png")); // NOI18N
+        assertEquals(b, resolver.resolve(html, "../assets/b2.png")); // NOI18N
+
+        // files under a renamed folder
+        rename(root.getFileObject("site/pages/imgs"), "images"); // NOI18N
+        assertEquals(1, resolver.size());
+        assertNull(resolver.resolve(html, "imgs/a.png")); // NOI18N
+
+        // renamed to the expected name
+        rename(b, "b"); // NOI18N
+        assertEquals(b, resolver.resolve(html, "../assets/b.png")); // NOI18N
+    }
+
+    /**
+     * Rename a file. Events are fired before this returns.
+     */
+    private static void rename(FileObject file, String name) throws IOException {
+        FileUtil.runAtomicAction((FileSystem.AtomicAction) () -> {
+            FileLock lock = file.lock();
+            try {
+                file.rename(lock, name, file.getExt());
+            } finally {
+                lock.releaseLock();
+            }
+        });
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.util.List;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+import org.netbeans.api.html.lexer.HTMLTokenId;
+import org.netbeans.api.lexer.Language;
+import org.netbeans.junit.NbTestCase;
+import org.netbeans.modules.csl.api.OffsetRange;
+import org.openide.filesystems.FileUtil;
+
+/**
+ *
+ * @author junichi11
+ */
+public class ImgTagTest extends NbTestCase {
+
+    public ImgTagTest(String name) {
+        super(name);
+    }
+
+    public void testFind() throws Exception {
+        Document doc = getDocument(FileUtil.toFileObject(getDataDir()).getFileObject("testfiles/index.html").asText()); // NOI18N
+        assertNull(ImgTag.find(doc, 670));
+        // ^<
+        assertNull(ImgTag.find(doc, 764));
+        // >^
+        assertNull(ImgTag.find(doc, 850));
+
+        ImgTag imgTag = ImgTag.find(doc, 765);
+        assertNotNull(imgTag);
+        assertEquals(new OffsetRange(764, 850), imgTag.getRange());
+        assertEquals("imgs/test1.png", imgTag.getSrc()); // NOI18N
+        assertEquals("642", getText(doc, imgTag.getWidthRange())); // NOI18N
+        assertEquals("493", getText(doc, imgTag.getHeightRange())); // NOI18N
+        assertEquals(848, imgTag.getCloseOffset());
+        assertTrue(imgTag.isSelfClosing());
+
+        imgTag = ImgTag.find(doc, 849);
+        assertNotNull(imgTag);
+        assertEquals(new OffsetRange(764, 850), imgTag.getRange());
+
+        imgTag = ImgTag.find(doc, 876);
+        assertNotNull(imgTag);
+        assertEquals(new OffsetRange(859, 923), imgTag.getRange());
+        assertEquals("imgs/test2.png", imgTag.getSrc()); // NOI18N
+    }
+
+    public void testFindWithoutAttributes() throws Exception {
+        Document doc = getDocument("<p><img src='test.png' alt=\"\"></p>"); // NOI18N
+        ImgTag imgTag = ImgTag.find(doc, 10);
+        assertNotNull(imgTag);
+        assertEquals(new OffsetRange(3, 30), imgTag.getRange());
+        assertEquals("test.png", imgTag.getSrc()); // NOI18N
+        assertNull(imgTag.getWidthRange());
+        assertNull(imgTag.getHeightRange());
+        assertEquals(29, imgTag.getCloseOffset());
+        assertFalse(imgTag.isSelfClosing());
+    }
+
+    public void testFindUpperCase() throws Exception {
+        Document doc = getDocument("<p><IMG SRC=\"test.png\" WIDTH=\"2\" Height=\"3\"></p>"); // NOI18N
+        ImgTag imgTag = ImgTag.find(doc, 5);
+        assertNotNull(imgTag);
+        assertEquals(new OffsetRange(3, 44), imgTag.getRange());
+        assertEquals("test.png", imgTag.getSrc()); // NOI18N
+        assertEquals("2", getText(doc, imgTag.getWidthRange())); // NOI18N
+        assertEquals("3", getText(doc, imgTag.getHeightRange())); // NOI18N
+        assertEquals(1, ImgTag.findAll(doc).size());
+    }
+
+    public void testFindOtherTag() throws Exception {
+        Document doc = getDocument("<div class=\"test\"></div>"); // NOI18N
+        assertNull(ImgTag.find(doc, 5));
+    }
+
+    public void testFindAll() throws Exception {
+        Document doc = getDocument(FileUtil.toFileObject(getDataDir()).getFileObject("testfiles/index.html").asText()); // NOI18N
+        List<ImgTag> imgTags = ImgTag.findAll(doc);
+        assertEquals(2, imgTags.size());
+        assertEquals(new OffsetRange(764, 850), imgTags.get(0).getRange());
+        assertEquals("imgs/test1.png", imgTags.get(0).getSrc()); // NOI18N
+        assertEquals(new OffsetRange(859, 923), imgTags.get(1).getRange());
+        assertEquals("imgs/test2.png", imgTags.get(1).getSrc()); // NOI18N
+    }
+
+    public void testFindAllUnterminated() throws Exception {
+        Document doc = getDocument("<img src=\"a.png\" <img src=\"b.png\">"); // NOI18N
+        List<ImgTag> imgTags = ImgTag.findAll(doc);
+        assertEquals(1, imgTags.size());
+        assertEquals("b.png", imgTags.get(0).getSrc()); // NOI18N
+    }
+
+    public void testFindAllInRegion() throws Exception {
+        String text = "<p><img src=\"a.png\"></p>\n<p><img src=\"b.png\"></p>\n<p><img src=\"c.png\"></p>"; // NOI18N
+        Document doc = getDocument(text);
+        int b = text.indexOf("<img src=\"b.png\">"); // NOI18N
+        // inside the tag
+        List<ImgTag> imgTags = ImgTag.findAll(doc, b + 5, b + 6);
+        assertEquals(1, imgTags.size());
+        assertEquals("b.png", imgTags.get(0).getSrc()); // NOI18N
+        // from the end of a.png to the start of c.png
+        imgTags = ImgTag.findAll(doc, text.indexOf("</p>"), text.indexOf("c.png") - 1); // NOI18N
+        assertEquals(2, imgTags.size());
+        assertEquals("b.png", imgTags.get(0).getSrc()); // NOI18N
+        assertEquals("c.png", imgTags.get(1).getSrc()); // NOI18N
+        // no tags
+        assertTrue(ImgTag.findAll(doc, 0, 2).isEmpty());
+    }
+
+    private static String getText(Document doc, OffsetRange range) throws Exception {
+        return doc.getText(range.getStart(), range.getLength());
+    }
+
+    private static Document getDocument(String text) throws Exception {
+        Document doc = new PlainDocument();
+        doc.putProperty(Language.class, HTMLTokenId.language());
+        doc.insertString(0, text, null);
+        return doc;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Map;
+import org.netbeans.junit.NbTestCase;
+
+/**
+ *
+ * @author junichi11
+ */
+public class MetricsTest extends NbTestCase {
+
+    public MetricsTest(String name) {
+        super(name);
+    }
+
+    public void testCounters() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.recordCacheHit(Metrics.MEMORY_CACHE);
+        metrics.recordCacheHit(Metrics.MEMORY_CACHE);
+        metrics.recordCacheMiss(Metrics.MEMORY_CACHE);
+        metrics.recordProbe("png", false, System.nanoTime()); // NOI18N
+        try (InputStream in = metrics.countBytes(new ByteArrayInputStream(new byte[100]))) {
+            assertEquals(60, in.read(new byte[60]));
+            assertEquals(0, in.read());
+        }
+        Map<String, Long> counters = metrics.getCounters();
+        assertEquals(Long.valueOf(2), counters.get("cache.memory.hit")); // NOI18N
+        assertEquals(Long.valueOf(1), counters.get("cache.memory.miss")); // NOI18N
+        assertEquals(Long.valueOf(1), counters.get("probe.png.local.count")); // NOI18N
+        assertEquals(Long.valueOf(61), counters.get("bytesRead")); // NOI18N
+
+        metrics.reset();
+        assertTrue(metrics.getCounters().isEmpty());
+    }
+
+    public void testCompletionLatencyHistogram() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.recordCompletionQuery(System.nanoTime());
+        metrics.recordCompletionQuery(System.nanoTime() - 30_000_000L);
+        metrics.recordCompletionQuery(System.nanoTime() - 10_000_000_000L);
+        Map<String, Long> histogram = metrics.getCompletionLatencyHistogram();
+        assertEquals(Long.valueOf(1), histogram.get("<=1ms")); // NOI18N
+        assertEquals(Long.valueOf(1), histogram.get("<=50ms")); // NOI18N
+        assertEquals(Long.valueOf(1), histogram.get(">5000ms")); // NOI18N
+        assertEquals(Long.valueOf(3), metrics.getCounters().get("completion.query.count")); // NOI18N
+    }
+
+    public void testGetFormat() {
+        assertEquals("png", Metrics.getFormat("test.PNG")); // NOI18N
+        assertEquals("jpg", Metrics.getFormat("/imgs.v1/test.jpg")); // NOI18N
+        assertEquals("unknown", Metrics.getFormat("/imgs.v1/test")); // NOI18N
+        assertEquals("unknown", Metrics.getFormat("test.")); // NOI18N
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.netbeans.junit.NbTestCase;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+
+/**
+ *
+ * @author junichi11
+ */
+public class NegativeCacheTest extends NbTestCase {
+
+    private final AtomicLong now = new AtomicLong();
+
+    public NegativeCacheTest(String name) {
+        super(name);
+    }
+
+    public void testExpire() {
+        NegativeCache<String> cache = new NegativeCache<>(1000, 10, now::get);
+        assertFalse(cache.contains("a")); // NOI18N
+        cache.add("a"); // NOI18N
+        assertTrue(cache.contains("a")); // NOI18N
+
+        now.addAndGet(999_000_000L);
+        assertTrue(cache.contains("a")); // NOI18N
+        now.addAndGet(1_000_000L);
+        assertFalse(cache.contains("a")); // NOI18N
+        assertEquals(0, cache.size());
+    }
+
+    public void testEviction() {
+        NegativeCache<String> cache = new NegativeCache<>(1000, 2, now::get);
+        cache.add("a"); // NOI18N
+        cache.add("b"); // NOI18N
+        // "a" becomes the most recently used entry
+        assertTrue(cache.contains("a")); // NOI18N
+        cache.add("c"); // NOI18N
+        assertEquals(2, cache.size());
+        assertTrue(cache.contains("a")); // NOI18N
+        assertFalse(cache.contains("b")); // NOI18N
+        assertTrue(cache.contains("c")); // NOI18N
+    }
+
+    public void testRemoveFolder() throws Exception {
+        clearWorkDir();
+        FileObject root = FileUtil.toFileObject(getWorkDir());
+        FileObject folder1 = root.createFolder("imgs1"); // NOI18N
+        FileObject folder2 = root.createFolder("imgs2"); // NOI18N
+        NegativeCache<String> cache = new NegativeCache<>(1000, 10, now::get);
+        cache.add("imgs1/a.png", folder1); // NOI18N
+        cache.add("imgs2/b.png", folder2); // NOI18N
+        cache.add("c.png"); // NOI18N
+
+        cache.removeFolder(folder1);
+        assertFalse(cache.contains("imgs1/a.png")); // NOI18N
+        assertTrue(cache.contains("imgs2/b.png")); // NOI18N
+        assertTrue(cache.contains("c.png")); // NOI18N
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import org.netbeans.junit.NbTestCase;
+
+/**
+ *
+ * @author junichi11
+ */
+public class PersistentDimensionCacheTest extends NbTestCase {
+
+    private File file;
+
+    public PersistentDimensionCacheTest(String name) {
+        super(name);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        clearWorkDir();
+        file = new File(getWorkDir(), "dimensions.bin"); // NOI18N
+    }
+
+    public void testPutAndGet() throws Exception {
+        PersistentDimensionCache cache = new PersistentDimensionCache(file, 60000);
+        assertNull(cache.get("file:/a.png", 1, 10)); // NOI18N
+        cache.put("file:/a.png", 1, 10, new ImageDimensions(100, 200)); // NOI18N
+        cache.put("file:/b.png", 2, 20, new ImageDimensions(300, 400)); // NOI18N
+        assertEquals(new ImageDimensions(100, 200), cache.get("file:/a.png", 1, 10)); // NOI18N
+        assertFalse(file.exists());
+        cache.flush();
+        assertTrue(file.isFile());
+
+        // read from the mapped file
+        cache = new PersistentDimensionCache(file, 60000);
+        assertEquals(2, cache.size());
+        assertEquals(new ImageDimensions(100, 200), cache.get("file:/a.png", 1, 10)); // NOI18N
+        assertEquals(new ImageDimensions(300, 400), cache.get("file:/b.png", 2, 20)); // NOI18N
+        // modified
+        assertNull(cache.get("file:/a.png", 3, 10)); // NOI18N
+        assertNull(cache.get("file:/a.png", 1, 11)); // NOI18N
+    }
+
+    public void testAppend() throws Exception {
+        PersistentDimensionCache cache = new PersistentDimensionCache(file, 60000);
+        cache.put("file:/a.png", 1, 10, new ImageDimensions(100, 200)); // NOI18N
+        cache.flush();
+        cache = new PersistentDimensionCache(file, 60000);
+        cache.put("file:/a.png", 2, 10, new ImageDimensions(10, 20)); // NOI18N
+        cache.put("file:/c.png", 1, 10, new ImageDimensions(1, 2)); // NOI18N
+        cache.flush();
+
+        // the last entry wins
+        cache = new PersistentDimensionCache(file, 60000);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("file:/a.png", 1, 10)); // NOI18N
+        assertEquals(new ImageDimensions(10, 20), cache.get("file:/a.png", 2, 10)); // NOI18N
+        assertEquals(new ImageDimensions(1, 2), cache.get("file:/c.png", 1, 10)); // NOI18N
+    }
+
+    public void testCompact() throws Exception {
+        PersistentDimensionCache cache = new PersistentDimensionCache(file, 60000);
+        for (int i = 0; i < 40; i++) {
+            cache.put("file:/a.png", i, 10, new ImageDimensions(i, i)); // NOI18N
+            cache.flush();
+        }
+        long length = file.length();
+        cache = new PersistentDimensionCache(file, 60000);
+        assertEquals(new ImageDimensions(39, 39), cache.get("file:/a.png", 39, 10)); // NOI18N
+        assertTrue(file.length() < length);
+        assertEquals(1, cache.size());
+    }
+
+    public void testFlushedEntriesAreDropped() throws Exception {
+        PersistentDimensionCache cache = new PersistentDimensionCache(file, 60000);
+        cache.put("file:/a.png", 1, 10, new ImageDimensions(100, 200)); // NOI18N
+        cache.put("file:/b.png", 2, 20, new ImageDimensions(300, 400)); // NOI18N
+        assertEquals(2, cache.getAddedCount());
+        cache.flush();
+        assertEquals(0, cache.getAddedCount());
+        // read from the mapped file
+        assertEquals(new ImageDimensions(100, 200), cache.get("file:/a.png", 1, 10)); // NOI18N
+        assertEquals(new ImageDimensions(300, 400), cache.get("file:/b.png", 2, 20)); // NOI18N
+        // not written again
+        long length = file.length();
+        cache.put("file:/a.png", 1, 10, new ImageDimensions(100, 200)); // NOI18N
+        assertEquals(0, cache.getAddedCount());
+        cache.flush();
+        assertEquals(length, file.length());
+
+        cache.put("file:/a.png", 3, 10, new ImageDimensions(10, 20)); // NOI18N
+        cache.flush();
+        assertEquals(0, cache.getAddedCount());
+        assertEquals(2, cache.size());
+        assertNull(cache.get("file:/a.png", 1, 10)); // NOI18N
+        assertEquals(new ImageDimensions(10, 20), cache.get("file:/a.png", 3, 10)); // NOI18N
+    }
+
+    public void testMaxEntries() throws Exception {
+        PersistentDimensionCache cache = new PersistentDimensionCache(file, 60000, 2);
+        cache.put("file:/a.png", 1, 10, new ImageDimensions(1, 1)); // NOI18N
+        cache.put("file:/b.png", 1, 10, new ImageDimensions(2, 2)); // NOI18N
+        cache.put("file:/c.png", 1, 10, new ImageDimensions(3, 3)); // NOI18N
+        // not flushed yet
+        assertEquals(2, cache.getAddedCount());
+        assertNull(cache.get("file:/a.png", 1, 10)); // NOI18N
+        cache.flush();
+        assertEquals(2, cache.size());
+        assertNull(cache.get("file:/a.png", 1, 10)); // NOI18N
+        assertEquals(new ImageDimensions(3, 3), cache.get("file:/c.png", 1, 10)); // NOI18N
+
+        // the oldest entries are dropped from the file
+        cache = new PersistentDimensionCache(file, 60000, 1);
+        assertEquals(1, cache.size());
+        assertNull(cache.get("file:/b.png", 1, 10)); // NOI18N
+        assertEquals(new ImageDimensions(3, 3), cache.get("file:/c.png", 1, 10)); // NOI18N
+        cache = new PersistentDimensionCache(file, 60000);
+        assertEquals(1, cache.size());
+    }
+
+    public void testBrokenEntry() throws Exception {
+        PersistentDimensionCache cache = new PersistentDimensionCache(file, 60000);
+        cache.put("file:/a.png", 1, 10, new ImageDimensions(100, 200)); // NOI18N
+        cache.put("file:/b.png", 2, 20, new ImageDimensions(300, 400)); // NOI18N
+        cache.flush();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) { // NOI18N
+            randomAccessFile.setLength(file.length() - 4);
+        }
+        cache = new PersistentDimensionCache(file, 60000);
+        assertEquals(new ImageDimensions(100, 200), cache.get("file:/a.png", 1, 10)); // NOI18N
+        assertNull(cache.get("file:/b.png", 2, 20)); // NOI18N
+        cache.put("file:/b.png", 2, 20, new ImageDimensions(300, 400)); // NOI18N
+        cache.flush();
+
+        cache = new PersistentDimensionCache(file, 60000);
+        assertEquals(new ImageDimensions(300, 400), cache.get("file:/b.png", 2, 20)); // NOI18N
+    }
+
+    public void testUnknownFormat() throws Exception {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) { // NOI18N
+            randomAccessFile.writeInt(1);
+            randomAccessFile.writeInt(2);
+        }
+        PersistentDimensionCache cache = new PersistentDimensionCache(file, 60000);
+        assertNull(cache.get("file:/a.png", 1, 10)); // NOI18N
+        assertFalse(file.exists());
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.netbeans.junit.NbTestCase;
+
+/**
+ *
+ * @author junichi11
+ */
+public class RemoteImageProbeTest extends NbTestCase {
+
+    private static final String ETAG = "\"abc\""; // NOI18N
+    private HttpServer server;
+    private byte[] image;
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private final List<String> etags = new CopyOnWriteArrayList<>();
+    private volatile boolean honorRange = true;
+    private volatile boolean chunked = false;
+    private volatile long delay = 0;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    public RemoteImageProbeTest(String name) {
+        super(name);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        clearWorkDir();
+        image = TestImages.create("png", 642, 493); // NOI18N
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle); // NOI18N
+        server.start();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        server.stop(0);
+    }
+
+    public void testProbeWithRange() throws Exception {
+        RemoteImageProbe probe = createProbe(null, 1000, 0);
+        assertEquals(new ImageDimensions(642, 493), probe.probe(getUrl("/test.png"))); // NOI18N
+        assertEquals(1, ranges.size());
+        assertEquals("bytes=0-16383", ranges.get(0)); // NOI18N
+    }
+
+    public void testProbeWithoutRangeSupport() throws Exception {
+        honorRange = false;
+        RemoteImageProbe probe = createProbe(null, 1000, 0);
+        assertEquals(new ImageDimensions(642, 493), probe.probe(getUrl("/test.png"))); // NOI18N
+    }
+
+    public void testRevalidate() throws Exception {
+        RemoteImageProbe probe = createProbe(null, 1000, 0);
+        URL url = getUrl("/test.png"); // NOI18N
+        assertEquals(new ImageDimensions(642, 493), probe.probe(url));
+        assertEquals(new ImageDimensions(642, 493), probe.probe(url));
+        assertEquals(2, etags.size());
+        assertNull(etags.get(0));
+        assertEquals(ETAG, etags.get(1));
+    }
+
+    public void testDiskCache() throws Exception {
+        File cacheFile = new File(getWorkDir(), "remote-images.properties"); // NOI18N
+        URL url = getUrl("/test.png"); // NOI18N
+        RemoteImageProbe probe = createProbe(cacheFile, 1000, 60000);
+        assertEquals(new ImageDimensions(642, 493), probe.probe(url));
+        // written in batches
+        assertFalse(cacheFile.isFile());
+        probe.flush();
+        assertTrue(cacheFile.isFile());
+
+        // a new instance reads the dimensions from the disk cache
+        server.stop(0);
+        probe = createProbe(cacheFile, 1000, 60000);
+        assertEquals(new ImageDimensions(642, 493), probe.probe(url));
+        assertEquals(1, ranges.size());
+    }
+
+    public void testNotFound() throws Exception {
+        RemoteImageProbe probe = createProbe(null, 1000, 0);
+        assertNull(probe.probe(getUrl("/missing.png"))); // NOI18N
+
+        // the failed URL is not requested again
+        assertNull(probe.probe(getUrl("/missing.png"))); // NOI18N
+        assertEquals(1, requests.get());
+    }
+
+    public void testReadTimeout() throws Exception {
+        delay = 3000;
+        RemoteImageProbe probe = createProbe(null, 200, 0);
+        long start = System.currentTimeMillis();
+        assertNull(probe.probe(getUrl("/test.png"))); // NOI18N
+        assertTrue(System.currentTimeMillis() - start < delay);
+    }
+
+    public void testStaleEntryIsUsedIfRevalidationFails() throws Exception {
+        RemoteImageProbe probe = createProbe(null, 1000, 0);
+        URL url = getUrl("/test.png"); // NOI18N
+        assertEquals(new ImageDimensions(642, 493), probe.probe(url));
+        server.stop(0);
+        assertEquals(new ImageDimensions(642, 493), probe.probe(url));
+        // negative cache
+        assertEquals(new ImageDimensions(642, 493), probe.probe(url));
+    }
+
+    public void testTotalTimeout() throws Exception {
+        // every read is shorter than the read timeout
+        RemoteImageProbe probe = new RemoteImageProbe(null, 1000, 1000, 500, 0, 10, 1024 * 1024);
+        long start = System.currentTimeMillis();
+        assertNull(probe.probe(getUrl("/slow.png"))); // NOI18N
+        assertTrue(System.currentTimeMillis() - start < 3000);
+    }
+
+    public void testMaxImageSize() throws Exception {
+        // TIFF headers are not parsed, the image is decoded
+        image = TestImages.create("tiff", 200, 200); // NOI18N
+        honorRange = false;
+        assertNull(new RemoteImageProbe(null, 1000, 1000, 5000, 0, 10, 32 * 1024).probe(getUrl("/test.png"))); // NOI18N
+        assertEquals(new ImageDimensions(200, 200), new RemoteImageProbe(null, 1000, 1000, 5000, 0, 10, 1024 * 1024).probe(getUrl("/test.png"))); // NOI18N
+
+        // without Content-Length
+        chunked = true;
+        assertNull(new RemoteImageProbe(null, 1000, 1000, 5000, 0, 10, 32 * 1024).probe(getUrl("/test.png"))); // NOI18N
+        assertEquals(new ImageDimensions(200, 200), new RemoteImageProbe(null, 1000, 1000, 5000, 0, 10, 1024 * 1024).probe(getUrl("/test.png"))); // NOI18N
+    }
+
+    public void testCacheSize() throws Exception {
+        File cacheFile = new File(getWorkDir(), "remote-images.properties"); // NOI18N
+        RemoteImageProbe probe = new RemoteImageProbe(cacheFile, 1000, 1000, 5000, 60000, 2, 1024 * 1024);
+        for (String query : new String[]{"a", "b", "c"}) { // NOI18N
+            assertNotNull(probe.probe(getUrl("/test.png?" + query))); // NOI18N
+        }
+        probe.flush();
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(cacheFile)) {
+            properties.load(in);
+        }
+        assertEquals(2, properties.size());
+
+        server.stop(0);
+        probe = new RemoteImageProbe(cacheFile, 1000, 1000, 5000, 60000, 2, 1024 * 1024);
+        assertNull(probe.probe(getUrl("/test.png?a"))); // NOI18N
+        assertNotNull(probe.probe(getUrl("/test.png?b"))); // NOI18N
+        assertNotNull(probe.probe(getUrl("/test.png?c"))); // NOI18N
+    }
+
+    private static RemoteImageProbe createProbe(File cacheFile, int readTimeout, long freshness) {
+        return new RemoteImageProbe(cacheFile, 1000, readTimeout, 5000, freshness, 10, 1024 * 1024);
+    }
+
+    private URL getUrl(String path) throws IOException {
+        InetSocketAddress address = server.getAddress();
+        return new URL("http", address.getHostString(), address.getPort(), path); // NOI18N
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (exchange.getRequestURI().getPath().equals("/slow.png")) { // NOI18N
+                exchange.sendResponseHeaders(200, 0);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    for (int i = 0; i < 20; i++) {
+                        out.write(image[i]);
+                        out.flush();
+                        Thread.sleep(300);
+                    }
+                } catch (IOException | InterruptedException ex) {
+                    // disconnected
+                }
+                return;
+            }
+            if (!exchange.getRequestURI().getPath().equals("/test.png")) { // NOI18N
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range"); // NOI18N
+            String etag = exchange.getRequestHeaders().getFirst("If-None-Match"); // NOI18N
+            ranges.add(String.valueOf(range));
+            etags.add(etag);
+            exchange.getResponseHeaders().add("ETag", ETAG); // NOI18N
+            if (ETAG.equals(etag)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            byte[] body = image;
+            int code = 200;
+            if (honorRange && range != null) {
+                int end = Integer.parseInt(range.substring(range.indexOf('-') + 1));
+                int length = Math.min(image.length, end + 1);
+                body = new byte[length];
+                System.arraycopy(image, 0, body, 0, length);
+                code = 206;
+            }
+            exchange.sendResponseHeaders(code, chunked ? 0 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.netbeans.junit.NbTestCase;
+
+/**
+ *
+ * @author junichi11
+ */
+public class SingleFlightTest extends NbTestCase {
+
+    public SingleFlightTest(String name) {
+        super(name);
+    }
+
+    public void testCoalesce() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<String> result = new AtomicReference<>();
+        Thread leader = new Thread(() -> {
+            try {
+                result.set(singleFlight.get("a", () -> { // NOI18N
+                    loads.incrementAndGet();
+                    started.countDown();
+                    await(release);
+                    return "value"; // NOI18N
+                }));
+            } catch (InterruptedException ex) {
+                fail();
+            }
+        });
+        leader.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Thread follower = new Thread(() -> {
+            try {
+                assertEquals("value", singleFlight.get("a", () -> { // NOI18N
+                    loads.incrementAndGet();
+                    return "other"; // NOI18N
+                }));
+            } catch (InterruptedException ex) {
+                fail();
+            }
+        });
+        follower.start();
+        // the follower is waiting for the leader
+        follower.join(200);
+        assertTrue(follower.isAlive());
+        release.countDown();
+        leader.join();
+        follower.join();
+        assertEquals("value", result.get()); // NOI18N
+        assertEquals(1, loads.get());
+        assertEquals(0, singleFlight.size());
+
+        // not cached
+        assertEquals("next", singleFlight.get("a", () -> "next")); // NOI18N
+    }
+
+    public void testNullValue() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        assertNull(singleFlight.get("a", () -> null)); // NOI18N
+        assertEquals(0, singleFlight.size());
+    }
+
+    public void testInterruptedFollower() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<String> result = new AtomicReference<>();
+        Thread leader = new Thread(() -> {
+            try {
+                result.set(singleFlight.get("a", () -> { // NOI18N
+                    started.countDown();
+                    await(release);
+                    return "value"; // NOI18N
+                }));
+            } catch (InterruptedException ex) {
+                fail();
+            }
+        });
+        leader.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        AtomicReference<Boolean> interrupted = new AtomicReference<>(false);
+        Thread follower = new Thread(() -> {
+            try {
+                singleFlight.get("a", () -> "other"); // NOI18N
+            } catch (InterruptedException ex) {
+                interrupted.set(true);
+            }
+        });
+        follower.start();
+        follower.interrupt();
+        follower.join();
+        assertTrue(interrupted.get());
+
+        // the leader is not affected
+        release.countDown();
+        leader.join();
+        assertEquals("value", result.get()); // NOI18N
+    }
+
+    public void testInterruptedLeader() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Boolean> interrupted = new AtomicReference<>(false);
+        Thread leader = new Thread(() -> {
+            try {
+                singleFlight.get("a", () -> { // NOI18N
+                    started.countDown();
+                    await(release);
+                    return "incomplete"; // NOI18N
+                });
+            } catch (InterruptedException ex) {
+                interrupted.set(true);
+            }
+        });
+        leader.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        AtomicReference<String> result = new AtomicReference<>();
+        Thread follower = new Thread(() -> {
+            try {
+                result.set(singleFlight.get("a", () -> "reloaded")); // NOI18N
+            } catch (InterruptedException ex) {
+                fail();
+            }
+        });
+        follower.start();
+        follower.join(200);
+        leader.interrupt();
+        leader.join();
+        follower.join();
+        assertTrue(interrupted.get());
+        assertEquals("reloaded", result.get()); // NOI18N
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            // keep the interrupt status like interrupted I/O
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.imageio.ImageIO;
+import org.openide.filesystems.FileObject;
+
+/**
+ * Create images for tests.
+ *
+ * @author junichi11
+ */
+public final class TestImages {
+
+    private TestImages() {
+    }
+
+    /**
+     * Create an image.
+     *
+     * @param format the format name of ImageIO (e.g. "png", "jpg")
+     * @param width the width
+     * @param height the height
+     * @return the bytes of the image
+     * @throws IOException if there is no writer for the format
+     */
+    public static byte[] create(String format, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, format, out)) {
+            throw new IOException("No writer for " + format); // NOI18N
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Create an image file. The format is the extension of the name.
+     *
+     * @param folder the folder
+     * @param name the file name (e.g. "test.png")
+     * @param width the width
+     * @param height the height
+     * @return the image file
+     * @throws IOException if the file cannot be written
+     */
+    public static FileObject createFile(FileObject folder, String name, int width, int height) throws IOException {
+        FileObject image = folder.createData(name);
+        write(image, create(image.getExt(), width, height));
+        return image;
+    }
+
+    public static void write(FileObject file, byte[] bytes) throws IOException {
+        try (OutputStream out = file.getOutputStream()) {
+            out.write(bytes);
+        }
+    }
+}
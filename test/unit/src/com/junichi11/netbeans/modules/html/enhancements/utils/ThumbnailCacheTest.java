@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 junichi11.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.junichi11.netbeans.modules.html.enhancements.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.netbeans.junit.NbTestCase;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+
+/**
+ *
+ * @author junichi11
+ */
+public class ThumbnailCacheTest extends NbTestCase {
+
+    private FileObject root;
+    private File cacheDirectory;
+
+    public ThumbnailCacheTest(String name) {
+        super(name);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        clearWorkDir();
+        root = FileUtil.toFileObject(getWorkDir()).createFolder("imgs"); // NOI18N
+        cacheDirectory = new File(getWorkDir(), "thumbnails"); // NOI18N
+    }
+
+    public void testDecode() throws Exception {
+        FileObject image = TestImages.createFile(root, "large.png", 1000, 500); // NOI18N
+        BufferedImage thumbnail = ThumbnailCache.decode(image, 128);
+        assertEquals(128, thumbnail.getWidth());
+        assertEquals(64, thumbnail.getHeight());
+
+        // small images are not scaled
+        image = TestImages.createFile(root, "small.png", 20, 10); // NOI18N
+        thumbnail = ThumbnailCache.decode(image, 128);
+        assertEquals(20, thumbnail.getWidth());
+        assertEquals(10, thumbnail.getHeight());
+
+        FileObject text = root.createData("test.txt"); // NOI18N
+        assertNull(ThumbnailCache.decode(text, 128));
+    }
+
+    public void testGet() throws Exception {
+        FileObject image = TestImages.createFile(root, "test.png", 300, 300); // NOI18N
+        ThumbnailCache cache = new ThumbnailCache(cacheDirectory, 32, 10, 10);
+        ThumbnailCache.Thumbnail thumbnail = cache.get(image);
+        assertNotNull(thumbnail);
+        assertEquals(image.getSize(), thumbnail.getFileSize());
+        BufferedImage read = ImageIO.read(thumbnail.getUrl());
+        assertEquals(32, read.getWidth());
+        assertEquals(32, read.getHeight());
+
+        // memory
+        assertSame(thumbnail, cache.get(image));
+
+        // disk
+        File file = new File(thumbnail.getUrl().toURI());
+        long lastModified = file.lastModified();
+        cache = new ThumbnailCache(cacheDirectory, 32, 10, 10);
+        ThumbnailCache.Thumbnail cached = cache.get(image);
+        assertEquals(thumbnail.getUrl(), cached.getUrl());
+        assertEquals(lastModified, file.lastModified());
+    }
+
+    public void testPrune() throws Exception {
+        ThumbnailCache cache = new ThumbnailCache(cacheDirectory, 32, 10, 2);
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(cache.get(TestImages.createFile(root, "test" + i + ".png", 100, 100))); // NOI18N
+        }
+        assertTrue(cacheDirectory.listFiles().length <= 2);
+    }
+
+    public void testConcurrentWrites() throws Exception {
+        FileObject image = TestImages.createFile(root, "test.png", 300, 300); // NOI18N
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // the directory doesn't exist yet in each round
+            for (int round = 0; round < 10; round++) {
+                File directory = new File(cacheDirectory, String.valueOf(round));
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<ThumbnailCache.Thumbnail>> futures = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    // each instance writes the same thumbnail
+                    ThumbnailCache cache = new ThumbnailCache(directory, 32, 10, 10);
+                    futures.add(executor.submit(() -> {
+                        start.await();
+                        return cache.get(image);
+                    }));
+                }
+                start.countDown();
+                for (Future<ThumbnailCache.Thumbnail> future : futures) {
+                    ThumbnailCache.Thumbnail thumbnail = future.get(10, TimeUnit.SECONDS);
+                    assertNotNull(thumbnail);
+                    assertEquals(32, ImageIO.read(thumbnail.getUrl()).getWidth());
+                }
+                // no temporary files are left
+                assertEquals(1, directory.listFiles().length);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testPruneTemporaryFiles() throws Exception {
+        assertTrue(cacheDirectory.mkdirs());
+        File stale = new File(cacheDirectory, "stale.png.tmp"); // NOI18N
+        assertTrue(stale.createNewFile());
+        assertTrue(stale.setLastModified(System.currentTimeMillis() - 2 * 60 * 60 * 1000L));
+        File writing = new File(cacheDirectory, "writing.png.tmp"); // NOI18N
+        assertTrue(writing.createNewFile());
+
+        ThumbnailCache cache = new ThumbnailCache(cacheDirectory, 32, 10, 10);
+        assertNotNull(cache.get(TestImages.createFile(root, "test.png", 100, 100))); // NOI18N
+        assertFalse(stale.exists());
+        assertTrue(writing.exists());
+    }
+}